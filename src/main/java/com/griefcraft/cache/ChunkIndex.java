@@ -0,0 +1,620 @@
+package com.griefcraft.cache;
+
+import com.griefcraft.model.Protection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spatial index of cached protections, organized as world id -> chunk -> block. Every block can hold the protection
+ * located directly on it and a protection that merely matches it (for example the other half of a double chest).
+ * Lookups do not allocate any objects.
+ *
+ * For loaded chunks the index additionally knows every protected position of the chunk (its presence), so a lookup
+ * of an unprotected block can be answered without asking the database, even if protections were evicted.
+ */
+public class ChunkIndex {
+
+    /**
+     * What is known about a protection being located on a block
+     */
+    public enum Presence {
+        /**
+         * The protected positions of the chunk are not known
+         */
+        UNKNOWN,
+
+        /**
+         * There is no protection on the block
+         */
+        ABSENT,
+
+        /**
+         * There is a protection on the block, but it might not be cached
+         */
+        PRESENT
+    }
+
+    /**
+     * The chunks of each world, indexed by the world id and keyed by {@link #chunkKey(int, int)}
+     */
+    @SuppressWarnings("unchecked")
+    private LongObjectHashMap<ChunkSection>[] worlds = new LongObjectHashMap[4];
+
+    /**
+     * The last presence version handed out, shared by all chunks so versions are never reused
+     */
+    private int lastPresenceVersion;
+
+    /**
+     * The data of a single chunk. Blocks are keyed by {@link #localKey(int, int, int)}
+     */
+    private static final class ChunkSection {
+        private LongObjectHashMap<Protection> direct;
+        private LongObjectHashMap<Protection> matched;
+
+        /**
+         * If the chunk is currently loaded in the world
+         */
+        private boolean loaded;
+
+        /**
+         * The sorted positions of all protections in the chunk, null if unknown
+         */
+        private long[] presence;
+        private int presenceSize;
+
+        /**
+         * Changed whenever the protected positions of the chunk might have changed, so presences loaded in the
+         * meantime can be rejected
+         */
+        private int presenceVersion;
+
+        /**
+         * Blocks that are known to not be protected, not even via a protection on another block
+         */
+        private LongObjectHashMap<Object> knownNulls;
+
+        private boolean isEmpty() {
+            return !loaded && (direct == null || direct.isEmpty()) && (matched == null || matched.isEmpty());
+        }
+
+        private int presenceIndex(long local) {
+            return Arrays.binarySearch(presence, 0, presenceSize, local);
+        }
+    }
+
+    /**
+     * Used as value in the known null sets
+     */
+    private static final Object FAKE_VALUE = new Object();
+
+    /**
+     * Get the protection on the given block. Protections placed directly on the block take precedence over
+     * protections that only match it.
+     *
+     * @param world the world id
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public Protection get(int world, int x, int y, int z) {
+        ChunkSection section = section(world, x, z);
+        if (section == null) {
+            return null;
+        }
+
+        long local = localKey(x, y, z);
+        Protection protection;
+        if (section.direct != null && (protection = section.direct.get(local)) != null) {
+            return protection;
+        }
+        return section.matched != null ? section.matched.get(local) : null;
+    }
+
+    /**
+     * Check if the given block is matched by a protection that is not located on it
+     *
+     * @param world the world id
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean isMatched(int world, int x, int y, int z) {
+        ChunkSection section = section(world, x, z);
+        return section != null && section.matched != null && section.matched.containsKey(localKey(x, y, z));
+    }
+
+    /**
+     * Index a protection located directly on the given block
+     *
+     * @param world the world id
+     * @param x
+     * @param y
+     * @param z
+     * @param protection
+     */
+    public void putDirect(int world, int x, int y, int z, Protection protection) {
+        ChunkSection section = getOrCreateSection(world, x, z);
+        if (section.direct == null) {
+            section.direct = new LongObjectHashMap<>();
+        }
+        long local = localKey(x, y, z);
+        section.direct.put(local, protection);
+        addPresence(section, local);
+        if (section.knownNulls != null) {
+            section.knownNulls.remove(local);
+        }
+    }
+
+    /**
+     * Index a protection that matches the given block without being located on it
+     *
+     * @param world the world id
+     * @param x
+     * @param y
+     * @param z
+     * @param protection
+     */
+    public void putMatched(int world, int x, int y, int z, Protection protection) {
+        ChunkSection section = getOrCreateSection(world, x, z);
+        if (section.matched == null) {
+            section.matched = new LongObjectHashMap<>();
+        }
+        long local = localKey(x, y, z);
+        section.matched.put(local, protection);
+        if (section.knownNulls != null) {
+            section.knownNulls.remove(local);
+        }
+    }
+
+    /**
+     * Remove anything indexed on the given block. The presence is kept, as it reflects the database.
+     *
+     * @param world the world id
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void remove(int world, int x, int y, int z) {
+        LongObjectHashMap<ChunkSection> chunks = chunks(world);
+        if (chunks == null) {
+            return;
+        }
+        long chunkKey = chunkKey(x >> 4, z >> 4);
+        ChunkSection section = chunks.get(chunkKey);
+        if (section == null) {
+            return;
+        }
+
+        long local = localKey(x, y, z);
+        if (section.direct != null) {
+            section.direct.remove(local);
+        }
+        if (section.matched != null) {
+            section.matched.remove(local);
+        }
+        if (section.knownNulls != null) {
+            section.knownNulls.remove(local);
+        }
+        if (section.isEmpty()) {
+            removeSection(world, chunks, chunkKey);
+        }
+    }
+
+    /**
+     * Remove every entry pointing to the given protection within the chunks touched by the given radius around
+     * a block
+     *
+     * @param protection
+     * @param world the world id
+     * @param x
+     * @param z
+     * @param radius
+     */
+    public void removeProtection(Protection protection, int world, int x, int z, int radius) {
+        LongObjectHashMap<ChunkSection> chunks = chunks(world);
+        if (chunks == null) {
+            return;
+        }
+
+        // computed as long, legacy entity protections use coordinates close to the int range
+        for (long chunkX = ((long) x - radius) >> 4; chunkX <= ((long) x + radius) >> 4; chunkX++) {
+            for (long chunkZ = ((long) z - radius) >> 4; chunkZ <= ((long) z + radius) >> 4; chunkZ++) {
+                long chunkKey = chunkKey((int) chunkX, (int) chunkZ);
+                ChunkSection section = chunks.get(chunkKey);
+                if (section == null) {
+                    continue;
+                }
+
+                removeValue(section.direct, protection);
+                removeValue(section.matched, protection);
+                if (section.isEmpty()) {
+                    removeSection(world, chunks, chunkKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check what is known about a protection on the given block
+     *
+     * @param world the world id
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public Presence getPresence(int world, int x, int y, int z) {
+        ChunkSection section = section(world, x, z);
+        if (section == null || section.presence == null) {
+            return Presence.UNKNOWN;
+        }
+        return section.presenceIndex(localKey(x, y, z)) >= 0 ? Presence.PRESENT : Presence.ABSENT;
+    }
+
+    /**
+     * Get the presence version of a loaded chunk. It has to be fetched before the positions are loaded from the
+     * database and passed to {@link #setPresence(int, int, int, long[], int)}.
+     *
+     * @param world the world id
+     * @param chunkX
+     * @param chunkZ
+     * @return the version or -1 if the chunk is not loaded
+     */
+    public int getPresenceVersion(int world, int chunkX, int chunkZ) {
+        LongObjectHashMap<ChunkSection> chunks = chunks(world);
+        ChunkSection section = chunks == null ? null : chunks.get(chunkKey(chunkX, chunkZ));
+        return section != null && section.loaded ? section.presenceVersion : -1;
+    }
+
+    /**
+     * Set all protected positions of a loaded chunk. Ignored if the chunk is not loaded anymore or a protection
+     * was added to it since the version was fetched.
+     *
+     * @param world the world id
+     * @param chunkX
+     * @param chunkZ
+     * @param positions the block positions as {@link #localKey(int, int, int)}
+     * @param version the version from {@link #getPresenceVersion(int, int, int)}
+     * @return true if the presence was set
+     */
+    public boolean setPresence(int world, int chunkX, int chunkZ, long[] positions, int version) {
+        LongObjectHashMap<ChunkSection> chunks = chunks(world);
+        ChunkSection section = chunks == null ? null : chunks.get(chunkKey(chunkX, chunkZ));
+        if (section == null || !section.loaded || section.presenceVersion != version) {
+            return false;
+        }
+
+        long[] sorted = positions.clone();
+        Arrays.sort(sorted);
+        section.presence = sorted;
+        section.presenceSize = sorted.length;
+        return true;
+    }
+
+    /**
+     * Record that a protection exists on the given block, if the presence of the chunk is known
+     *
+     * @param world the world id
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void markPresent(int world, int x, int y, int z) {
+        ChunkSection section = section(world, x, z);
+        if (section != null) {
+            section.presenceVersion = ++lastPresenceVersion;
+            addPresence(section, localKey(x, y, z));
+        }
+    }
+
+    /**
+     * Record that no protection exists on the given block
+     *
+     * @param world the world id
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void markAbsent(int world, int x, int y, int z) {
+        ChunkSection section = section(world, x, z);
+        if (section == null || section.presence == null) {
+            return;
+        }
+
+        int index = section.presenceIndex(localKey(x, y, z));
+        if (index >= 0) {
+            System.arraycopy(section.presence, index + 1, section.presence, index, section.presenceSize - index - 1);
+            section.presenceSize--;
+        }
+    }
+
+    /**
+     * Check if the given block is known to not be protected
+     *
+     * @param world the world id
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean isKnownNull(int world, int x, int y, int z) {
+        ChunkSection section = section(world, x, z);
+        return section != null && section.knownNulls != null && section.knownNulls.containsKey(localKey(x, y, z));
+    }
+
+    /**
+     * Make a block known as not protected. Ignored if the chunk is not loaded.
+     *
+     * @param world the world id
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void addKnownNull(int world, int x, int y, int z) {
+        ChunkSection section = section(world, x, z);
+        if (section == null || !section.loaded) {
+            return;
+        }
+        if (section.knownNulls == null) {
+            section.knownNulls = new LongObjectHashMap<>();
+        }
+        section.knownNulls.put(localKey(x, y, z), FAKE_VALUE);
+    }
+
+    /**
+     * Forget the blocks within the given radius around a block that are known as not protected, as a protection
+     * there might be matched to them
+     *
+     * @param world the world id
+     * @param x
+     * @param y
+     * @param z
+     * @param radius
+     */
+    public void removeKnownNulls(int world, int x, int y, int z, int radius) {
+        for (int dx = -radius; dx <= radius; dx++) {
+            for (int dz = -radius; dz <= radius; dz++) {
+                ChunkSection section = section(world, x + dx, z + dz);
+                if (section == null || section.knownNulls == null) {
+                    continue;
+                }
+
+                for (int dy = -radius; dy <= radius; dy++) {
+                    section.knownNulls.remove(localKey(x + dx, y + dy, z + dz));
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if the chunk containing the given block is loaded
+     *
+     * @param world the world id
+     * @param x
+     * @param z
+     * @return
+     */
+    public boolean isChunkLoaded(int world, int x, int z) {
+        ChunkSection section = section(world, x, z);
+        return section != null && section.loaded;
+    }
+
+    /**
+     * Mark a chunk as loaded, so its presence and known nulls can be tracked
+     *
+     * @param world the world id
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void chunkLoaded(int world, int chunkX, int chunkZ) {
+        ChunkSection section = getOrCreateChunk(world, chunkKey(chunkX, chunkZ));
+        section.loaded = true;
+        section.presenceVersion = ++lastPresenceVersion;
+    }
+
+    /**
+     * Mark a chunk as unloaded and drop its presence and known nulls
+     *
+     * @param world the world id
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void chunkUnloaded(int world, int chunkX, int chunkZ) {
+        LongObjectHashMap<ChunkSection> chunks = chunks(world);
+        if (chunks == null) {
+            return;
+        }
+        long chunkKey = chunkKey(chunkX, chunkZ);
+        ChunkSection section = chunks.get(chunkKey);
+        if (section == null) {
+            return;
+        }
+
+        section.loaded = false;
+        section.presenceVersion = ++lastPresenceVersion;
+        section.presence = null;
+        section.presenceSize = 0;
+        section.knownNulls = null;
+        if (section.isEmpty()) {
+            removeSection(world, chunks, chunkKey);
+        }
+    }
+
+    /**
+     * Collect the protections located directly in a chunk
+     *
+     * @param world the world id
+     * @param chunkX
+     * @param chunkZ
+     * @param protections receives the protections
+     */
+    public void collectDirect(int world, int chunkX, int chunkZ, List<Protection> protections) {
+        LongObjectHashMap<ChunkSection> chunks = chunks(world);
+        ChunkSection section = chunks == null ? null : chunks.get(chunkKey(chunkX, chunkZ));
+        if (section != null && section.direct != null) {
+            section.direct.forEach((local, protection) -> protections.add(protection));
+        }
+    }
+
+    /**
+     * Collect the protections located directly in any chunk of a world
+     *
+     * @param world the world id
+     * @param protections receives the protections
+     */
+    public void collectDirect(int world, List<Protection> protections) {
+        LongObjectHashMap<ChunkSection> chunks = chunks(world);
+        if (chunks != null) {
+            chunks.forEach((chunkKey, section) -> {
+                if (section.direct != null) {
+                    section.direct.forEach((local, protection) -> protections.add(protection));
+                }
+            });
+        }
+    }
+
+    /**
+     * Mark all chunks of a world as unloaded and drop their presence and known nulls
+     *
+     * @param world the world id
+     */
+    public void worldUnloaded(int world) {
+        LongObjectHashMap<ChunkSection> chunks = chunks(world);
+        if (chunks == null) {
+            return;
+        }
+
+        List<Long> chunkKeys = new ArrayList<>();
+        chunks.forEach((chunkKey, section) -> chunkKeys.add(chunkKey));
+        for (long chunkKey : chunkKeys) {
+            chunkUnloaded(world, (int) (chunkKey >> 32), (int) chunkKey);
+        }
+    }
+
+    /**
+     * @return the amount of chunks in the index
+     */
+    public int chunkCount() {
+        int count = 0;
+        for (LongObjectHashMap<ChunkSection> chunks : worlds) {
+            if (chunks != null) {
+                count += chunks.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Clear the entire index. Only the loaded state of the chunks is kept.
+     */
+    public void clear() {
+        for (int world = 0; world < worlds.length; world++) {
+            LongObjectHashMap<ChunkSection> chunks = worlds[world];
+            if (chunks == null) {
+                continue;
+            }
+
+            LongObjectHashMap<ChunkSection> loadedChunks = new LongObjectHashMap<>();
+            chunks.forEach((chunkKey, section) -> {
+                if (section.loaded) {
+                    ChunkSection empty = new ChunkSection();
+                    empty.loaded = true;
+                    empty.presenceVersion = ++lastPresenceVersion;
+                    loadedChunks.put(chunkKey, empty);
+                }
+            });
+            worlds[world] = loadedChunks.isEmpty() ? null : loadedChunks;
+        }
+    }
+
+    private LongObjectHashMap<ChunkSection> chunks(int world) {
+        return world < worlds.length ? worlds[world] : null;
+    }
+
+    private ChunkSection section(int world, int x, int z) {
+        LongObjectHashMap<ChunkSection> chunks = chunks(world);
+        return chunks == null ? null : chunks.get(chunkKey(x >> 4, z >> 4));
+    }
+
+    private ChunkSection getOrCreateSection(int world, int x, int z) {
+        return getOrCreateChunk(world, chunkKey(x >> 4, z >> 4));
+    }
+
+    private ChunkSection getOrCreateChunk(int world, long chunkKey) {
+        if (world >= worlds.length) {
+            worlds = Arrays.copyOf(worlds, Math.max(world + 1, worlds.length * 2));
+        }
+        LongObjectHashMap<ChunkSection> chunks = worlds[world];
+        if (chunks == null) {
+            chunks = new LongObjectHashMap<>();
+            worlds[world] = chunks;
+        }
+        ChunkSection section = chunks.get(chunkKey);
+        if (section == null) {
+            section = new ChunkSection();
+            chunks.put(chunkKey, section);
+        }
+        return section;
+    }
+
+    private void removeSection(int world, LongObjectHashMap<ChunkSection> chunks, long chunkKey) {
+        chunks.remove(chunkKey);
+        if (chunks.isEmpty()) {
+            worlds[world] = null;
+        }
+    }
+
+    private static void addPresence(ChunkSection section, long local) {
+        if (section.presence == null) {
+            return;
+        }
+
+        int index = section.presenceIndex(local);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        if (section.presenceSize == section.presence.length) {
+            section.presence = Arrays.copyOf(section.presence, Math.max(4, section.presenceSize * 2));
+        }
+        System.arraycopy(section.presence, index, section.presence, index + 1, section.presenceSize - index);
+        section.presence[index] = local;
+        section.presenceSize++;
+    }
+
+    private static void removeValue(LongObjectHashMap<Protection> map, Protection protection) {
+        if (map == null) {
+            return;
+        }
+        for (long key : map.keysOf(protection)) {
+            map.remove(key);
+        }
+    }
+
+    /**
+     * Get the key of a chunk
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @return
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the key of a block within its chunk
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static long localKey(int x, int y, int z) {
+        return ((long) y << 8) | ((z & 15) << 4) | (x & 15);
+    }
+}
@@ -0,0 +1,259 @@
+package com.griefcraft.cache;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import com.griefcraft.sql.LegacyEntityMigration;
+import com.griefcraft.sql.PhysDB;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
+
+/**
+ * Loads the protections of freshly loaded chunks and entities asynchronously, so the first interactions within a
+ * chunk do not have to query the database on the main thread. All chunks and entities loaded within a tick are
+ * fetched by a single async task.
+ */
+public class ChunkPrefetcher {
+
+    /**
+     * A chunk waiting to be fetched
+     *
+     * @param version
+     *            the presence version of the chunk when it was queued
+     * @param invalidations
+     *            the invalidation count of the cache when the chunk was queued
+     * @param future
+     *            completed on the main thread once the chunk was applied, may be null
+     */
+    private record PendingChunk(String world, int chunkX, int chunkZ, int version, int invalidations, CompletableFuture<Void> future) {
+    }
+
+    private record PrefetchedChunk(PendingChunk chunk, List<Protection> protections) {
+    }
+
+    /**
+     * The LWC instance
+     */
+    private final LWC lwc;
+
+    /**
+     * If chunks should be prefetched at all
+     */
+    private final boolean enabled;
+
+    /**
+     * The chunks loaded since the last flush
+     */
+    private List<PendingChunk> queue = new ArrayList<>();
+
+    /**
+     * The protectable entities loaded since the last flush that are not cached yet
+     */
+    private List<UUID> entityQueue = new ArrayList<>();
+
+    public ChunkPrefetcher(LWC lwc) {
+        this.lwc = lwc;
+        this.enabled = lwc.getConfiguration().getBoolean("core.prefetchChunks", true);
+    }
+
+    /**
+     * Queue a chunk that was just loaded
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void chunkLoaded(String world, int chunkX, int chunkZ) {
+        if (!enabled || lwc.getPhysicalDatabase().hasAllProtectionsCached()) {
+            return;
+        }
+
+        int version = lwc.getProtectionCache().getPresenceVersion(world, chunkX, chunkZ);
+        if (version < 0) {
+            return;
+        }
+
+        enqueue(new PendingChunk(world, chunkX, chunkZ, version, lwc.getProtectionCache().getInvalidations(), null));
+    }
+
+    /**
+     * Queue the entities of a chunk that were just loaded. Entities without a protection are only remembered as
+     * such once no legacy entity protections are left, as those are found by another lookup.
+     *
+     * @param entities
+     */
+    public void entitiesLoaded(List<Entity> entities) {
+        if (!enabled || lwc.getPhysicalDatabase().hasAllProtectionsCached()) {
+            return;
+        }
+
+        ProtectionCache cache = lwc.getProtectionCache();
+        for (Entity entity : entities) {
+            if (lwc.isProtectable(entity) && cache.peekProtection(entity.getUniqueId()) == null && !cache.isKnownNull(entity.getUniqueId())) {
+                if (queue.isEmpty() && entityQueue.isEmpty()) {
+                    Bukkit.getScheduler().runTask(lwc.getPlugin(), this::flush);
+                }
+                entityQueue.add(entity.getUniqueId());
+            }
+        }
+    }
+
+    /**
+     * Drop the protections of unloaded entities from the cache
+     *
+     * @param entities
+     */
+    public void entitiesUnloaded(List<Entity> entities) {
+        ProtectionCache cache = lwc.getProtectionCache();
+        for (Entity entity : entities) {
+            cache.evict(entity.getUniqueId());
+        }
+    }
+
+    /**
+     * Load the protections of a chunk into the cache, even if prefetching is disabled. Must be called on the main
+     * thread.
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     * @return a future completed on the main thread once the protections are cached
+     */
+    public CompletableFuture<Void> fetch(String world, int chunkX, int chunkZ) {
+        if (lwc.getPhysicalDatabase().hasAllProtectionsCached()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        ProtectionCache cache = lwc.getProtectionCache();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        enqueue(new PendingChunk(world, chunkX, chunkZ, cache.getPresenceVersion(world, chunkX, chunkZ), cache.getInvalidations(), future));
+        return future;
+    }
+
+    private void enqueue(PendingChunk chunk) {
+        if (queue.isEmpty() && entityQueue.isEmpty()) {
+            Bukkit.getScheduler().runTask(lwc.getPlugin(), this::flush);
+        }
+        queue.add(chunk);
+    }
+
+    /**
+     * Fetch all queued chunks and entities in one async task
+     */
+    private void flush() {
+        List<PendingChunk> chunks = queue;
+        queue = new ArrayList<>();
+        List<UUID> entityIds = entityQueue;
+        entityQueue = new ArrayList<>();
+        if (!LWC.ENABLED || (chunks.isEmpty() && entityIds.isEmpty())) {
+            return;
+        }
+
+        PhysDB physDB = lwc.getPhysicalDatabase();
+        int invalidations = lwc.getProtectionCache().getInvalidations();
+        lwc.getDatabaseExecutor().execute(() -> {
+            List<PrefetchedChunk> prefetched = new ArrayList<>(chunks.size());
+            for (PendingChunk chunk : chunks) {
+                if (!LWC.ENABLED) {
+                    return;
+                }
+
+                // failed chunks are kept as well, so their futures are completed
+                prefetched.add(new PrefetchedChunk(chunk, physDB.loadProtectionsInChunk(chunk.world(), chunk.chunkX(), chunk.chunkZ())));
+            }
+
+            List<Protection> entityProtections = entityIds.isEmpty() || !LWC.ENABLED ? null : physDB.queryProtections(entityIds);
+
+            if (LWC.ENABLED) {
+                Bukkit.getScheduler().runTask(lwc.getPlugin(), () -> {
+                    apply(prefetched);
+                    applyEntities(entityIds, entityProtections, invalidations);
+                });
+            }
+        });
+    }
+
+    /**
+     * Fill the cache with the prefetched protections. The presence of chunks that were unloaded or got a new
+     * protection in the meantime is not set, and no protections are added if any were removed or the chunk was
+     * unloaded in the meantime.
+     *
+     * @param prefetched
+     */
+    private void apply(List<PrefetchedChunk> prefetched) {
+        if (!LWC.ENABLED) {
+            return;
+        }
+
+        ProtectionCache cache = lwc.getProtectionCache();
+        for (PrefetchedChunk result : prefetched) {
+            PendingChunk chunk = result.chunk();
+            List<Protection> protections = result.protections();
+
+            if (protections != null) {
+                long[] positions = new long[protections.size()];
+                for (int i = 0; i < positions.length; i++) {
+                    Protection protection = protections.get(i);
+                    positions[i] = ChunkIndex.localKey(protection.getX(), protection.getY(), protection.getZ());
+                }
+                cache.setPresence(chunk.world(), chunk.chunkX(), chunk.chunkZ(), positions, chunk.version());
+
+                // protections of chunks that were unloaded in the meantime would never be evicted by the unload
+                if (cache.getInvalidations() == chunk.invalidations() && cache.isChunkLoaded(chunk.world(), chunk.chunkX() << 4, chunk.chunkZ() << 4)) {
+                    for (Protection protection : protections) {
+                        // never replace a cached instance, it might have unsaved changes
+                        if (cache.peekProtectionById(protection.getId()) == null) {
+                            cache.addProtection(protection);
+                        }
+                    }
+                }
+            }
+
+            if (chunk.future() != null) {
+                chunk.future().complete(null);
+            }
+        }
+    }
+
+    /**
+     * Fill the cache with the protections of the fetched entities, and remember the entities without one. Nothing is
+     * added if any protection was removed from the cache in the meantime.
+     *
+     * @param entityIds
+     * @param protections
+     *            the protections found, null if the query failed
+     * @param invalidations
+     *            the invalidation count of the cache when the query was started
+     */
+    private void applyEntities(List<UUID> entityIds, List<Protection> protections, int invalidations) {
+        ProtectionCache cache = lwc.getProtectionCache();
+        if (!LWC.ENABLED || protections == null || cache.getInvalidations() != invalidations) {
+            return;
+        }
+
+        Set<UUID> protectedEntities = new HashSet<>();
+        for (Protection protection : protections) {
+            protectedEntities.add(protection.getEntityId());
+
+            // never replace a cached instance, it might have unsaved changes
+            if (cache.peekProtectionById(protection.getId()) == null) {
+                cache.addProtection(protection);
+            }
+        }
+
+        if (lwc.getLegacyEntityMigration().getState() != LegacyEntityMigration.State.COMPLETE) {
+            return;
+        }
+        for (UUID entityId : entityIds) {
+            // the entity might have been protected on the main thread while the query was running
+            if (!protectedEntities.contains(entityId) && cache.peekProtection(entityId) == null) {
+                cache.addKnownNull(entityId);
+            }
+        }
+    }
+}
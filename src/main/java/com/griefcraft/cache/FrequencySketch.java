@@ -0,0 +1,131 @@
+package com.griefcraft.cache;
+
+/**
+ * Estimates how often keys were accessed recently, using a count-min sketch with four 4 bit counters per key. Every
+ * long of the table holds 16 counters. Once enough accesses were recorded all counters are halved, so keys that
+ * were popular a long time ago fade out.
+ */
+class FrequencySketch {
+
+    /**
+     * The seeds of the four hash functions
+     */
+    private static final long[] SEEDS = { 0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+
+    /**
+     * Clears the highest bit of every counter after a shift
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * The lowest bit of every counter
+     */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /**
+     * The highest value of a counter
+     */
+    private static final int MAX_FREQUENCY = 15;
+
+    private final long[] table;
+
+    private final int tableMask;
+
+    /**
+     * The amount of increments after which all counters are halved
+     */
+    private final int sampleSize;
+
+    /**
+     * The increments since the counters were last halved
+     */
+    private int size;
+
+    /**
+     * @param expectedEntries the amount of entries the cache is expected to hold
+     */
+    FrequencySketch(int expectedEntries) {
+        int length = Integer.highestOneBit(Math.max(64, Math.min(expectedEntries, 1 << 24)) - 1) << 1;
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = 10 * length;
+    }
+
+    /**
+     * Get the estimated amount of recent accesses of a key
+     *
+     * @param key
+     * @return the frequency, at most {@link #MAX_FREQUENCY}
+     */
+    int frequency(long key) {
+        long hash = spread(key);
+        int start = ((int) hash & 3) << 2;
+
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < 4; i++) {
+            int count = (int) ((table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Record an access of a key
+     *
+     * @param key
+     */
+    void increment(long key) {
+        long hash = spread(key);
+        int start = ((int) hash & 3) << 2;
+
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Increment a counter unless it is at its maximum
+     *
+     * @param index the long of the table
+     * @param counter the counter within the long
+     * @return true if the counter was incremented
+     */
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xFL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halve all counters
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        // the odd counters lost half an increment each
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(long hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private static long spread(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+}
@@ -0,0 +1,244 @@
+package com.griefcraft.cache;
+
+/**
+ * An open addressing hash map from primitive int keys to primitive long values
+ */
+public class IntLongHashMap {
+
+    /**
+     * Consumer used to iterate over the entries of the map
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(int key, long value);
+    }
+
+    /**
+     * The smallest table size
+     */
+    private static final int MIN_CAPACITY = 8;
+
+    private int[] keys;
+    private long[] values;
+
+    /**
+     * Marks the used slots of the table
+     */
+    private boolean[] used;
+
+    /**
+     * The amount of entries in the map
+     */
+    private int size;
+
+    /**
+     * Resize when size reaches this value
+     */
+    private int resizeAt;
+
+    public IntLongHashMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Get the value stored for the given key
+     *
+     * @param key
+     * @param defaultValue
+     * @return the value or defaultValue if there is none
+     */
+    public long get(int key, long defaultValue) {
+        int slot = find(key);
+        return slot < 0 ? defaultValue : values[slot];
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Store a value for the given key
+     *
+     * @param key
+     * @param value
+     */
+    public void put(int key, long value) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        used[slot] = true;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Remove the entry for the given key
+     *
+     * @param key
+     * @return true if there was an entry
+     */
+    public boolean remove(int key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+        shiftKeys(slot);
+        size--;
+        return true;
+    }
+
+    /**
+     * Remove the entry for the given key only if it is mapped to the given value
+     *
+     * @param key
+     * @param value
+     * @return true if the entry was removed
+     */
+    public boolean remove(int key, long value) {
+        int slot = find(key);
+        if (slot < 0 || values[slot] != value) {
+            return false;
+        }
+        shiftKeys(slot);
+        size--;
+        return true;
+    }
+
+    /**
+     * Iterate over all entries. The map must not be modified while iterating.
+     *
+     * @param consumer
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                consumer.accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return all keys of the map
+     */
+    public int[] keys() {
+        int[] found = new int[size];
+        int count = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                found[count++] = keys[slot];
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return a copy of this map
+     */
+    public IntLongHashMap copy() {
+        IntLongHashMap copy = new IntLongHashMap();
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.used = used.clone();
+        copy.size = size;
+        copy.resizeAt = resizeAt;
+        return copy;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all entries and shrink the table
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Remove the entry at the given slot and move following entries of the same probe sequence
+     * backwards, so no tombstones are required
+     *
+     * @param slot
+     */
+    private void shiftKeys(int slot) {
+        int mask = keys.length - 1;
+        int last;
+        while (true) {
+            last = slot;
+            slot = (slot + 1) & mask;
+            while (true) {
+                if (!used[slot]) {
+                    used[last] = false;
+                    return;
+                }
+                int ideal = hash(keys[slot]) & mask;
+                if (last <= slot ? (last >= ideal || ideal > slot) : (last >= ideal && ideal > slot)) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[last] = keys[slot];
+            values[last] = values[slot];
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(newCapacity);
+
+        int mask = newCapacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                used[slot] = true;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        resizeAt = capacity >> 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
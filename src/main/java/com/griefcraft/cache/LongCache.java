@@ -0,0 +1,75 @@
+package com.griefcraft.cache;
+
+/**
+ * A bounded cache using primitive keys. Implementations differ in the policy deciding which entries are evicted
+ * once the cache is full.
+ *
+ * @param <V>
+ */
+public interface LongCache<V> {
+
+    /**
+     * Get the value for the given key and record the access
+     *
+     * @param key
+     * @return
+     */
+    V get(long key);
+
+    /**
+     * Get the value for the given key without recording an access
+     *
+     * @param key
+     * @return
+     */
+    V peek(long key);
+
+    /**
+     * Store a value, evicting other entries if the cache is full afterwards
+     *
+     * @param key
+     * @param value
+     * @return the previous value or null if there was none
+     */
+    V put(long key, V value);
+
+    /**
+     * Remove the value stored for the given key
+     *
+     * @param key
+     * @return the removed value or null if there was none
+     */
+    V remove(long key);
+
+    /**
+     * Remove all entries without notifying the eviction listener
+     */
+    void clear();
+
+    int size();
+
+    /**
+     * @return the total weight of the entries
+     */
+    long getWeight();
+
+    /**
+     * @return the max total weight allowed
+     */
+    long getMaxWeight();
+
+    /**
+     * @return the amount of calls to {@link #get(long)} that found a value
+     */
+    long getHits();
+
+    /**
+     * @return the amount of calls to {@link #get(long)} that found no value
+     */
+    long getMisses();
+
+    /**
+     * @return the amount of entries evicted because the cache was full
+     */
+    long getEvictions();
+}
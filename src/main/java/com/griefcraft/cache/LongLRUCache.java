@@ -0,0 +1,519 @@
+package com.griefcraft.cache;
+
+/**
+ * A LRU cache using primitive keys, stored in an open addressing table with the access order linked through
+ * int arrays. A key consists of a long and an additional int tag (for example a world id), entries only match
+ * if both are equal. Null values are not supported.
+ * <p>
+ * The cache can be bounded by the number of entries and by the total weight of the entries, for example their
+ * estimated size in bytes. The weight of an entry is taken when it is stored.
+ *
+ * @param <V>
+ */
+public class LongLRUCache<V> implements LongCache<V> {
+
+    /**
+     * Notified about entries that are evicted because the cache is full
+     *
+     * @param <V>
+     */
+    @FunctionalInterface
+    public interface EvictionListener<V> {
+        void evicted(int tag, long key, V value);
+    }
+
+    /**
+     * Calculates the weight of the stored values
+     *
+     * @param <V>
+     */
+    @FunctionalInterface
+    public interface Weigher<V> {
+        int weigh(V value);
+    }
+
+    /**
+     * Marks the end of the access order list
+     */
+    private static final int NONE = -1;
+
+    /**
+     * The smallest table size
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] tags;
+
+    /**
+     * The values of the table. A null value marks a free slot
+     */
+    private Object[] values;
+
+    /**
+     * The previous (older) entry of each slot in the access order
+     */
+    private int[] before;
+
+    /**
+     * The next (newer) entry of each slot in the access order
+     */
+    private int[] after;
+
+    /**
+     * The weight of each slot, null if the cache is not weighted
+     */
+    private int[] weights;
+
+    /**
+     * The least recently used entry
+     */
+    private int head = NONE;
+
+    /**
+     * The most recently used entry
+     */
+    private int tail = NONE;
+
+    private int size;
+
+    /**
+     * Resize the table when size reaches this value
+     */
+    private int resizeAt;
+
+    /**
+     * The max number of entries allowed
+     */
+    private int maxCapacity;
+
+    /**
+     * The total weight of the entries
+     */
+    private long weight;
+
+    /**
+     * The max total weight allowed
+     */
+    private long maxWeight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * The weigher of the values, may be null
+     */
+    private final Weigher<? super V> weigher;
+
+    /**
+     * The listener for evicted entries, may be null
+     */
+    private final EvictionListener<? super V> evictionListener;
+
+    public LongLRUCache(int maxCapacity) {
+        this(maxCapacity, null);
+    }
+
+    public LongLRUCache(int maxCapacity, EvictionListener<? super V> evictionListener) {
+        this(maxCapacity, Long.MAX_VALUE, null, evictionListener);
+    }
+
+    public LongLRUCache(int maxCapacity, long maxWeight, Weigher<? super V> weigher, EvictionListener<? super V> evictionListener) {
+        this.maxCapacity = maxCapacity;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Get the value for the given key and mark it as recently used
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    public V get(long key) {
+        return get(0, key);
+    }
+
+    /**
+     * Get the value for the given key and mark it as recently used
+     *
+     * @param tag
+     * @param key
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int tag, long key) {
+        int slot = find(tag, key);
+        if (slot == NONE) {
+            misses++;
+            return null;
+        }
+        hits++;
+        moveToTail(slot);
+        return (V) values[slot];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V peek(long key) {
+        int slot = find(0, key);
+        return slot == NONE ? null : (V) values[slot];
+    }
+
+    /**
+     * @return the key of the least recently used entry, only valid if the cache is not empty
+     */
+    long eldestKey() {
+        return keys[head];
+    }
+
+    /**
+     * Check if the cache contains the given key without changing the access order
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(long key) {
+        return find(0, key) != NONE;
+    }
+
+    /**
+     * Check if the cache contains the given key without changing the access order
+     *
+     * @param tag
+     * @param key
+     * @return
+     */
+    public boolean containsKey(int tag, long key) {
+        return find(tag, key) != NONE;
+    }
+
+    @Override
+    public V put(long key, V value) {
+        return put(0, key, value);
+    }
+
+    /**
+     * Store a value and mark it as recently used. If the cache is full afterwards, the least recently used
+     * entries are evicted.
+     *
+     * @param tag
+     * @param key
+     * @param value
+     * @return the previous value or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int tag, long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value may not be null");
+        }
+
+        int mask = keys.length - 1;
+        int slot = hash(tag, key) & mask;
+        Object existing;
+        while ((existing = values[slot]) != null) {
+            if (keys[slot] == key && tags[slot] == tag) {
+                values[slot] = value;
+                setWeight(slot, value);
+                moveToTail(slot);
+                evictToFit();
+                return (V) existing;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        tags[slot] = tag;
+        values[slot] = value;
+        if (weights != null) {
+            weights[slot] = 0;
+        }
+        setWeight(slot, value);
+        linkLast(slot);
+        size++;
+
+        if (size > maxCapacity || weight > maxWeight) {
+            evictToFit();
+        } else if (size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    @Override
+    public V remove(long key) {
+        return remove(0, key);
+    }
+
+    /**
+     * Remove the value stored for the given key
+     *
+     * @param tag
+     * @param key
+     * @return the removed value or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int tag, long key) {
+        int slot = find(tag, key);
+        if (slot == NONE) {
+            return null;
+        }
+        Object value = values[slot];
+        removeSlot(slot);
+        return (V) value;
+    }
+
+    /**
+     * Change the max number of entries, evicting the least recently used entries if necessary
+     *
+     * @param maxCapacity
+     */
+    public void setMaxCapacity(int maxCapacity) {
+        this.maxCapacity = maxCapacity;
+        evictToFit();
+    }
+
+    public int getMaxCapacity() {
+        return maxCapacity;
+    }
+
+    /**
+     * Change the max total weight, evicting the least recently used entries if necessary
+     *
+     * @param maxWeight
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evictToFit();
+    }
+
+    @Override
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public long getHits() {
+        return hits;
+    }
+
+    @Override
+    public long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        head = tail = NONE;
+        size = 0;
+        weight = 0;
+    }
+
+    private int find(int tag, long key) {
+        int mask = keys.length - 1;
+        int slot = hash(tag, key) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == key && tags[slot] == tag) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /**
+     * Evict the least recently used entries until the cache is within its bounds. The most recently used entry is
+     * kept even if it is heavier than the max weight on its own.
+     */
+    private void evictToFit() {
+        while (size > maxCapacity || (weight > maxWeight && size > 1)) {
+            evictEldest();
+        }
+    }
+
+    /**
+     * Weigh the value of a slot and update the total weight
+     *
+     * @param slot
+     * @param value
+     */
+    private void setWeight(int slot, V value) {
+        if (weigher != null) {
+            int newWeight = weigher.weigh(value);
+            weight += newWeight - weights[slot];
+            weights[slot] = newWeight;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void evictEldest() {
+        int slot = head;
+        int tag = tags[slot];
+        long key = keys[slot];
+        V value = (V) values[slot];
+        removeSlot(slot);
+        evictions++;
+
+        if (evictionListener != null) {
+            evictionListener.evicted(tag, key, value);
+        }
+    }
+
+    private void removeSlot(int slot) {
+        unlink(slot);
+        size--;
+        if (weights != null) {
+            weight -= weights[slot];
+        }
+
+        // shift the following entries of the probe sequence back, so no tombstones are required
+        int mask = keys.length - 1;
+        int last;
+        while (true) {
+            last = slot;
+            slot = (slot + 1) & mask;
+            while (true) {
+                if (values[slot] == null) {
+                    values[last] = null;
+                    return;
+                }
+                int ideal = hash(tags[slot], keys[slot]) & mask;
+                if (last <= slot ? (last >= ideal || ideal > slot) : (last >= ideal && ideal > slot)) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            move(slot, last);
+        }
+    }
+
+    /**
+     * Move an entry to another (free) slot and keep the access order intact
+     *
+     * @param from
+     * @param to
+     */
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        tags[to] = tags[from];
+        values[to] = values[from];
+        if (weights != null) {
+            weights[to] = weights[from];
+        }
+
+        int previous = before[from];
+        int next = after[from];
+        before[to] = previous;
+        after[to] = next;
+        if (previous == NONE) {
+            head = to;
+        } else {
+            after[previous] = to;
+        }
+        if (next == NONE) {
+            tail = to;
+        } else {
+            before[next] = to;
+        }
+    }
+
+    private void linkLast(int slot) {
+        before[slot] = tail;
+        after[slot] = NONE;
+        if (tail == NONE) {
+            head = slot;
+        } else {
+            after[tail] = slot;
+        }
+        tail = slot;
+    }
+
+    private void unlink(int slot) {
+        int previous = before[slot];
+        int next = after[slot];
+        if (previous == NONE) {
+            head = next;
+        } else {
+            after[previous] = next;
+        }
+        if (next == NONE) {
+            tail = previous;
+        } else {
+            before[next] = previous;
+        }
+    }
+
+    private void moveToTail(int slot) {
+        if (slot != tail) {
+            unlink(slot);
+            linkLast(slot);
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        int[] oldTags = tags;
+        Object[] oldValues = values;
+        int[] oldWeights = weights;
+        int[] oldAfter = after;
+        int oldHead = head;
+
+        allocate(newCapacity);
+        head = tail = NONE;
+
+        // reinsert in access order, so the order is preserved
+        int mask = newCapacity - 1;
+        for (int old = oldHead; old != NONE; old = oldAfter[old]) {
+            int slot = hash(oldTags[old], oldKeys[old]) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[old];
+            tags[slot] = oldTags[old];
+            values[slot] = oldValues[old];
+            if (weights != null) {
+                weights[slot] = oldWeights[old];
+            }
+            linkLast(slot);
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        tags = new int[capacity];
+        values = new Object[capacity];
+        before = new int[capacity];
+        after = new int[capacity];
+        weights = weigher != null ? new int[capacity] : null;
+        resizeAt = capacity >> 1;
+    }
+
+    private static int hash(int tag, long key) {
+        long h = (key + tag * 0xC2B2AE3D27D4EB4FL) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
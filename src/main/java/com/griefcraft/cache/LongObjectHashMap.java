@@ -0,0 +1,265 @@
+package com.griefcraft.cache;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map using primitive long keys. Lookups do not allocate, which makes it suitable
+ * for the hot protection lookup paths. Null values are not supported.
+ *
+ * @param <V>
+ */
+public class LongObjectHashMap<V> {
+
+    /**
+     * Consumer used to iterate over the entries of the map
+     *
+     * @param <V>
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    /**
+     * The smallest table size
+     */
+    private static final int MIN_CAPACITY = 8;
+
+    /**
+     * The keys of the table
+     */
+    private long[] keys;
+
+    /**
+     * The values of the table. A null value marks a free slot
+     */
+    private Object[] values;
+
+    /**
+     * The amount of entries in the map
+     */
+    private int size;
+
+    /**
+     * Resize when size reaches this value
+     */
+    private int resizeAt;
+
+    public LongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Get the value stored for the given key
+     *
+     * @param key
+     * @return the value or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        Object value;
+        while ((value = values[slot]) != null) {
+            if (keys[slot] == key) {
+                return (V) value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Check if the map contains the given key
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Store a value for the given key
+     *
+     * @param key
+     * @param value
+     * @return the previous value or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value may not be null");
+        }
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        Object existing;
+        while ((existing = values[slot]) != null) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return (V) existing;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Remove the value stored for the given key
+     *
+     * @param key
+     * @return the removed value or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        Object value;
+        while ((value = values[slot]) != null) {
+            if (keys[slot] == key) {
+                shiftKeys(slot);
+                size--;
+                return (V) value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Collect all keys that are mapped to the given value (compared by identity)
+     *
+     * @param value
+     * @return the matching keys, possibly empty
+     */
+    public long[] keysOf(Object value) {
+        long[] found = null;
+        int count = 0;
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] == value && value != null) {
+                if (found == null) {
+                    found = new long[4];
+                } else if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = keys[slot];
+            }
+        }
+        return found == null ? new long[0] : Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Iterate over all entries. The map must not be modified while iterating.
+     *
+     * @param consumer
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> consumer) {
+        for (int slot = 0; slot < values.length; slot++) {
+            Object value = values[slot];
+            if (value != null) {
+                consumer.accept(keys[slot], (V) value);
+            }
+        }
+    }
+
+    /**
+     * @return the amount of entries in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the map does not contain any entries
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all entries and shrink the table
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    /**
+     * Remove the entry at the given slot and move following entries of the same probe sequence
+     * backwards, so no tombstones are required
+     *
+     * @param slot
+     */
+    private void shiftKeys(int slot) {
+        int mask = keys.length - 1;
+        int last;
+        while (true) {
+            last = slot;
+            slot = (slot + 1) & mask;
+            Object value;
+            while (true) {
+                if ((value = values[slot]) == null) {
+                    values[last] = null;
+                    return;
+                }
+                int ideal = hash(keys[slot]) & mask;
+                if (last <= slot ? (last >= ideal || ideal > slot) : (last >= ideal && ideal > slot)) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[last] = keys[slot];
+            values[last] = value;
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(newCapacity);
+
+        int mask = newCapacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            Object value = oldValues[i];
+            if (value != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = value;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        resizeAt = capacity >> 1;
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity >> 1 <= expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,255 @@
+package com.griefcraft.cache;
+
+import com.griefcraft.cache.LongLRUCache.EvictionListener;
+import com.griefcraft.cache.LongLRUCache.Weigher;
+
+/**
+ * A scan resistant cache using primitive keys. New entries enter a small LRU window. Entries leaving the window are
+ * only admitted to the main space if they were accessed more often recently than the entry they would replace, as
+ * estimated by a {@link FrequencySketch}. The main space is a segmented LRU: entries accessed again while on
+ * probation are moved to the protected segment, which holds most of the main space.
+ * <p>
+ * A scan over many entries that are used once (for example a player flying over thousands of chunks) therefore
+ * only replaces the window and the entries on probation, not the frequently used ones.
+ *
+ * @param <V>
+ */
+public class LongTinyLFUCache<V> implements LongCache<V> {
+
+    /**
+     * The part of the max weight used by the window (in percent)
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * The part of the main space used by the protected segment (in percent)
+     */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /**
+     * The assumed average weight of an entry, used to size the frequency sketch
+     */
+    private static final int AVERAGE_WEIGHT = 512;
+
+    private final LongLRUCache<V> window;
+    private final LongLRUCache<V> probation;
+    private final LongLRUCache<V> protectedSegment;
+
+    private final FrequencySketch sketch;
+
+    /**
+     * The max weight of the probation and protected segments together
+     */
+    private final long mainMaxWeight;
+
+    private final long maxWeight;
+
+    private final Weigher<? super V> weigher;
+
+    /**
+     * The listener for evicted entries, may be null
+     */
+    private final EvictionListener<? super V> evictionListener;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * The amount of entries that left the window without being admitted
+     */
+    private long rejections;
+
+    public LongTinyLFUCache(long maxWeight, Weigher<? super V> weigher, EvictionListener<? super V> evictionListener) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+
+        long windowMaxWeight = Math.max(1, maxWeight * WINDOW_PERCENT / 100);
+        this.mainMaxWeight = Math.max(1, maxWeight - windowMaxWeight);
+
+        this.window = new LongLRUCache<>(Integer.MAX_VALUE, windowMaxWeight, weigher, (tag, key, value) -> admit(key, value));
+        this.probation = new LongLRUCache<>(Integer.MAX_VALUE, Long.MAX_VALUE, weigher, null);
+        this.protectedSegment = new LongLRUCache<>(Integer.MAX_VALUE, mainMaxWeight * PROTECTED_PERCENT / 100, weigher, (tag, key, value) -> probation.put(key, value));
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxWeight / AVERAGE_WEIGHT));
+    }
+
+    @Override
+    public V get(long key) {
+        sketch.increment(key);
+
+        V value = find(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    @Override
+    public V peek(long key) {
+        V value = window.peek(key);
+        if (value == null) {
+            value = probation.peek(key);
+        }
+        if (value == null) {
+            value = protectedSegment.peek(key);
+        }
+        return value;
+    }
+
+    @Override
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value may not be null");
+        }
+        sketch.increment(key);
+
+        // replace existing entries in their segment
+        if (window.peek(key) != null) {
+            return window.put(key, value);
+        }
+        if (protectedSegment.peek(key) != null || probation.peek(key) != null) {
+            V previous = protectedSegment.peek(key) != null ? protectedSegment.put(key, value) : probation.put(key, value);
+            // the entry might have become heavier
+            fitMain();
+            return previous;
+        }
+
+        // entries leaving the window are passed to admit()
+        window.put(key, value);
+        return null;
+    }
+
+    @Override
+    public V remove(long key) {
+        V value = window.remove(key);
+        if (value == null) {
+            value = probation.remove(key);
+        }
+        if (value == null) {
+            value = protectedSegment.remove(key);
+        }
+        return value;
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    @Override
+    public int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    @Override
+    public long getWeight() {
+        return window.getWeight() + probation.getWeight() + protectedSegment.getWeight();
+    }
+
+    @Override
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public long getHits() {
+        return hits;
+    }
+
+    @Override
+    public long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the amount of entries that left the window without being admitted to the main space
+     */
+    public long getRejections() {
+        return rejections;
+    }
+
+    /**
+     * Find an entry and mark it as recently used. Entries on probation are moved to the protected segment.
+     *
+     * @param key
+     * @return
+     */
+    private V find(long key) {
+        V value = window.get(key);
+        if (value != null) {
+            return value;
+        }
+
+        value = protectedSegment.get(key);
+        if (value != null) {
+            return value;
+        }
+
+        value = probation.remove(key);
+        if (value != null) {
+            // the eldest protected entries are moved back to probation if the segment is full
+            protectedSegment.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Admit an entry that left the window to the main space, if it is accessed more often than the entries it
+     * would replace
+     *
+     * @param key
+     * @param candidate
+     */
+    private void admit(long key, V candidate) {
+        long candidateWeight = weigher != null ? weigher.weigh(candidate) : 0;
+        int candidateFrequency = sketch.frequency(key);
+
+        while (probation.getWeight() + protectedSegment.getWeight() + candidateWeight > mainMaxWeight) {
+            if (probation.isEmpty()) {
+                if (protectedSegment.isEmpty()) {
+                    break;
+                }
+                long demoted = protectedSegment.eldestKey();
+                probation.put(demoted, protectedSegment.remove(demoted));
+                continue;
+            }
+
+            long victim = probation.eldestKey();
+            if (candidateFrequency <= sketch.frequency(victim)) {
+                rejections++;
+                evicted(key, candidate);
+                return;
+            }
+            evicted(victim, probation.remove(victim));
+        }
+
+        probation.put(key, candidate);
+    }
+
+    /**
+     * Evict the eldest entries on probation until the main space is within its bounds
+     */
+    private void fitMain() {
+        while (probation.getWeight() + protectedSegment.getWeight() > mainMaxWeight && probation.size() > 1) {
+            long victim = probation.eldestKey();
+            evicted(victim, probation.remove(victim));
+        }
+    }
+
+    private void evicted(long key, V value) {
+        evictions++;
+        if (evictionListener != null) {
+            evictionListener.evicted(0, key, value);
+        }
+    }
+}
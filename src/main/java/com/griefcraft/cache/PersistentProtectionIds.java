@@ -0,0 +1,399 @@
+package com.griefcraft.cache;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import com.griefcraft.util.ProtectionFinder;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.TileState;
+import org.bukkit.entity.Entity;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+
+/**
+ * Stores the ids of protections in the persistent data of the protected tile entities and entities, so lookups
+ * after a restart or a cache eviction do not have to search the database by location. Blocks and entities that
+ * were looked up without finding a protection are marked as well, which answers repeated lookups without any query.
+ * <p>
+ * The markers are only hints: a stored id is used only if its protection is still at the block or entity, otherwise
+ * the regular lookup runs and the marker is written again. A marker claiming there is no protection is replaced
+ * when a protection is registered for its block or entity, by this or (through the change log) another server. If
+ * the block or entity is not loaded at that time, the marker is replaced once it is loaded. Markers are tagged with a
+ * random stamp of the database, so markers of worlds copied from a server with another database are ignored. Must be
+ * used on the main thread.
+ */
+public class PersistentProtectionIds {
+
+    /**
+     * Returned if no valid marker is stored
+     */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * Stored if there is no protection
+     */
+    public static final int NOT_PROTECTED = 0;
+
+    /**
+     * The key of the database stamp in the internal table
+     */
+    private static final String STAMP_KEY = "persistentIdStamp";
+
+    /**
+     * The max amount of unloaded chunks and entities to remember the registered protections of
+     */
+    private static final int MAX_PENDING = 10000;
+
+    private record ChunkKey(String world, int chunkX, int chunkZ) {
+    }
+
+    /**
+     * A protection registered for a block in an unloaded chunk
+     */
+    private record PendingBlock(int protectionId, int x, int y, int z) {
+    }
+
+    /**
+     * The LWC instance
+     */
+    private final LWC lwc;
+
+    private final NamespacedKey idKey;
+
+    private final NamespacedKey stampKey;
+
+    /**
+     * The stamp of the database the markers are written for
+     */
+    private long stamp;
+
+    private boolean enabled;
+
+    /**
+     * The protections registered for blocks in unloaded chunks, marked when the chunk is loaded
+     */
+    private final LRUCache<ChunkKey, List<PendingBlock>> pendingBlocks = new LRUCache<>(MAX_PENDING);
+
+    /**
+     * The protection ids registered for unloaded entities, marked when the entity is loaded
+     */
+    private final LRUCache<UUID, Integer> pendingEntities = new LRUCache<>(MAX_PENDING);
+
+    public PersistentProtectionIds(LWC lwc) {
+        this.lwc = lwc;
+        this.idKey = new NamespacedKey(lwc.getPlugin(), "protection");
+        this.stampKey = new NamespacedKey(lwc.getPlugin(), "protection_database");
+    }
+
+    /**
+     * Load the stamp of the database, creating it if needed. Must be called after the database was loaded.
+     */
+    public void load() {
+        enabled = lwc.getConfiguration().getBoolean("core.persistentProtectionIds", false);
+        if (!enabled) {
+            return;
+        }
+
+        String value = lwc.getPhysicalDatabase().getInternal(STAMP_KEY);
+        try {
+            stamp = value == null ? 0 : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            stamp = 0;
+        }
+
+        if (stamp == 0) {
+            SecureRandom random = new SecureRandom();
+            do {
+                stamp = random.nextLong();
+            } while (stamp == 0);
+            lwc.getPhysicalDatabase().setInternal(STAMP_KEY, Long.toString(stamp));
+        }
+    }
+
+    /**
+     * @return true if markers are read and written
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the protection id stored for a block
+     *
+     * @param block
+     * @return the id, {@link #NOT_PROTECTED} or {@link #UNKNOWN}
+     */
+    public int get(BlockState block) {
+        if (!enabled || !(block instanceof TileState tile)) {
+            return UNKNOWN;
+        }
+        return get(tile.getPersistentDataContainer());
+    }
+
+    /**
+     * Get the protection id stored for an entity
+     *
+     * @param entity
+     * @return the id, {@link #NOT_PROTECTED} or {@link #UNKNOWN}
+     */
+    public int get(Entity entity) {
+        if (!enabled) {
+            return UNKNOWN;
+        }
+        return get(entity.getPersistentDataContainer());
+    }
+
+    /**
+     * Store the result of a lookup for a block. Only protections at the block itself are stored, blocks matched to
+     * a protection elsewhere (like the other half of a double chest) are left unmarked.
+     *
+     * @param block
+     * @param protection
+     *            the protection found, or null
+     */
+    public void set(BlockState block, Protection protection) {
+        if (!enabled || !(block instanceof TileState)) {
+            return;
+        }
+
+        if (protection == null) {
+            set(block.getBlock(), NOT_PROTECTED);
+        } else if (isAt(protection, block)) {
+            set(block.getBlock(), protection.getId());
+        }
+    }
+
+    /**
+     * Store the result of a lookup for an entity
+     *
+     * @param entity
+     * @param protection
+     *            the protection found, or null
+     */
+    public void set(Entity entity, Protection protection) {
+        if (!enabled) {
+            return;
+        }
+        set(entity.getPersistentDataContainer(), protection == null ? NOT_PROTECTED : protection.getId());
+    }
+
+    /**
+     * Check if a stored protection is still at the block
+     *
+     * @param protection
+     * @param block
+     * @return
+     */
+    public boolean isAt(Protection protection, BlockState block) {
+        return !protection.isEntity() && protection.getX() == block.getX() && protection.getY() == block.getY()
+                && protection.getZ() == block.getZ() && block.getWorld().getName().equals(protection.getWorld());
+    }
+
+    /**
+     * Mark the blocks or entity of a newly registered protection. Markers of blocks it was matched to are removed,
+     * as they might claim there is no protection.
+     *
+     * @param protection
+     */
+    public void registered(Protection protection) {
+        if (protection.getEntityId() != null) {
+            registered(protection.getId(), null, 0, 0, 0, protection.getEntityId());
+        } else if (!protection.isEntity()) {
+            registered(protection.getId(), protection.getWorld(), protection.getX(), protection.getY(), protection.getZ(), null);
+        }
+    }
+
+    /**
+     * Mark the block or entity of a newly registered protection, which might have been registered by another server
+     *
+     * @param protectionId
+     * @param world
+     *            the world of a block protection, null for entity protections
+     * @param x
+     * @param y
+     * @param z
+     * @param entityId
+     *            the protected entity, null for block protections
+     */
+    public void registered(int protectionId, String world, int x, int y, int z, UUID entityId) {
+        if (!enabled) {
+            return;
+        }
+        if (!Bukkit.isPrimaryThread()) {
+            Bukkit.getScheduler().runTask(lwc.getPlugin(), () -> registered(protectionId, world, x, y, z, entityId));
+            return;
+        }
+
+        if (entityId != null) {
+            Entity entity = Bukkit.getEntity(entityId);
+            if (entity != null) {
+                set(entity.getPersistentDataContainer(), protectionId);
+            } else {
+                pendingEntities.put(entityId, protectionId);
+            }
+            return;
+        }
+
+        if (world == null) {
+            return;
+        }
+        World bukkitWorld = Bukkit.getWorld(world);
+        if (bukkitWorld == null || !bukkitWorld.isChunkLoaded(x >> 4, z >> 4)) {
+            pendingBlocks.computeIfAbsent(new ChunkKey(world, x >> 4, z >> 4), k -> new ArrayList<>()).add(new PendingBlock(protectionId, x, y, z));
+            return;
+        }
+        mark(bukkitWorld.getBlockAt(x, y, z), protectionId);
+    }
+
+    /**
+     * Mark the blocks of the protections registered while a chunk was not loaded
+     *
+     * @param chunk
+     */
+    public void chunkLoaded(Chunk chunk) {
+        if (pendingBlocks.isEmpty()) {
+            return;
+        }
+
+        List<PendingBlock> blocks = pendingBlocks.remove(new ChunkKey(chunk.getWorld().getName(), chunk.getX(), chunk.getZ()));
+        if (blocks != null) {
+            // matching the blocks might look into neighbouring chunks, which is not done while a chunk is loaded
+            Bukkit.getScheduler().runTask(lwc.getPlugin(), () -> {
+                if (!chunk.isLoaded()) {
+                    pendingBlocks.computeIfAbsent(new ChunkKey(chunk.getWorld().getName(), chunk.getX(), chunk.getZ()), k -> new ArrayList<>()).addAll(blocks);
+                    return;
+                }
+                for (PendingBlock block : blocks) {
+                    mark(chunk.getWorld().getBlockAt(block.x(), block.y(), block.z()), block.protectionId());
+                }
+            });
+        }
+    }
+
+    /**
+     * Mark the entities that got a protection while they were not loaded
+     *
+     * @param entities
+     */
+    public void entitiesLoaded(List<Entity> entities) {
+        if (pendingEntities.isEmpty()) {
+            return;
+        }
+
+        for (Entity entity : entities) {
+            Integer protectionId = pendingEntities.remove(entity.getUniqueId());
+            if (protectionId != null) {
+                set(entity.getPersistentDataContainer(), protectionId);
+            }
+        }
+    }
+
+    /**
+     * Remove the marker of a removed protection
+     *
+     * @param protection
+     */
+    public void removed(Protection protection) {
+        if (!enabled || !Bukkit.isPrimaryThread()) {
+            return;
+        }
+
+        UUID entityId = protection.getEntityId();
+        if (entityId != null) {
+            pendingEntities.remove(entityId);
+            Entity entity = Bukkit.getEntity(entityId);
+            if (entity != null) {
+                set(entity.getPersistentDataContainer(), UNKNOWN);
+            }
+            return;
+        }
+
+        Block block = getLoadedBlock(protection);
+        if (block != null) {
+            set(block, UNKNOWN);
+        }
+    }
+
+    /**
+     * Get the block of a protection without loading its chunk
+     *
+     * @param protection
+     * @return the block or null if it is not loaded
+     */
+    private Block getLoadedBlock(Protection protection) {
+        if (protection.isEntity() || protection.getWorld() == null) {
+            return null;
+        }
+
+        World world = Bukkit.getWorld(protection.getWorld());
+        if (world == null || !world.isChunkLoaded(protection.getX() >> 4, protection.getZ() >> 4)) {
+            return null;
+        }
+        return world.getBlockAt(protection.getX(), protection.getY(), protection.getZ());
+    }
+
+    /**
+     * Mark the block of a protection and remove the markers of the blocks it is matched to
+     *
+     * @param block
+     * @param protectionId
+     */
+    private void mark(Block block, int protectionId) {
+        ProtectionFinder finder = new ProtectionFinder(lwc);
+        if (finder.matchBlocks(block)) {
+            for (BlockState matched : finder.getBlocks()) {
+                set(matched.getBlock(), UNKNOWN);
+            }
+        }
+        set(block, protectionId);
+    }
+
+    private int get(PersistentDataContainer container) {
+        Integer id = container.get(idKey, PersistentDataType.INTEGER);
+        if (id == null || id < 0) {
+            return UNKNOWN;
+        }
+
+        Long storedStamp = container.get(stampKey, PersistentDataType.LONG);
+        return storedStamp != null && storedStamp == stamp ? id : UNKNOWN;
+    }
+
+    /**
+     * Write a marker to the live tile entity of a block
+     *
+     * @param block
+     * @param id
+     *            the id, {@link #NOT_PROTECTED} or {@link #UNKNOWN} to remove the marker
+     */
+    private void set(Block block, int id) {
+        // the state is not a snapshot, so it does not have to be updated
+        if (block.getState(false) instanceof TileState tile) {
+            set(tile.getPersistentDataContainer(), id);
+        }
+    }
+
+    private void set(PersistentDataContainer container, int id) {
+        if (id == UNKNOWN) {
+            container.remove(idKey);
+            container.remove(stampKey);
+            return;
+        }
+
+        Integer current = container.get(idKey, PersistentDataType.INTEGER);
+        if (current == null || current != id) {
+            container.set(idKey, PersistentDataType.INTEGER, id);
+        }
+        Long storedStamp = container.get(stampKey, PersistentDataType.LONG);
+        if (storedStamp == null || storedStamp != stamp) {
+            container.set(stampKey, PersistentDataType.LONG, stamp);
+        }
+    }
+}
@@ -26,12 +26,15 @@
  * either expressed or implied, of anybody else.
  */
 
+
 package com.griefcraft.cache;
 
+import com.griefcraft.cache.ChunkIndex.Presence;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.model.Protection;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
-import org.bukkit.Location;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockState;
 import org.bukkit.entity.Entity;
@@ -39,15 +42,14 @@ import org.bukkit.entity.Entity;
 public class ProtectionCache {
 
     /**
-     * The amount the cache is increased by each time a high-intensity area
-     * requests it if needed
+     * The estimated memory used by a known null entity (in bytes)
      */
-    private final static int ADAPTIVE_CACHE_TICK = 10;
+    private final static int KNOWN_NULL_ENTITY_SIZE = 96;
 
     /**
-     * The max number of protections the adaptive cache will add
+     * The part of the memory budget that can be used by known null entities
      */
-    private final static int ADAPTIVE_CACHE_MAX = 100000;
+    private final static int KNOWN_NULL_ENTITY_SHARE = 8;
 
     /**
      * The LWC instance this set belongs to
@@ -55,156 +57,150 @@ public class ProtectionCache {
     private final LWC lwc;
 
     /**
-     * Hard references to protections still cached
+     * The ids of the worlds used in the caches
      */
-    private final LRUCache<Protection, Object> references;
+    private final WorldRegistry worlds = new WorldRegistry();
 
     /**
-     * Weak references to protections by UUID
+     * The cached protections by their id. This holds the only hard references,
+     * protections evicted from here are removed from all other lookups
      */
-    private final WeakLRUCache<UUID, Protection> byEntityId;
+    private final LongCache<Protection> byId;
 
     /**
-     * Weak references to protections and their cache key
-     * (protection.getCacheKey())
+     * The name of the eviction policy of {@link #byId}
      */
-    private final WeakLRUCache<CacheKey, Protection> byCacheKey;
+    private final String policy;
 
     /**
-     * Weak references to protections and their protection id
+     * Spatial index of the cached protections, by chunk and block. This
+     * covers both the protected blocks and the blocks matched by their
+     * protection finder. For loaded chunks it also holds the protected
+     * positions and the blocks known to not be protected
      */
-    private final WeakLRUCache<Integer, Protection> byId;
+    private final ChunkIndex byLocation = new ChunkIndex();
 
     /**
-     * A block that isn't the protected block itself but matches it in a
-     * protection matcher
+     * The cached entity protections, keyed by {@link #entityKey(UUID)}
      */
-    private final WeakLRUCache<CacheKey, Protection> byKnownBlock;
+    private final LongObjectHashMap<Protection> byEntityId = new LongObjectHashMap<>();
 
     /**
-     * A cache of blocks that are known to not have a protection
+     * Entities known to not have a protection, keyed by
+     * {@link #entityKey(UUID)}. The value is the UUID itself, so hash
+     * collisions can be detected
      */
-    private final LRUCache<CacheKey, Object> byKnownNulls;
-
-    private final LRUCache<CacheKey, Object> directByKnownNulls;
-    
-    private final LRUCache<UUID, Object> byKnownNullsEntities;
+    private final LongLRUCache<UUID> byKnownNullsEntities;
 
     /**
-     * The capacity of the cache
+     * The max memory the cached protections can use (in bytes)
      */
-    private int capacity;
+    private final long memoryBudget;
 
     /**
-     * The number of protections that were added via adaptive cache
+     * The method counter
      */
-    private int adaptiveCapacity = 0;
+    private final MethodCounter counter = new MethodCounter();
 
     /**
-     * The method counter
+     * Incremented whenever protections are removed from the cache, so results of database queries that were
+     * started before can be recognized as possibly outdated
      */
-    private final MethodCounter counter = new MethodCounter();
+    private int invalidations = 0;
 
     /**
-     * Used for byKnownNulls
+     * The amount of block and entity lookups that found no cached protection, although one exists or might exist
      */
-    private final static Object FAKE_VALUE = new Object();
+    private long lookupMisses;
 
     public ProtectionCache(LWC lwc) {
         this.lwc = lwc;
-        this.capacity = Math.max(10000, lwc.getConfiguration().getInt("core.cacheSize", 10000));
+        this.memoryBudget = Math.max(1, lwc.getConfiguration().getInt("core.cacheMemory", 64)) * 1024L * 1024L;
 
-        this.references = new LRUCache<>(capacity);
-        this.byCacheKey = new WeakLRUCache<>(capacity);
-        this.byId = new WeakLRUCache<>(capacity);
-        this.byKnownBlock = new WeakLRUCache<>(capacity);
-        this.byEntityId = new WeakLRUCache<>(capacity);
-        this.byKnownNulls = new LRUCache<>(capacity);
-        this.directByKnownNulls = new LRUCache<>(capacity);
-        this.byKnownNullsEntities = new LRUCache<>(capacity);
+        LongLRUCache.EvictionListener<Protection> evictionListener = (tag, id, protection) -> unindex(protection);
+        if (lwc.getConfiguration().getString("core.cachePolicy", "tinylfu").equalsIgnoreCase("lru")) {
+            this.policy = "lru";
+            this.byId = new LongLRUCache<>(Integer.MAX_VALUE, memoryBudget, Protection::estimateSize, evictionListener);
+        } else {
+            this.policy = "tinylfu";
+            this.byId = new LongTinyLFUCache<>(memoryBudget, Protection::estimateSize, evictionListener);
+        }
+        this.byKnownNullsEntities = new LongLRUCache<>(Integer.MAX_VALUE, memoryBudget / KNOWN_NULL_ENTITY_SHARE, entityId -> KNOWN_NULL_ENTITY_SIZE, null);
     }
 
     /**
-     * Called from specific potentially high-intensity access areas. These areas
-     * preferably need(!) free space in the cache and otherwise could cause
-     * "lag" or other oddities.
+     * Get the method counter for this class
+     *
+     * @return
      */
-    public void increaseIfNecessary() {
-        if (isFull() && adaptiveCapacity < ADAPTIVE_CACHE_MAX) {
-            adaptiveCapacity += ADAPTIVE_CACHE_TICK;
-            adjustCacheSizes();
-        }
+    public MethodCounter getMethodCounter() {
+        return counter;
     }
 
     /**
-     * Gets the direct reference of the references cache
+     * Gets the max memory the cached protections can use
      *
-     * @return
+     * @return the budget in bytes
      */
-    public LRUCache<Protection, Object> getReferences() {
-        return references;
+    public long getMemoryBudget() {
+        return memoryBudget;
     }
 
     /**
-     * Get the method counter for this class
+     * Gets the estimated memory used by the cached protections
      *
-     * @return
+     * @return the usage in bytes
      */
-    public MethodCounter getMethodCounter() {
-        return counter;
+    public long getMemoryUsage() {
+        return byId.getWeight();
     }
 
     /**
-     * Gets the default capacity of the cache
-     *
-     * @return
+     * @return the name of the eviction policy, lru or tinylfu
      */
-    public int capacity() {
-        return capacity;
+    public String getPolicy() {
+        return policy;
     }
 
     /**
-     * Gets the adaptive capacity of the cache
-     *
-     * @return
+     * @return the amount of block, entity and id lookups that found a cached protection
      */
-    public int adaptiveCapacity() {
-        return adaptiveCapacity;
+    public long getHits() {
+        return byId.getHits();
     }
 
     /**
-     * Gets the total capacity (default + adaptive) of the cache
-     *
-     * @return
+     * @return the amount of block, entity and id lookups that found no cached protection, although one exists or
+     *         might exist. Blocks and entities known as not protected are not counted.
      */
-    public int totalCapacity() {
-        return capacity + adaptiveCapacity;
+    public long getMisses() {
+        return byId.getMisses() + lookupMisses;
     }
 
     /**
-     * Clears the entire protection cache
+     * @return the amount of protections evicted because the cache was full
      */
-    public void clear() {
-        // remove hard refs
-        references.clear();
+    public long getEvictions() {
+        return byId.getEvictions();
+    }
 
-        // remove weak refs
-        byCacheKey.clear();
-        byId.clear();
-        byKnownBlock.clear();
-        byKnownNulls.clear();
-        directByKnownNulls.clear();
-        byKnownNullsEntities.clear();
-        byEntityId.clear();
+    /**
+     * @return the amount of protections that were not admitted to the cache, because they were used less often than
+     *         the protections they would replace
+     */
+    public long getRejections() {
+        return byId instanceof LongTinyLFUCache<Protection> tinyLFU ? tinyLFU.getRejections() : 0;
     }
 
     /**
-     * Check if the cache is full
-     *
-     * @return
+     * Clears the entire protection cache
      */
-    public boolean isFull() {
-        return references.size() >= totalCapacity();
+    public void clear() {
+        invalidations++;
+        byId.clear();
+        byLocation.clear();
+        byEntityId.clear();
+        byKnownNullsEntities.clear();
     }
 
     /**
@@ -213,7 +209,7 @@ public class ProtectionCache {
      * @return
      */
     public int size() {
-        return references.size();
+        return byId.size();
     }
 
     /**
@@ -228,24 +224,22 @@ public class ProtectionCache {
 
         counter.increment("addProtection");
 
+        int world = worlds.getId(protection.getWorld());
         if (protection.getEntityId() != null) {
-            byKnownNullsEntities.remove(protection.getEntityId());
-        } else {
-            byKnownNulls.remove(protection.getCacheKey());
-            directByKnownNulls.remove(protection.getCacheKey());
+            removeKnownNull(protection.getEntityId());
         }
 
-        // Add the hard reference
-        references.put(protection, null);
+        // Add the hard reference, replacing an outdated instance of the same protection
+        Protection previous = byId.put(protection.getId(), protection);
+        if (previous != null && previous != protection) {
+            unindex(previous);
+        }
 
-        // Add weak references which are used to lookup protections
         if (protection.getEntityId() != null) {
-            byEntityId.put(protection.getEntityId(), protection);
-            byId.put(protection.getId(), protection);
+            byEntityId.put(entityKey(protection.getEntityId()), protection);
             return;
         }
-        byCacheKey.put(protection.getCacheKey(), protection);
-        byId.put(protection.getId(), protection);
+        byLocation.putDirect(world, protection.getX(), protection.getY(), protection.getZ(), protection);
 
         // get the protection's finder if it was found via that
         if (protection.getProtectionFinder() != null && protection.getBlock() != null) {
@@ -253,8 +247,7 @@ public class ProtectionCache {
 
             for (BlockState state : protection.getProtectionFinder().getBlocks()) {
                 if (!protectedBlock.equals(state.getBlock())) {
-                    CacheKey cacheKey = cacheKey(state.getLocation());
-                    byKnownBlock.put(cacheKey, protection);
+                    byLocation.putMatched(worlds.getId(state.getWorld().getName()), state.getX(), state.getY(), state.getZ(), protection);
                 }
             }
         }
@@ -267,87 +260,271 @@ public class ProtectionCache {
      */
     public void removeProtection(Protection protection) {
         counter.increment("removeProtection");
+        invalidations++;
 
-        references.remove(protection);
-
-        if (protection.getEntityId() != null) {
-            byEntityId.remove(protection.getEntityId());
+        Protection cached = byId.peek(protection.getId());
+        if (cached != null && (cached == protection || cached.equals(protection))) {
             byId.remove(protection.getId());
-            return;
+            if (cached != protection) {
+                unindex(cached);
+            }
         }
+        unindex(protection);
 
-        byId.remove(protection.getId());
-
-        if (protection.getProtectionFinder() != null) {
+        if (protection.getEntityId() == null && protection.getProtectionFinder() != null) {
             for (BlockState state : protection.getProtectionFinder()
                     .getBlocks()) {
-                remove(cacheKey(state.getLocation()));
+                remove(state.getWorld().getName(), state.getX(), state.getY(), state.getZ());
+            }
+        }
+    }
+
+    /**
+     * Remove all lookups that point to the given protection. Matched blocks
+     * are always close to the protected block, so only the surrounding chunks
+     * have to be checked
+     *
+     * @param protection
+     */
+    private void unindex(Protection protection) {
+        if (protection.getEntityId() != null) {
+            long entityKey = entityKey(protection.getEntityId());
+            if (byEntityId.get(entityKey) == protection) {
+                byEntityId.remove(entityKey);
             }
+            // a known null written while the protection was cached would hide it once it is loaded again
+            removeKnownNull(protection.getEntityId());
+        } else {
+            byLocation.removeProtection(protection, worlds.getId(protection.getWorld()), protection.getX(), protection.getZ(), 3);
         }
     }
 
     public Protection getProtection(BlockState block) {
-        return getProtection(cacheKey(block.getWorld().getName(), block.getX(),
-                block.getY(), block.getZ()));
+        return getProtection(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
     }
 
     /**
-     * Remove the given cache key from any caches
+     * Remove the given block from any caches
      *
-     * @param cacheKey
+     * @param world
+     * @param x
+     * @param y
+     * @param z
      */
-    public void remove(CacheKey cacheKey) {
-        byCacheKey.remove(cacheKey);
-        byKnownBlock.remove(cacheKey);
-        byKnownNulls.remove(cacheKey);
-        directByKnownNulls.remove(cacheKey);
+    public void remove(String world, int x, int y, int z) {
+        byLocation.remove(worlds.getId(world), x, y, z);
     }
 
     public void remove(UUID entityId) {
-        byEntityId.remove(entityId);
-        byKnownNullsEntities.remove(entityId);
+        invalidations++;
+        long entityKey = entityKey(entityId);
+        Protection protection = byEntityId.get(entityKey);
+        if (protection != null && entityId.equals(protection.getEntityId())) {
+            byEntityId.remove(entityKey);
+        }
+        removeKnownNull(entityId);
     }
 
     /**
-     * Make a cache key known as null in the cache
+     * Make a block known as not protected, not even by a protection on
+     * another block. Only kept while the chunk is loaded
      *
-     * @param cacheKey
+     * @param world
+     * @param x
+     * @param y
+     * @param z
      */
-    public void addKnownNull(CacheKey cacheKey) {
+    public void addKnownNull(String world, int x, int y, int z) {
         counter.increment("addKnownNull");
-        byKnownNulls.put(cacheKey, FAKE_VALUE);
+        byLocation.addKnownNull(worlds.getId(world), x, y, z);
     }
 
     /**
-     * Check if a cache key is known to not exist in the database
+     * Check if a block is known to not have a protection
      *
-     * @param cacheKey
+     * @param world
+     * @param x
+     * @param y
+     * @param z
      * @return
      */
-    public boolean isKnownNull(CacheKey cacheKey) {
+    public boolean isKnownNull(String world, int x, int y, int z) {
         counter.increment("isKnownNull");
-        return byKnownNulls.containsKey(cacheKey);
+        return byLocation.isKnownNull(worlds.getId(world), x, y, z);
+    }
+
+    /**
+     * Check if a protection is located directly on the given block. This is
+     * only known for loaded chunks with a loaded presence
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public Presence getPresence(String world, int x, int y, int z) {
+        counter.increment("getPresence");
+        return byLocation.getPresence(worlds.getId(world), x, y, z);
+    }
+
+    /**
+     * Get the presence version of a loaded chunk, used to detect changes
+     * while the positions of its protections are loaded
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     * @return the version or -1 if the chunk is not loaded
+     */
+    public int getPresenceVersion(String world, int chunkX, int chunkZ) {
+        return byLocation.getPresenceVersion(worlds.getId(world), chunkX, chunkZ);
+    }
+
+    /**
+     * Set the positions of all protections in a loaded chunk
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     * @param positions the positions as {@link ChunkIndex#localKey(int, int, int)}
+     * @param version the version from {@link #getPresenceVersion(String, int, int)}
+     * @return true if the presence was set
+     */
+    public boolean setPresence(String world, int chunkX, int chunkZ, long[] positions, int version) {
+        return byLocation.setPresence(worlds.getId(world), chunkX, chunkZ, positions, version);
+    }
+
+    /**
+     * Record a protection that was created or moved to the given block
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void markPresent(String world, int x, int y, int z) {
+        byLocation.markPresent(worlds.getId(world), x, y, z);
+    }
+
+    /**
+     * Forget the blocks around a block that are known as not protected, after a protection on the block was
+     * changed by another server. Matched blocks are always close to the protected block.
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void removeKnownNulls(String world, int x, int y, int z) {
+        byLocation.removeKnownNulls(worlds.getId(world), x, y, z, 3);
     }
 
     /**
-     * Make a cache key known as null in the cache
+     * Record that the database has no protection on the given block
      *
-     * @param cacheKey
+     * @param world
+     * @param x
+     * @param y
+     * @param z
      */
-    public void addDirectKnownNull(CacheKey cacheKey) {
-        counter.increment("addDirectKnownNull");
-        directByKnownNulls.put(cacheKey, FAKE_VALUE);
+    public void markAbsent(String world, int x, int y, int z) {
+        byLocation.markAbsent(worlds.getId(world), x, y, z);
     }
 
     /**
-     * Check if a cache key is known to not exist in the database
+     * Check if the chunk of the given block is loaded
      *
-     * @param cacheKey
+     * @param world
+     * @param x
+     * @param z
      * @return
      */
-    public boolean isDirectKnownNull(CacheKey cacheKey) {
-        counter.increment("isDirectKnownNull");
-        return directByKnownNulls.containsKey(cacheKey);
+    public boolean isChunkLoaded(String world, int x, int z) {
+        return byLocation.isChunkLoaded(worlds.getId(world), x, z);
+    }
+
+    /**
+     * Called when a chunk was loaded
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void chunkLoaded(String world, int chunkX, int chunkZ) {
+        byLocation.chunkLoaded(worlds.getId(world), chunkX, chunkZ);
+    }
+
+    /**
+     * Called when a chunk was unloaded, evicts the protections located in the
+     * chunk and drops its presence and known nulls
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void chunkUnloaded(String world, int chunkX, int chunkZ) {
+        int worldId = worlds.getId(world);
+        List<Protection> protections = new ArrayList<>();
+        byLocation.collectDirect(worldId, chunkX, chunkZ, protections);
+        for (Protection protection : protections) {
+            evict(protection);
+        }
+        byLocation.chunkUnloaded(worldId, chunkX, chunkZ);
+    }
+
+    /**
+     * Called when a world was unloaded, evicts all protections of the world
+     *
+     * @param world
+     */
+    public void worldUnloaded(String world) {
+        int worldId = worlds.getId(world);
+        List<Protection> protections = new ArrayList<>();
+        byLocation.collectDirect(worldId, protections);
+        byEntityId.forEach((entityKey, protection) -> {
+            if (world.equals(protection.getWorld())) {
+                protections.add(protection);
+            }
+        });
+        for (Protection protection : protections) {
+            evict(protection);
+        }
+        byLocation.worldUnloaded(worldId);
+    }
+
+    /**
+     * Drop an entity that was unloaded from the cache. Unlike {@link #remove(UUID)} the entry is still valid, so the
+     * results of running queries are kept. Protections with changes that are not saved yet or with temporary
+     * permissions stay cached, as loading them again would lose those.
+     *
+     * @param entityId
+     */
+    public void evict(UUID entityId) {
+        Protection protection = byEntityId.get(entityKey(entityId));
+        if (protection != null && entityId.equals(protection.getEntityId())) {
+            evict(protection);
+        }
+        removeKnownNull(entityId);
+    }
+
+    /**
+     * Drop a protection that is not needed right now from the cache, unless
+     * loading it again would lose changes. Last access times are kept by the
+     * database thread, so they do not keep a protection cached
+     *
+     * @param protection
+     */
+    private void evict(Protection protection) {
+        if ((protection.getModifiedFields() & ~Protection.Field.LAST_ACCESSED.bit()) != 0 || protection.hasTemporaryPermissions()) {
+            return;
+        }
+
+        counter.increment("evict");
+        if (byId.peek(protection.getId()) == protection) {
+            byId.remove(protection.getId());
+        }
+        unindex(protection);
     }
 
     /**
@@ -357,27 +534,43 @@ public class ProtectionCache {
      * @return
      */
     public boolean isKnownNull(UUID entityId) {
-        return byKnownNullsEntities.containsKey(entityId);
+        return entityId.equals(byKnownNullsEntities.get(entityKey(entityId)));
+    }
+
+    public void addKnownNull(UUID entityId) {
+        byKnownNullsEntities.put(entityKey(entityId), entityId);
+    }
+
+    private void removeKnownNull(UUID entityId) {
+        long entityKey = entityKey(entityId);
+        if (entityId.equals(byKnownNullsEntities.get(entityKey))) {
+            byKnownNullsEntities.remove(entityKey);
+        }
     }
 
     /**
-     * Get a protection in the cache via its cache key
+     * Get a protection in the cache located on or matching the given block
+     * position
      *
-     * @param cacheKey
+     * @param world
+     * @param x
+     * @param y
+     * @param z
      * @return
      */
-    public Protection getProtection(CacheKey cacheKey) {
+    public Protection getProtection(String world, int x, int y, int z) {
         counter.increment("getProtection");
 
-        Protection protection;
-
-        // Check the direct cache first
-        if ((protection = byCacheKey.get(cacheKey)) != null) {
-            return protection;
+        // protections located on the block take precedence over matched blocks
+        int worldId = worlds.getId(world);
+        Protection protection = byLocation.get(worldId, x, y, z);
+        if (protection != null) {
+            // recorded as a use and a hit of the eviction policy
+            byId.get(protection.getId());
+        } else if (byLocation.getPresence(worldId, x, y, z) == Presence.PRESENT) {
+            lookupMisses++;
         }
-
-        // now use the 'others' cache
-        return byKnownBlock.get(cacheKey);
+        return protection;
     }
 
     /**
@@ -387,8 +580,7 @@ public class ProtectionCache {
      * @return
      */
     public Protection getProtection(Block block) {
-        return getProtection(cacheKey(block.getWorld().getName(), block.getX(),
-                block.getY(), block.getZ()));
+        return getProtection(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
     }
 
     /**
@@ -398,7 +590,42 @@ public class ProtectionCache {
      * @return
      */
     public Protection getProtection(Entity entity) {
-        return byEntityId.get(entity.getUniqueId());
+        UUID entityId = entity.getUniqueId();
+        Protection protection = byEntityId.get(entityKey(entityId));
+        if (protection != null && entityId.equals(protection.getEntityId())) {
+            byId.get(protection.getId());
+            return protection;
+        }
+        if (!isKnownNull(entityId)) {
+            lookupMisses++;
+        }
+        return null;
+    }
+
+    /**
+     * Get a protection in the cache located on or matching the given block
+     * position without counting it as a use, for checks that are not caused
+     * by a lookup
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public Protection peekProtection(String world, int x, int y, int z) {
+        return byLocation.get(worlds.getId(world), x, y, z);
+    }
+
+    /**
+     * Get the cached protection of an entity without counting it as a use
+     *
+     * @param entityId
+     * @return
+     */
+    public Protection peekProtection(UUID entityId) {
+        Protection protection = byEntityId.get(entityKey(entityId));
+        return protection != null && entityId.equals(protection.getEntityId()) ? protection : null;
     }
 
     /**
@@ -409,8 +636,7 @@ public class ProtectionCache {
      */
     public boolean isKnownBlock(Block block) {
         counter.increment("isKnownBlock");
-        return byKnownBlock.containsKey(cacheKey(block.getWorld().getName(),
-                block.getX(), block.getY(), block.getZ()));
+        return byLocation.isMatched(worlds.getId(block.getWorld().getName()), block.getX(), block.getY(), block.getZ());
     }
 
     /**
@@ -425,49 +651,35 @@ public class ProtectionCache {
     }
 
     /**
-     * Gets the cache key for the given location
+     * Get a protection in the cache via its id without counting it as a use,
+     * for checks that are not caused by a lookup
      *
-     * @param location
-     * @return
-     */
-    public static CacheKey cacheKey(Location location) {
-        return cacheKey(location.getWorld().getName(), location.getBlockX(),
-                location.getBlockY(), location.getBlockZ());
-    }
-
-    /**
-     * Generate a cache key using the given data
-     *
-     * @param world
-     * @param x
-     * @param y
-     * @param z
+     * @param id
      * @return
      */
-    public static CacheKey cacheKey(String world, int x, int y, int z) {
-        return new CacheKey(world, x, y, z);
+    public Protection peekProtectionById(int id) {
+        return byId.peek(id);
     }
 
     /**
-     * Fixes the internal caches and adjusts them to the new cache total
-     * capacity
+     * @return the number of times protections were removed from the cache
      */
-    private void adjustCacheSizes() {
-        references.maxCapacity = totalCapacity();
-        byCacheKey.maxCapacity = totalCapacity();
-        byId.maxCapacity = totalCapacity();
-        byKnownBlock.maxCapacity = totalCapacity();
-        byKnownNulls.maxCapacity = totalCapacity();
-        directByKnownNulls.maxCapacity = totalCapacity();
-        byEntityId.maxCapacity = totalCapacity();
-        byKnownNullsEntities.maxCapacity = totalCapacity();
+    public int getInvalidations() {
+        return invalidations;
     }
 
     public LWC getLwc() {
         return lwc;
     }
 
-    public void addKnownNull(UUID entityId) {
-        byKnownNullsEntities.put(entityId, null);
+    /**
+     * Folds an entity UUID into a primitive key. Lookups verify the UUID, as
+     * different entities can share a key
+     *
+     * @param entityId
+     * @return
+     */
+    private static long entityKey(UUID entityId) {
+        return entityId.getMostSignificantBits() ^ entityId.getLeastSignificantBits();
     }
 }
@@ -0,0 +1,284 @@
+package com.griefcraft.cache;
+
+import com.griefcraft.lwc.LWC;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+/**
+ * Counts the protections of owners by block id, so limits can be checked without querying the database. The counts
+ * of a player are loaded asynchronously when they join and dropped when they quit. Only the counts of online players
+ * are kept, the counts of other owners (for example looked up by /lwc admin find) are loaded on every request. Every
+ * registered, removed or modified protection updates the counts of the owners that are loaded.
+ * <p>
+ * All methods can be called from any thread.
+ */
+public class ProtectionCounts {
+
+    /**
+     * The protection counts of one owner
+     */
+    private static final class OwnerCounts {
+
+        /**
+         * The amount of protections by block id
+         */
+        private final IntLongHashMap byBlockId;
+
+        /**
+         * The total amount of protections
+         */
+        private long total;
+
+        private OwnerCounts(IntLongHashMap byBlockId) {
+            this.byBlockId = byBlockId;
+            byBlockId.forEach((blockId, count) -> total += count);
+        }
+
+        private void add(int blockId, int delta) {
+            long count = Math.max(0, byBlockId.get(blockId, 0) + delta);
+            if (count == 0) {
+                byBlockId.remove(blockId);
+            } else {
+                byBlockId.put(blockId, count);
+            }
+            total = Math.max(0, total + delta);
+        }
+    }
+
+    /**
+     * An owner whose counts are currently loaded from the database
+     */
+    private static final class PendingLoad {
+
+        /**
+         * The amount of changes to the protections of the owner since the load started
+         */
+        private int changes;
+
+        /**
+         * The amount of threads loading the counts
+         */
+        private int loaders;
+    }
+
+    /**
+     * The LWC instance
+     */
+    private final LWC lwc;
+
+    /**
+     * The loaded counts by owner
+     */
+    private final Map<String, OwnerCounts> owners = new HashMap<>();
+
+    /**
+     * The owners whose counts are kept once they are loaded
+     */
+    private final Set<String> tracked = new HashSet<>();
+
+    /**
+     * The owners whose counts are being loaded
+     */
+    private final Map<String, PendingLoad> loading = new HashMap<>();
+
+    public ProtectionCounts(LWC lwc) {
+        this.lwc = lwc;
+    }
+
+    /**
+     * Get the total amount of protections of an owner. The counts are loaded from the database if they are not
+     * loaded yet.
+     *
+     * @param owner
+     * @return the amount of protections
+     */
+    public int getProtectionCount(String owner) {
+        OwnerCounts counts = getCounts(owner);
+        synchronized (this) {
+            return (int) counts.total;
+        }
+    }
+
+    /**
+     * Get the amount of protections of an owner on the given block id. The counts are loaded from the database if
+     * they are not loaded yet.
+     *
+     * @param owner
+     * @param blockId
+     * @return the amount of protections
+     */
+    public int getProtectionCount(String owner, int blockId) {
+        OwnerCounts counts = getCounts(owner);
+        synchronized (this) {
+            return (int) counts.byBlockId.get(blockId, 0);
+        }
+    }
+
+    /**
+     * Keep the counts of an owner in memory until it is unloaded, and load them in the background if they are not
+     * loaded yet
+     *
+     * @param owner
+     */
+    public void loadAsync(String owner) {
+        synchronized (this) {
+            tracked.add(owner);
+            if (owners.containsKey(owner)) {
+                return;
+            }
+        }
+
+        lwc.getDatabaseExecutor().execute(() -> {
+            if (!LWC.ENABLED) {
+                return;
+            }
+
+            try {
+                getCounts(owner);
+            } catch (RuntimeException e) {
+                lwc.getPlugin().getLogger().log(Level.SEVERE, "Could not load the protection counts of " + owner, e);
+            }
+        });
+    }
+
+    /**
+     * Drop the counts of an owner
+     *
+     * @param owner
+     */
+    public synchronized void unload(String owner) {
+        tracked.remove(owner);
+        owners.remove(owner);
+    }
+
+    /**
+     * Drop the counts of an owner after its protections were changed without updating them
+     *
+     * @param owner
+     */
+    public synchronized void invalidate(String owner) {
+        owners.remove(owner);
+
+        PendingLoad pending = loading.get(owner);
+        if (pending != null) {
+            pending.changes++;
+        }
+    }
+
+    /**
+     * Drop all counts after protections were changed without updating them, for example by a bulk delete. The
+     * counts of online players are loaded again in the background.
+     */
+    public void clear() {
+        synchronized (this) {
+            owners.clear();
+            for (PendingLoad pending : loading.values()) {
+                pending.changes++;
+            }
+        }
+
+        if (Bukkit.isPrimaryThread()) {
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                loadAsync(player.getUniqueId().toString());
+            }
+        }
+    }
+
+    /**
+     * Add to the count of protections of an owner on a block id
+     *
+     * @param owner
+     * @param blockId
+     * @param delta
+     */
+    public synchronized void add(String owner, int blockId, int delta) {
+        if (owner == null) {
+            return;
+        }
+
+        OwnerCounts counts = owners.get(owner);
+        if (counts != null) {
+            counts.add(blockId, delta);
+            return;
+        }
+
+        // a running load might have missed the change
+        PendingLoad pending = loading.get(owner);
+        if (pending != null) {
+            pending.changes++;
+        }
+    }
+
+    /**
+     * Move a protection to another owner or block id
+     *
+     * @param oldOwner
+     * @param oldBlockId
+     * @param newOwner
+     * @param newBlockId
+     */
+    public synchronized void move(String oldOwner, int oldBlockId, String newOwner, int newBlockId) {
+        add(oldOwner, oldBlockId, -1);
+        add(newOwner, newBlockId, 1);
+    }
+
+    /**
+     * Get the counts of an owner, loading them from the database if required. The load is repeated if the
+     * protections of the owner changed while loading. Loaded counts are only kept for the tracked owners.
+     *
+     * @param owner
+     * @return the counts
+     */
+    private OwnerCounts getCounts(String owner) {
+        while (true) {
+            PendingLoad pending;
+            int changes;
+            synchronized (this) {
+                OwnerCounts counts = owners.get(owner);
+                if (counts != null) {
+                    return counts;
+                }
+
+                pending = loading.computeIfAbsent(owner, k -> new PendingLoad());
+                pending.loaders++;
+                changes = pending.changes;
+            }
+
+            IntLongHashMap loaded;
+            try {
+                loaded = lwc.getPhysicalDatabase().loadProtectionCounts(owner);
+            } catch (RuntimeException e) {
+                finishLoad(owner, pending);
+                throw e;
+            }
+
+            synchronized (this) {
+                finishLoad(owner, pending);
+
+                OwnerCounts counts = owners.get(owner);
+                if (counts != null) {
+                    return counts;
+                }
+
+                if (pending.changes == changes) {
+                    counts = new OwnerCounts(loaded);
+                    if (tracked.contains(owner)) {
+                        owners.put(owner, counts);
+                    }
+                    return counts;
+                }
+            }
+        }
+    }
+
+    private synchronized void finishLoad(String owner, PendingLoad pending) {
+        if (--pending.loaders == 0) {
+            loading.remove(owner);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.griefcraft.cache;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns small int ids to world names, so caches can key by a primitive instead of the name. The ids are
+ * only valid while the server is running.
+ */
+public class WorldRegistry {
+
+    /**
+     * Id used for protections without a world
+     */
+    public static final int NO_WORLD = 0;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private final ArrayList<String> names = new ArrayList<>();
+
+    public WorldRegistry() {
+        names.add(null);
+    }
+
+    /**
+     * Get the id of the given world, registering it if it is not known yet
+     *
+     * @param world
+     * @return
+     */
+    public int getId(String world) {
+        if (world == null) {
+            return NO_WORLD;
+        }
+        Integer id = ids.get(world);
+        if (id != null) {
+            return id;
+        }
+        synchronized (names) {
+            return ids.computeIfAbsent(world, name -> {
+                names.add(name);
+                return names.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * Get the name of the world with the given id
+     *
+     * @param id
+     * @return the name or null if the id is unknown
+     */
+    public String getName(int id) {
+        synchronized (names) {
+            return id > 0 && id < names.size() ? names.get(id) : null;
+        }
+    }
+
+    /**
+     * @return the amount of registered worlds
+     */
+    public int size() {
+        return ids.size();
+    }
+}
@@ -28,7 +28,6 @@
 
 package com.griefcraft.listeners;
 
-import com.griefcraft.cache.CacheKey;
 import com.griefcraft.cache.ProtectionCache;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.lwc.LWCPlugin;
@@ -180,11 +179,10 @@ public class LWCBlockListener implements Listener {
         }
 
         ProtectionCache cache = lwc.getProtectionCache();
-        CacheKey cacheKey = ProtectionCache.cacheKey(block.getLocation());
 
         // In the event they place a block, remove any known nulls there
-        if (cache.isKnownNull(cacheKey)) {
-            cache.remove(cacheKey);
+        if (cache.isKnownNull(block.getWorld().getName(), block.getX(), block.getY(), block.getZ())) {
+            cache.remove(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
         }
 
         Protection protection = lwc.findProtection(block.getLocation());
@@ -372,7 +370,6 @@ public class LWCBlockListener implements Listener {
         Location location = block.getLocation();
 
         ProtectionCache cache = lwc.getProtectionCache();
-        CacheKey cacheKey = ProtectionCache.cacheKey(location);
 
         if (lwc.isProtectable(event.getBlockReplacedState())) {
             Protection existingProtection = lwc.findProtection(block);
@@ -396,8 +393,8 @@ public class LWCBlockListener implements Listener {
         }
 
         // In the event they place a block, remove any known nulls there
-        if (cache.isKnownNull(cacheKey)) {
-            cache.remove(cacheKey);
+        if (cache.isKnownNull(block.getWorld().getName(), block.getX(), block.getY(), block.getZ())) {
+            cache.remove(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
         }
 
         // check if the block is blacklisted
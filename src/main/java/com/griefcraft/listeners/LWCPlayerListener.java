@@ -471,6 +471,10 @@ public class LWCPlayerListener implements Listener {
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
         UUIDRegistry.updateCache(player.getUniqueId(), player.getName());
+
+        if (LWC.ENABLED) {
+            LWC.getInstance().getProtectionCounts().loadAsync(player.getUniqueId().toString());
+        }
     }
 
     private Inventory lastItemMoveSource;
@@ -758,6 +762,7 @@ public class LWCPlayerListener implements Listener {
         // remove the place from the player cache and reset anything they can
         // access
         LWCPlayer.removePlayer(event.getPlayer());
+        LWC.getInstance().getProtectionCounts().unload(event.getPlayer().getUniqueId().toString());
     }
 
     @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
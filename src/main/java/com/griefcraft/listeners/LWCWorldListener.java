@@ -0,0 +1,78 @@
+package com.griefcraft.listeners;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.lwc.LWCPlugin;
+import org.bukkit.Chunk;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+public class LWCWorldListener implements Listener {
+
+    /**
+     * The plugin instance
+     */
+    private LWCPlugin plugin;
+
+    public LWCWorldListener(LWCPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        if (!LWC.ENABLED) {
+            return;
+        }
+
+        Chunk chunk = event.getChunk();
+        LWC lwc = plugin.getLWC();
+        lwc.getProtectionCache().chunkLoaded(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+        lwc.getChunkPrefetcher().chunkLoaded(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+        lwc.getPersistentProtectionIds().chunkLoaded(chunk);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        if (!LWC.ENABLED) {
+            return;
+        }
+
+        Chunk chunk = event.getChunk();
+        plugin.getLWC().getProtectionCache().chunkUnloaded(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        if (!LWC.ENABLED) {
+            return;
+        }
+
+        plugin.getLWC().getProtectionCache().worldUnloaded(event.getWorld().getName());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesLoad(EntitiesLoadEvent event) {
+        if (!LWC.ENABLED) {
+            return;
+        }
+
+        LWC lwc = plugin.getLWC();
+        lwc.getPersistentProtectionIds().entitiesLoaded(event.getEntities());
+        lwc.getChunkPrefetcher().entitiesLoaded(event.getEntities());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesUnload(EntitiesUnloadEvent event) {
+        if (!LWC.ENABLED) {
+            return;
+        }
+
+        plugin.getLWC().getChunkPrefetcher().entitiesUnloaded(event.getEntities());
+    }
+
+}
@@ -29,8 +29,11 @@
 package com.griefcraft.lwc;
 
 import com.griefcraft.bukkit.EntityBlock;
-import com.griefcraft.cache.CacheKey;
+import com.griefcraft.cache.ChunkIndex.Presence;
+import com.griefcraft.cache.ChunkPrefetcher;
+import com.griefcraft.cache.PersistentProtectionIds;
 import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.cache.ProtectionCounts;
 import com.griefcraft.integration.ICurrency;
 import com.griefcraft.integration.IPermissions;
 import com.griefcraft.integration.currency.NoCurrency;
@@ -47,6 +50,7 @@ import com.griefcraft.model.Protection.Type;
 import com.griefcraft.modules.admin.AdminCache;
 import com.griefcraft.modules.admin.AdminCleanup;
 import com.griefcraft.modules.admin.AdminClear;
+import com.griefcraft.modules.admin.AdminDatabase;
 import com.griefcraft.modules.admin.AdminDump;
 import com.griefcraft.modules.admin.AdminExpire;
 import com.griefcraft.modules.admin.AdminFind;
@@ -94,8 +98,12 @@ import com.griefcraft.scripting.event.LWCProtectionRegisterEvent;
 import com.griefcraft.scripting.event.LWCProtectionRegistrationPostEvent;
 import com.griefcraft.scripting.event.LWCReloadEvent;
 import com.griefcraft.scripting.event.LWCSendLocaleEvent;
+import com.griefcraft.sql.ChangeLog;
 import com.griefcraft.sql.Database;
+import com.griefcraft.sql.DatabaseThread;
+import com.griefcraft.sql.LegacyEntityMigration;
 import com.griefcraft.sql.PhysDB;
+import com.griefcraft.sql.SQLiteMaintenance;
 import com.griefcraft.util.BlockUtil;
 import com.griefcraft.util.Colors;
 import com.griefcraft.util.ProtectionFinder;
@@ -112,10 +120,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 import org.apache.commons.lang.StringUtils;
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Keyed;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -163,6 +177,46 @@ public class LWC {
      */
     private final ProtectionCache protectionCache;
 
+    /**
+     * Loads the protections of newly loaded chunks in the background
+     */
+    private final ChunkPrefetcher chunkPrefetcher;
+
+    /**
+     * Stores protection ids in the persistent data of protected blocks and entities
+     */
+    private final PersistentProtectionIds persistentProtectionIds;
+
+    /**
+     * The protection counts of online players, used for limits
+     */
+    private final ProtectionCounts protectionCounts;
+
+    /**
+     * Writes saved protections in the background
+     */
+    private final DatabaseThread databaseThread;
+
+    /**
+     * Checkpoints, optimizes and vacuums SQLite databases in the background
+     */
+    private final SQLiteMaintenance sqliteMaintenance;
+
+    /**
+     * Applies the changes other servers sharing the database made to protections
+     */
+    private final ChangeLog changeLog;
+
+    /**
+     * Migrates the entity protections that are only found by the hash of their entity's UUID
+     */
+    private final LegacyEntityMigration legacyEntityMigration;
+
+    /**
+     * Runs the database queries of asynchronous lookups
+     */
+    private final ExecutorService databaseExecutor;
+
     /**
      * Physical database instance
      */
@@ -197,11 +251,24 @@ public class LWC {
      */
     private final Map<ProtectionConfigurationKey, String> protectionConfigurationCache = new HashMap<>();
 
+    /**
+     * The min amount of seconds between two updates of the last access time of a protection
+     */
+    private int lastAccessedResolution;
+
     public LWC(LWCPlugin plugin) {
         this.plugin = plugin;
         LWC.instance = this;
         configuration = Configuration.load("core.yml");
         protectionCache = new ProtectionCache(this);
+        chunkPrefetcher = new ChunkPrefetcher(this);
+        persistentProtectionIds = new PersistentProtectionIds(this);
+        protectionCounts = new ProtectionCounts(this);
+        databaseThread = new DatabaseThread(this);
+        sqliteMaintenance = new SQLiteMaintenance(this);
+        changeLog = new ChangeLog(this);
+        legacyEntityMigration = new LegacyEntityMigration(this);
+        databaseExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("LWC Database Lookup ", 0).factory());
         moduleLoader = new ModuleLoader(this);
     }
 
@@ -459,6 +526,13 @@ public class LWC {
         // destroy the modules
         moduleLoader.shutdown();
 
+        // write everything that is still queued
+        legacyEntityMigration.stop();
+        changeLog.stop();
+        sqliteMaintenance.stop();
+        databaseThread.stop();
+        databaseExecutor.shutdown();
+
         if (physicalDatabase != null) {
             physicalDatabase.dispose();
         }
@@ -523,7 +597,7 @@ public class LWC {
             if (protection.isRealOwner(player)
                     || protection.getAccess(player.getUniqueId().toString(),
                             Permission.Type.PLAYER) != Permission.Access.NONE) {
-                if (Math.abs(protection.getLastAccessed() - timestamp) > 5) {
+                if (Math.abs(protection.getLastAccessed() - timestamp) > lastAccessedResolution) {
                     protection.setLastAccessed(timestamp);
                     protection.saveLastAccessed();
                 }
@@ -1137,8 +1211,7 @@ public class LWC {
     public int fastRemoveProtectionsByPlayer(CommandSender sender,
             String player, boolean shouldRemoveBlocks) {
         UUID uuid = UUIDRegistry.getUUID(player);
-        int ret = fastRemoveProtections(sender, "Lower(owner) = Lower('"
-                + (uuid != null ? uuid.toString() : player) + "')",
+        int ret = fastRemoveProtections(sender, physicalDatabase.getOwnerCondition(uuid != null ? uuid.toString() : player),
                 shouldRemoveBlocks);
 
         // invalid any history objects associated with the player
@@ -1152,28 +1225,24 @@ public class LWC {
         UUID uuid = UUIDRegistry.getUUID(oldplayer);
         String oldPlayerString = uuid != null ? uuid.toString() : oldplayer;
 
-        List<Protection> protections = physicalDatabase.loadProtectionsByPlayerAlsoIfNotOwner(oldplayer);
-        for (Protection p : protections) {
-            Protection existing = protectionCache.getProtectionById(p.getId());
-            if (existing != null) {
-                p = existing;
-            }
-            if (p.getOwner() != null && p.getOwner().equalsIgnoreCase(oldPlayerString)) {
-                p.setOwner(newplayerid);
-            }
-            for (Permission perm : p.getPermissions()) {
-                if (perm.getType() == Permission.Type.PLAYER && perm.getName() != null && perm.getName().equalsIgnoreCase(oldPlayerString)) {
-                    perm.setName(newplayeridstring);
-                    p.setModified();
-                }
-            }
-            p.save();
-            if (existing == null) {
-                p.removeCache();
-                protectionCache.addProtection(p);
+        // queued protections would overwrite the transfer
+        databaseThread.writeNow();
+        Set<Integer> changed = physicalDatabase.transferProtections(oldPlayerString, newplayeridstring);
+
+        // only the changed protections are dropped from the cache
+        for (int protectionId : changed) {
+            Protection cached = protectionCache.peekProtectionById(protectionId);
+            if (cached != null) {
+                protectionCache.removeProtection(cached);
             }
         }
-        return protections.size();
+
+        protectionCounts.invalidate(oldPlayerString);
+        protectionCounts.invalidate(newplayeridstring);
+        if (Bukkit.getPlayer(newplayerid) != null) {
+            protectionCounts.loadAsync(newplayeridstring);
+        }
+        return changed.size();
     }
 
     /**
@@ -1205,7 +1274,7 @@ public class LWC {
             }
 
             // Remove it from the cache if it's in there
-            Protection cached = protectionCache.getProtection(protection.getCacheKey());
+            Protection cached = protectionCache.peekProtection(protection.getWorld(), protection.getX(), protection.getY(), protection.getZ());
             if (cached != null) {
                 cached.removeCache();
             }
@@ -1284,12 +1353,19 @@ public class LWC {
     }
 
     public void updateLoadedLegacyProtection(Entity entity) {
+        LegacyEntityMigration.State state = legacyEntityMigration.getState();
+        if (state == LegacyEntityMigration.State.COMPLETE) {
+            return;
+        }
+        if (state == LegacyEntityMigration.State.RUNNING) {
+            legacyEntityMigration.entityLoaded(entity);
+            return;
+        }
         if (!isProtectable(entity)) {
             return;
         }
         int A = EntityBlock.POSITION_OFFSET + entity.getUniqueId().hashCode();
-        CacheKey cacheKey = ProtectionCache.cacheKey(entity.getWorld().getName(), A, A, A);
-        Protection protection = protectionCache.getProtection(cacheKey);
+        Protection protection = protectionCache.getProtection(entity.getWorld().getName(), A, A, A);
         if (protection != null && protection.isEntity() && protection.getEntityId() == null) {
             protectionCache.removeProtection(protection);
             protection.setEntityId(entity.getUniqueId());
@@ -1311,25 +1387,44 @@ public class LWC {
         if (protection != null && protection.isEntity()) {
             return protection;
         }
-        if (!protectionCache.isKnownNull(entity.getUniqueId())) {
-            protection = physicalDatabase.loadProtection(entity, false);
-            if (protection != null) {
+        // known nulls cover the legacy lookup as well, it is always done right after the first miss
+        if (protectionCache.isKnownNull(entity.getUniqueId())) {
+            return null;
+        }
+
+        int storedId = persistentProtectionIds.get(entity);
+        if (storedId == PersistentProtectionIds.NOT_PROTECTED) {
+            protectionCache.addKnownNull(entity.getUniqueId());
+            return null;
+        }
+        if (storedId > 0) {
+            protection = physicalDatabase.loadProtection(storedId);
+            if (protection != null && entity.getUniqueId().equals(protection.getEntityId())) {
                 return protection;
             }
         }
 
+        protection = loadProtection(entity);
+        persistentProtectionIds.set(entity, protection);
+        return protection;
+    }
+
+    /**
+     * Load the protection of an entity from the database, upgrading legacy protections
+     *
+     * @param entity
+     * @return
+     */
+    private Protection loadProtection(Entity entity) {
+        Protection protection = physicalDatabase.loadProtection(entity, false);
+        if (protection != null || legacyEntityMigration.getState() == LegacyEntityMigration.State.COMPLETE) {
+            return protection;
+        }
+
         // legacy
         int A = EntityBlock.POSITION_OFFSET + entity.getUniqueId().hashCode();
-        CacheKey cacheKey = ProtectionCache.cacheKey(entity.getWorld().getName(), A, A, A);
-        if (protectionCache.isKnownNull(cacheKey)) {
-            return null;
-        }
         protection = physicalDatabase.loadProtection(entity.getWorld().getName(), A, A, A);
-        if (protection == null) {
-            protectionCache.addKnownNull(cacheKey);
-            return null;
-        }
-        if (!protection.isEntity()) {
+        if (protection == null || !protection.isEntity()) {
             return null;
         }
         // upgrade legacy protection
@@ -1350,15 +1445,16 @@ public class LWC {
      * @return
      */
     public Protection findProtection(Location location) {
-        CacheKey cacheKey = ProtectionCache.cacheKey(location);
+        Protection protection = protectionCache.getProtection(location.getWorld().getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        if (protection != null) {
+            return protection;
+        }
 
-        if (protectionCache.isKnownNull(cacheKey)) {
+        if (protectionCache.isKnownNull(location.getWorld().getName(), location.getBlockX(), location.getBlockY(), location.getBlockZ())) {
             return null;
         }
 
-        Protection protection = protectionCache.getProtection(cacheKey);
-
-        return protection != null ? protection : findProtection(location.getBlock().getState());
+        return findProtection(location.getBlock().getState());
     }
 
     /**
@@ -1407,6 +1503,20 @@ public class LWC {
                     block.getX(), block.getY(), block.getZ());
         }
 
+        int storedId = persistentProtectionIds.get(block);
+        // a protection at the block itself is known by the cache even if the marker was not updated yet
+        if (storedId == PersistentProtectionIds.NOT_PROTECTED
+                && protectionCache.getPresence(block.getWorld().getName(), block.getX(), block.getY(), block.getZ()) != Presence.PRESENT) {
+            protectionCache.addKnownNull(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+            return null;
+        }
+        if (storedId > 0) {
+            Protection stored = physicalDatabase.loadProtection(storedId);
+            if (stored != null && persistentProtectionIds.isAt(stored, block)) {
+                return stored;
+            }
+        }
+
         // Create a protection finder
         ProtectionFinder finder = new ProtectionFinder(this);
 
@@ -1421,13 +1531,155 @@ public class LWC {
         }
 
         if (found == null) {
-            protectionCache.addKnownNull(ProtectionCache.cacheKey(block
-                    .getLocation()));
+            protectionCache.addKnownNull(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
         }
+        persistentProtectionIds.set(block, found);
 
         return found;
     }
 
+    /**
+     * Find a protection linked to the block without waiting for the database on the main thread. Must be called on
+     * the main thread.
+     *
+     * @param block
+     * @return a future completed on the main thread, immediately if the protections of the chunk are known
+     */
+    public CompletableFuture<Protection> findProtectionAsync(Block block) {
+        String world = block.getWorld().getName();
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+
+        Protection protection = protectionCache.getProtection(world, x, y, z);
+        if (protection != null) {
+            return CompletableFuture.completedFuture(protection);
+        }
+
+        // if the protections of the chunk are known, no database query is needed
+        if (protectionCache.getPresence(world, x, y, z) != Presence.UNKNOWN || protectionCache.isKnownNull(world, x, y, z) || physicalDatabase.hasAllProtectionsCached()) {
+            return CompletableFuture.completedFuture(findProtection(block));
+        }
+
+        return chunkPrefetcher.fetch(world, x >> 4, z >> 4).thenApply(unused -> findProtection(block));
+    }
+
+    /**
+     * Find a protection linked to the location without waiting for the database on the main thread. Must be called
+     * on the main thread.
+     *
+     * @param location
+     * @return a future completed on the main thread
+     */
+    public CompletableFuture<Protection> findProtectionAsync(Location location) {
+        return findProtectionAsync(location.getBlock());
+    }
+
+    /**
+     * Find a protection linked to the entity without waiting for the database on the main thread. Must be called on
+     * the main thread.
+     *
+     * @param entity
+     * @return a future completed on the main thread, immediately if the protection is cached
+     */
+    public CompletableFuture<Protection> findProtectionAsync(Entity entity) {
+        Protection protection = protectionCache.getProtection(entity);
+        if (protection != null && protection.isEntity()) {
+            return CompletableFuture.completedFuture(protection);
+        }
+
+        UUID entityId = entity.getUniqueId();
+        if (protectionCache.isKnownNull(entityId) || physicalDatabase.hasAllProtectionsCached()) {
+            return CompletableFuture.completedFuture(findProtection(entity));
+        }
+
+        String world = entity.getWorld().getName();
+        int legacy = EntityBlock.POSITION_OFFSET + entityId.hashCode();
+        boolean legacyLookup = legacyEntityMigration.getState() != LegacyEntityMigration.State.COMPLETE;
+        return loadAsync(() -> {
+            Protection found = physicalDatabase.queryProtection(entityId);
+            return found != null || !legacyLookup ? found : physicalDatabase.queryProtection(world, legacy, legacy, legacy);
+        }, found -> {
+            if (found == null) {
+                protectionCache.addKnownNull(entityId);
+                return null;
+            }
+            cacheLoadedProtection(found);
+            return findProtection(entity);
+        }, () -> findProtection(entity));
+    }
+
+    /**
+     * Load a protection by its id without waiting for the database on the main thread. Must be called on the main
+     * thread.
+     *
+     * @param protectionId
+     * @return a future completed on the main thread, immediately if the protection is cached
+     */
+    public CompletableFuture<Protection> loadProtectionAsync(int protectionId) {
+        Protection protection = protectionCache.getProtectionById(protectionId);
+        if (protection != null) {
+            return CompletableFuture.completedFuture(protection);
+        }
+
+        return loadAsync(() -> physicalDatabase.queryProtection(protectionId), found -> found == null ? null : cacheLoadedProtection(found), () -> physicalDatabase.loadProtection(protectionId));
+    }
+
+    /**
+     * Run a database query on the database executor and handle its result on the main thread
+     *
+     * @param query
+     *            runs on the database executor and must not use the cache
+     * @param apply
+     *            handles the result on the main thread
+     * @param fallback
+     *            used instead of apply if protections were removed from the cache while the query was running, as
+     *            the result might be outdated
+     * @return a future completed on the main thread
+     */
+    private <T> CompletableFuture<Protection> loadAsync(Supplier<T> query, Function<T, Protection> apply, Supplier<Protection> fallback) {
+        CompletableFuture<Protection> future = new CompletableFuture<>();
+        int invalidations = protectionCache.getInvalidations();
+        databaseExecutor.execute(() -> {
+            T result;
+            try {
+                result = query.get();
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Exception while loading a protection", e);
+                if (ENABLED) {
+                    Bukkit.getScheduler().runTask(plugin, () -> future.completeExceptionally(e));
+                }
+                return;
+            }
+
+            if (ENABLED) {
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    try {
+                        future.complete(protectionCache.getInvalidations() == invalidations ? apply.apply(result) : fallback.get());
+                    } catch (RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Add a protection loaded by an async query to the cache, unless another instance is cached already
+     *
+     * @param protection
+     * @return the cached instance
+     */
+    private Protection cacheLoadedProtection(Protection protection) {
+        Protection cached = protectionCache.peekProtectionById(protection.getId());
+        if (cached != null) {
+            return cached;
+        }
+        protectionCache.addProtection(protection);
+        return protection;
+    }
+
     public void closeInventoryForUnauthorizedViewers(Protection protection) {
         if (protection == null) {
             return;
@@ -1755,6 +2007,7 @@ public class LWC {
     public void load() {
         loadMaterialTags();
         configuration = Configuration.load("core.yml");
+        lastAccessedResolution = configuration.getInt("core.lastAccessedResolution", 60);
         registerCoreModules();
 
         // check for upgrade before everything else
@@ -1786,6 +2039,7 @@ public class LWC {
                 return;
             }
             physicalDatabase.load();
+            sqliteMaintenance.convertIfScheduled();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -1796,9 +2050,28 @@ public class LWC {
         preloadProtectables();
         BlockMap.instance().init();
 
+        persistentProtectionIds.load();
+
         // precache protections
         physicalDatabase.precache();
 
+        databaseThread.start();
+        sqliteMaintenance.start();
+        changeLog.start();
+        legacyEntityMigration.load();
+
+        // chunks loaded before LWC was enabled did not fire a load event
+        for (World world : Bukkit.getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                protectionCache.chunkLoaded(world.getName(), chunk.getX(), chunk.getZ());
+            }
+        }
+
+        // the same for players that joined before
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            protectionCounts.loadAsync(player.getUniqueId().toString());
+        }
+
         // We are now done loading!
         moduleLoader.loadAll();
     }
@@ -1838,6 +2111,7 @@ public class LWC {
         // admin commands
         registerModule(new BaseAdminModule());
         registerModule(new AdminCache());
+        registerModule(new AdminDatabase());
         registerModule(new AdminTransfer());
         registerModule(new AdminCleanup());
         registerModule(new AdminClear());
@@ -2088,6 +2362,7 @@ public class LWC {
         plugin.loadLocales();
         protectionConfigurationCache.clear();
         Configuration.reload();
+        lastAccessedResolution = configuration.getInt("core.lastAccessedResolution", 60);
         preloadProtectables();
         moduleLoader.dispatchEvent(new LWCReloadEvent());
     }
@@ -2202,6 +2477,62 @@ public class LWC {
         return protectionCache;
     }
 
+    /**
+     * @return the chunk prefetcher
+     */
+    public ChunkPrefetcher getChunkPrefetcher() {
+        return chunkPrefetcher;
+    }
+
+    /**
+     * @return the protection ids stored in the persistent data of blocks and entities
+     */
+    public PersistentProtectionIds getPersistentProtectionIds() {
+        return persistentProtectionIds;
+    }
+
+    /**
+     * @return the protection counts used for limits
+     */
+    public ProtectionCounts getProtectionCounts() {
+        return protectionCounts;
+    }
+
+    /**
+     * @return the thread writing saved protections to the database
+     */
+    public DatabaseThread getDatabaseThread() {
+        return databaseThread;
+    }
+
+    /**
+     * @return the background maintenance of SQLite databases
+     */
+    public SQLiteMaintenance getSQLiteMaintenance() {
+        return sqliteMaintenance;
+    }
+
+    /**
+     * @return the change log keeping the caches of servers sharing the database coherent
+     */
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * @return the migration of legacy entity protections
+     */
+    public LegacyEntityMigration getLegacyEntityMigration() {
+        return legacyEntityMigration;
+    }
+
+    /**
+     * @return the executor running the database queries of asynchronous lookups
+     */
+    public ExecutorService getDatabaseExecutor() {
+        return databaseExecutor;
+    }
+
     /**
      * @return the plugin version
      */
@@ -28,10 +28,7 @@
 
 package com.griefcraft.migration;
 
-import com.griefcraft.model.History;
-import com.griefcraft.model.Protection;
 import com.griefcraft.sql.PhysDB;
-import java.util.List;
 import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -57,12 +54,12 @@ public class DatabaseMigrator {
             int expectedProtections = protectionCount + startProtections;
 
             if (protectionCount > 0) {
-                List<Protection> tmp = fromDatabase.loadProtections();
-
-                for (Protection protection : tmp) {
-                    // sync it to the live database
+                // sync them to the live database
+                fromDatabase.forEachProtection(null, protection -> {
+                    // the rows do not exist in the live database yet, so they are written as a whole
+                    protection.setModified();
                     protection.saveNow();
-                }
+                });
 
                 if (expectedProtections != (protectionCount = fromDatabase.getProtectionCount())) {
                     logger.info("Weird, only " + protectionCount + " protections are in the database? Continuing...");
@@ -75,15 +72,13 @@ public class DatabaseMigrator {
             }
 
             if (historyCount > 0) {
-                List<History> tmp = fromDatabase.loadHistory();
-
-                for (History history : tmp) {
+                fromDatabase.forEachHistory(null, history -> {
                     // make sure it's assumed it does not exist in the database
                     history.setExists(false);
 
                     // sync the history object with the active database (ala MySQL)
                     history.sync();
-                }
+                });
             }
 
             fromDatabase.dispose();
@@ -29,12 +29,12 @@
 package com.griefcraft.model;
 
 import com.griefcraft.bukkit.EntityBlock;
-import com.griefcraft.cache.CacheKey;
 import com.griefcraft.cache.ProtectionCache;
 import com.griefcraft.cache.StringCache;
 import com.griefcraft.lwc.BlockMap;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.scripting.event.LWCProtectionRemovePostEvent;
+import com.griefcraft.sql.DatabaseThread;
 import com.griefcraft.util.Colors;
 import com.griefcraft.util.ProtectionFinder;
 import com.griefcraft.util.StringUtil;
@@ -128,6 +128,35 @@ public class Protection {
 
     }
 
+    /**
+     * The fields of a protection that are tracked, so only the modified columns have to be written
+     */
+    public enum Field {
+
+        OWNER, TYPE, DATA, PASSWORD, BLOCK_ID, WORLD, LOCATION, ENTITY_ID, CREATION, LAST_ACCESSED;
+
+        /**
+         * All fields, a protection with all of them modified is written as a whole row
+         */
+        public static final int ALL = (1 << values().length) - 1;
+
+        /**
+         * @return the bit of the field in a set of modified fields
+         */
+        public int bit() {
+            return 1 << ordinal();
+        }
+
+        /**
+         * @param fields
+         * @return true if the field is contained in the set of fields
+         */
+        public boolean isIn(int fields) {
+            return (fields & bit()) != 0;
+        }
+
+    }
+
     /**
      * All of the history items associated with this protection
      */
@@ -212,7 +241,7 @@ public class Protection {
      * Immutable flag for the protection. When removed, this bool is switched to true and any setters
      * will no longer work. However, everything is still intact and in memory at this point (for now.)
      */
-    private boolean removed = false;
+    private volatile boolean removed = false;
 
     /**
      * If the protection is pending removal. Only used internally.
@@ -220,9 +249,15 @@ public class Protection {
     private boolean removing = false;
 
     /**
-     * True when the protection has been modified and should be saved
+     * The fields that were modified since the protection was last written, 0 if it does not have to be saved
+     */
+    private int modifiedFields = 0;
+
+    /**
+     * The owner and block id the protection is counted with in the protection counts, null if it is not counted
      */
-    private boolean modified = false;
+    private String countedOwner;
+    private int countedBlockId;
 
     /**
      * The protection finder used to find this protection
@@ -234,8 +269,6 @@ public class Protection {
      */
     private Block cachedBlock;
 
-    private CacheKey cacheKey;
-
     private Material blockMaterial;
 
     private boolean isEntity;
@@ -298,7 +331,7 @@ public class Protection {
 
                     if (uuid != null) {
                         permission.setName(uuid.toString());
-                        modified = true;
+                        modifiedFields |= Field.DATA.bit();
                         res = true;
                     }
                 }
@@ -461,6 +494,13 @@ public class Protection {
         return flags != null ? flags.get(type) : null;
     }
 
+    /**
+     * @return the enabled flags
+     */
+    public List<Flag> getFlags() {
+        return flags == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(flags.values()));
+    }
+
     /**
      * Add a flag to the protection
      *
@@ -476,7 +516,7 @@ public class Protection {
         }
         if (!flags.containsKey(flag.getType())) {
             flags.put(flag.getType(), flag);
-            modified = true;
+            modifiedFields |= Field.DATA.bit();
             return true;
         }
 
@@ -498,7 +538,7 @@ public class Protection {
         if (flags.isEmpty()) {
             flags = null;
         }
-        this.modified = true;
+        modifiedFields |= Field.DATA.bit();
     }
 
     /**
@@ -526,6 +566,50 @@ public class Protection {
         return permissions == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(permissions));
     }
 
+    /**
+     * Estimate the memory used by the protection while it is cached, including its permissions, flags and the
+     * blocks matched by its finder
+     *
+     * @return the estimated size in bytes
+     */
+    public int estimateSize() {
+        int size = 256;
+        if (password != null) {
+            size += 40 + password.length() * 2;
+        }
+        if (legacyOwner != null) {
+            size += 40 + legacyOwner.length() * 2;
+        }
+        if (permissions != null) {
+            size += 64 + permissions.size() * 120;
+        }
+        if (flags != null) {
+            size += 64 + flags.size() * 96;
+        }
+        if (historyCache != null) {
+            size += 64 + historyCache.size() * 160;
+        }
+        if (finder != null) {
+            // the block states of the finder and their entries in the spatial index
+            size += 128 + finder.getBlocks().size() * 320;
+        }
+        return size;
+    }
+
+    /**
+     * @return true if the protection has temporary permissions, which are not stored in the database
+     */
+    public boolean hasTemporaryPermissions() {
+        if (permissions != null) {
+            for (Permission permission : permissions) {
+                if (permission.isVolatile()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Remove temporary permissions rights from the protection
      */
@@ -564,7 +648,7 @@ public class Protection {
             permissions = new HashSet<>();
         }
         permissions.add(permission);
-        modified = true;
+        modifiedFields |= Field.DATA.bit();
     }
 
     /**
@@ -585,7 +669,7 @@ public class Protection {
 
             if ((permission.getName().equals(name) || name.equals("*")) && permission.getType() == type) {
                 iter.remove();
-                modified = true;
+                modifiedFields |= Field.DATA.bit();
             }
         }
         if (permissions.isEmpty()) {
@@ -598,7 +682,7 @@ public class Protection {
      */
     public void removeAllPermissions() {
         permissions = null;
-        modified = true;
+        modifiedFields |= Field.DATA.bit();
     }
 
     /**
@@ -728,7 +812,7 @@ public class Protection {
         this.blockMaterial = material;
         this.isEntity = false;
         // this.blockId = blockId;
-        this.modified = true;
+        modifiedFields |= Field.BLOCK_ID.bit();
     }
 
     public void setPassword(String password) {
@@ -737,7 +821,7 @@ public class Protection {
         }
 
         this.password = password;
-        this.modified = true;
+        modifiedFields |= Field.PASSWORD.bit();
     }
 
     public void setCreation(String creation) {
@@ -746,7 +830,7 @@ public class Protection {
         }
 
         this.creation = Timestamp.valueOf(creation).getTime();
-        this.modified = true;
+        modifiedFields |= Field.CREATION.bit();
     }
 
     public void setId(int id) {
@@ -755,7 +839,7 @@ public class Protection {
         }
 
         this.id = id;
-        this.modified = true;
+        modifiedFields = Field.ALL;
     }
 
     public void setOwner(String owner) {
@@ -769,7 +853,7 @@ public class Protection {
             this.owner = null;
             this.legacyOwner = owner;
         }
-        this.modified = true;
+        modifiedFields |= Field.OWNER.bit();
     }
 
 
@@ -780,7 +864,7 @@ public class Protection {
 
         this.legacyOwner = null;
         this.owner = owner;
-        this.modified = true;
+        modifiedFields |= Field.OWNER.bit();
     }
 
     public void setType(Type type) {
@@ -789,7 +873,7 @@ public class Protection {
         }
 
         this.type = type;
-        this.modified = true;
+        modifiedFields |= Field.TYPE.bit();
     }
 
     public void setWorld(String world) {
@@ -798,8 +882,7 @@ public class Protection {
         }
 
         this.world = StringCache.intern(world);
-        this.modified = true;
-        this.cacheKey = null;
+        modifiedFields |= Field.WORLD.bit();
     }
 
     public void setX(int x) {
@@ -808,8 +891,7 @@ public class Protection {
         }
 
         this.x = x;
-        this.modified = true;
-        this.cacheKey = null;
+        modifiedFields |= Field.LOCATION.bit();
     }
 
     public void setY(int y) {
@@ -818,8 +900,7 @@ public class Protection {
         }
 
         this.y = y;
-        this.modified = true;
-        this.cacheKey = null;
+        modifiedFields |= Field.LOCATION.bit();
     }
 
     public void setZ(int z) {
@@ -828,8 +909,7 @@ public class Protection {
         }
 
         this.z = z;
-        this.modified = true;
-        this.cacheKey = null;
+        modifiedFields |= Field.LOCATION.bit();
     }
 
     public void setLastAccessed(long lastAccessed) {
@@ -838,7 +918,7 @@ public class Protection {
         }
 
         this.lastAccessed = lastAccessed;
-        this.modified = true;
+        modifiedFields |= Field.LAST_ACCESSED.bit();
     }
 
     /**
@@ -871,7 +951,7 @@ public class Protection {
         removeTemporaryPermissions();
 
         // we're removing it, so assume there are no changes
-        modified = false;
+        modifiedFields = 0;
         removing = true;
 
         // broadcast the removal event
@@ -894,8 +974,37 @@ public class Protection {
         removed = true;
 
         // and now finally remove it from the database
+        lwc.getDatabaseThread().removeProtection(this);
         lwc.getPhysicalDatabase().removeProtection(id);
         removeCache();
+        lwc.getPersistentProtectionIds().removed(this);
+
+        if (countedOwner != null) {
+            lwc.getProtectionCounts().add(countedOwner, countedBlockId, -1);
+            countedOwner = null;
+        }
+    }
+
+    /**
+     * Set the owner and block id the protection is counted with, which are the values stored in the database
+     *
+     * @param owner
+     * @param blockId
+     */
+    public void setCounted(String owner, int blockId) {
+        this.countedOwner = owner;
+        this.countedBlockId = blockId;
+    }
+
+    /**
+     * Move the protection in the protection counts if the owner or block id changed since it was counted
+     */
+    private void updateCounts() {
+        String owner = getOwner();
+        if (countedOwner != null && (!countedOwner.equals(owner) || countedBlockId != blockId)) {
+            LWC.getInstance().getProtectionCounts().move(countedOwner, countedBlockId, owner, blockId);
+        }
+        setCounted(owner, blockId);
     }
 
     /**
@@ -919,14 +1028,12 @@ public class Protection {
         for (int x = -3; x <= 3; x++) {
             for (int y = -3; y <= 3; y++) {
                 for (int z = -3; z <= 3; z++) {
-                    CacheKey cacheKey = ProtectionCache.cacheKey(world, this.x + x, this.y + y, this.z + z);
-
                     // get the protection for that entry
-                    Protection protection = cache.getProtection(cacheKey);
+                    Protection protection = cache.peekProtection(world, this.x + x, this.y + y, this.z + z);
 
                     // the ifnull compensates for the block being in the null cache. It will remove it from that.
                     if ((protection != null && id == protection.getId()) || protection == null) {
-                        cache.remove(cacheKey);
+                        cache.remove(world, this.x + x, this.y + y, this.z + z);
                     }
                 }
             }
@@ -941,15 +1048,39 @@ public class Protection {
             return;
         }
 
-        saveNow(); // LWC.getInstance().getDatabaseThread().addProtection(this);
+        DatabaseThread databaseThread = LWC.getInstance().getDatabaseThread();
+        if (!databaseThread.isQueueingProtections()) {
+            saveNow();
+            return;
+        }
+
+        // only queue the protection if it was modified
+        if (modifiedFields != 0 && !removing) {
+            updateCounts();
+            databaseThread.addProtection(this);
+
+            // the protection might have been moved to another block
+            if (entityId == null) {
+                LWC.getInstance().getProtectionCache().markPresent(world, x, y, z);
+            }
+        }
+
+        // check the cache for history updates
+        checkAndSaveHistory();
     }
 
+    /**
+     * Queue the last access time to be written in the next batch, without writing the other fields
+     */
     public void saveLastAccessed() {
         if (removed) {
             return;
         }
 
-        LWC.getInstance().getPhysicalDatabase().saveProtectionLastAccessed(this);
+        LWC.getInstance().getDatabaseThread().addLastAccessed(id, lastAccessed);
+
+        // the time is written by the database thread, an unrelated save must not write an older one
+        modifiedFields &= ~Field.LAST_ACCESSED.bit();
     }
 
     /**
@@ -961,7 +1092,8 @@ public class Protection {
         }
 
         // only save the protection if it was modified
-        if (modified && !removing) {
+        if (modifiedFields != 0 && !removing) {
+            updateCounts();
             LWC.getInstance().getPhysicalDatabase().saveProtection(this);
         }
 
@@ -985,18 +1117,6 @@ public class Protection {
         }
     }
 
-    /**
-     * @return the key used for the protection cache
-     */
-    public CacheKey getCacheKey() {
-        CacheKey cc = cacheKey;
-        if (cc == null) {
-            cc = ProtectionCache.cacheKey(world, x, y, z);
-            cacheKey = cc;
-        }
-        return cc;
-    }
-
     /**
      * @return the Bukkit world the protection should be located in
      */
@@ -1098,8 +1218,41 @@ public class Protection {
         return isEntity;
     }
 
+    /**
+     * @return true if the protection was removed from the database
+     */
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    /**
+     * Mark the whole protection as modified, for changes that are not made through its setters
+     */
     public void setModified() {
-        modified = true;
+        modifiedFields = Field.ALL;
+    }
+
+    /**
+     * @return the fields modified since the protection was last written, see {@link Field#bit()}
+     */
+    public int getModifiedFields() {
+        return modifiedFields;
+    }
+
+    /**
+     * Mark fields as modified again, for example after writing them failed
+     *
+     * @param fields
+     */
+    public void addModifiedFields(int fields) {
+        modifiedFields |= fields;
+    }
+
+    /**
+     * Mark the protection as unmodified after it was loaded or written
+     */
+    public void clearModifiedFields() {
+        modifiedFields = 0;
     }
 
     public void setEntityId(UUID entityId) {
@@ -1107,7 +1260,7 @@ public class Protection {
         if(this.entityId != null) {
             this.isEntity = true;
         }
-        modified = true;
+        modifiedFields |= Field.ENTITY_ID.bit();
     }
 
     public UUID getEntityId() {
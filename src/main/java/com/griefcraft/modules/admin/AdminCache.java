@@ -68,9 +68,10 @@ public class AdminCache extends JavaModule {
             }
         } else {
             int size = cache.size();
-            int capacity = cache.capacity();
+            long usage = cache.getMemoryUsage() / 1048576;
+            long budget = cache.getMemoryBudget() / 1048576;
 
-            sender.sendMessage(Colors.Green + size + Colors.Yellow + "/" + Colors.Green + capacity);
+            sender.sendMessage(Colors.Green + size + Colors.Yellow + " protections, " + Colors.Green + usage + Colors.Yellow + "/" + Colors.Green + budget + Colors.Yellow + " MB");
         }
     }
 
@@ -36,9 +36,9 @@ import com.griefcraft.scripting.event.LWCCommandEvent;
 import com.griefcraft.util.Colors;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 import org.bukkit.Bukkit;
@@ -97,6 +97,13 @@ public class AdminCleanup extends JavaModule {
         private CommandSender sender;
         private boolean silent;
 
+        private final ArrayDeque<Integer> protectionsToRemove = new ArrayDeque<>();
+        private final ArrayDeque<ProtectionAndMaterial> protectionsToSave = new ArrayDeque<>();
+        private int totalProtections;
+        private int checked = 0;
+        private int removed = 0;
+        private int percentChecked = 0;
+
         public Admin_Cleanup_Thread(LWC lwc, CommandSender sender, boolean silent) {
             this.lwc = lwc;
             this.sender = sender;
@@ -105,11 +112,6 @@ public class AdminCleanup extends JavaModule {
 
         @Override
         public void run() {
-            ArrayDeque<Integer> protectionsToRemove = new ArrayDeque<>();
-            ArrayDeque<ProtectionAndMaterial> protectionsToSave = new ArrayDeque<>();
-            int removed = 0;
-            int percentChecked = 0;
-
             try {
                 sender.sendMessage(Colors.Red + "Processing cleanup request now in a separate thread");
 
@@ -117,73 +119,17 @@ public class AdminCleanup extends JavaModule {
                 // so we can more than 20 results/second.
                 final List<Protection> protections = new ArrayList<>(BATCH_SIZE);
 
-                List<Protection> allProtections = lwc.getPhysicalDatabase().loadProtectionsOrderedByChunk();
-                Iterator<Protection> allProtectionIterator = allProtections.iterator();
-
                 // amount of protections
-                int totalProtections = allProtections.size();
-                int checked = 0;
-                while (allProtectionIterator.hasNext()) {
-                    while (Runtime.getRuntime().maxMemory() * 100 / (Runtime.getRuntime().freeMemory() + Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory()) < 5) {
-                        Thread.sleep(5000);
-                    }
-                    while (allProtectionIterator.hasNext() && protections.size() < BATCH_SIZE) {
-                        // Wait until we have BATCH_SIZE protections
-                        protections.add(allProtectionIterator.next());
-                    }
+                totalProtections = lwc.getPhysicalDatabase().getProtectionCount();
 
-                    // Check the blocks
-                    Future<ArrayList<Integer>> getBlocks = Bukkit.getScheduler().callSyncMethod(lwc.getPlugin(), new Callable<ArrayList<Integer>>() {
-                        @Override
-                        public ArrayList<Integer> call() throws Exception {
-                            ArrayList<Integer> toRemove = null;
-                            for (Protection protection : protections) {
-                                protection.uncacheBlock();
-                                Block block = protection.getBlock(); // load the block
-
-                                if (protection.isEntity() || protection.getEntityId() != null || protection.getBlockId() == EntityBlock.ENTITY_BLOCK_ID) {
-                                    // entity cleanup?
-                                } else {
-                                    // remove protections not found in the world
-                                    if (block == null || !lwc.isProtectable(block)) {
-                                        if (toRemove == null) {
-                                            toRemove = new ArrayList<>();
-                                        }
-                                        toRemove.add(protection.getId());
-
-                                        if (!silent) {
-                                            lwc.sendLocale(sender, "protection.admin.cleanup.removednoexist", "protection", protection.toString());
-                                        }
-                                    } else if (protection.getBlockMaterial() != block.getType()) {
-                                        protectionsToSave.addLast(new ProtectionAndMaterial(protection, block.getType()));
-                                        lwc.log("Updating material to " + block.getType() + " for block at " + block.getX() + "," + block.getY() + "," + block.getZ());
-                                    }
-                                }
-                            }
-
-                            return toRemove;
-                        }
-                    });
-
-                    // Get all of the blocks
-                    ArrayList<Integer> newToRemove = getBlocks.get();
-                    if (newToRemove != null) {
-                        protectionsToRemove.addAll(newToRemove);
-                        removed += newToRemove.size();
+                // the protections are streamed from the database, so only one batch is kept in memory
+                lwc.getPhysicalDatabase().forEachProtectionOrderedByChunk(null, protection -> {
+                    protections.add(protection);
+                    if (protections.size() >= BATCH_SIZE) {
+                        checkProtections(protections);
                     }
-                    checked += protections.size();
-
-                    // percentage dump
-                    int percent = (int) ((((double) checked) / totalProtections) * 20);
-
-                    if (percentChecked != percent) {
-                        percentChecked = percent;
-                        sender.sendMessage(Colors.Red + "Cleanup @ " + (percent * 5) + "% [ " + checked + "/" + totalProtections + " protections ] [ removed " + removed + " protections ]");
-                    }
-
-                    // Clear the protection set, we are done with them
-                    protections.clear();
-                }
+                });
+                checkProtections(protections);
 
                 // flush deleted protections
                 final int totalToRemove = protectionsToRemove.size();
@@ -249,6 +195,77 @@ public class AdminCleanup extends JavaModule {
                 lwc.getPlugin().getLogger().log(Level.SEVERE, "Exception caught during cleanup", e);
             }
         }
+
+        /**
+         * Check a batch of protections on the main thread and clear it
+         *
+         * @param protections
+         */
+        private void checkProtections(List<Protection> protections) {
+            if (protections.isEmpty()) {
+                return;
+            }
+
+            // Check the blocks
+            Future<ArrayList<Integer>> getBlocks = Bukkit.getScheduler().callSyncMethod(lwc.getPlugin(), new Callable<ArrayList<Integer>>() {
+                @Override
+                public ArrayList<Integer> call() throws Exception {
+                    ArrayList<Integer> toRemove = null;
+                    for (Protection protection : protections) {
+                        protection.uncacheBlock();
+                        Block block = protection.getBlock(); // load the block
+
+                        if (protection.isEntity() || protection.getEntityId() != null || protection.getBlockId() == EntityBlock.ENTITY_BLOCK_ID) {
+                            // entity cleanup?
+                        } else {
+                            // remove protections not found in the world
+                            if (block == null || !lwc.isProtectable(block)) {
+                                if (toRemove == null) {
+                                    toRemove = new ArrayList<>();
+                                }
+                                toRemove.add(protection.getId());
+
+                                if (!silent) {
+                                    lwc.sendLocale(sender, "protection.admin.cleanup.removednoexist", "protection", protection.toString());
+                                }
+                            } else if (protection.getBlockMaterial() != block.getType()) {
+                                protectionsToSave.addLast(new ProtectionAndMaterial(protection, block.getType()));
+                                lwc.log("Updating material to " + block.getType() + " for block at " + block.getX() + "," + block.getY() + "," + block.getZ());
+                            }
+                        }
+                    }
+
+                    return toRemove;
+                }
+            });
+
+            // Get all of the blocks
+            ArrayList<Integer> newToRemove;
+            try {
+                newToRemove = getBlocks.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while checking protections", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Could not check protections", e.getCause());
+            }
+            if (newToRemove != null) {
+                protectionsToRemove.addAll(newToRemove);
+                removed += newToRemove.size();
+            }
+            checked += protections.size();
+
+            // percentage dump
+            int percent = (int) ((((double) checked) / totalProtections) * 20);
+
+            if (percentChecked != percent) {
+                percentChecked = percent;
+                sender.sendMessage(Colors.Red + "Cleanup @ " + (percent * 5) + "% [ " + checked + "/" + totalProtections + " protections ] [ removed " + removed + " protections ]");
+            }
+
+            // Clear the protection set, we are done with them
+            protections.clear();
+        }
     }
 
     private static class ProtectionAndMaterial {
@@ -64,6 +64,7 @@ public class AdminClear extends JavaModule {
         String toClear = args[1].toLowerCase();
 
         if (toClear.equals("protections")) {
+            lwc.getDatabaseThread().discardAll();
             lwc.getPhysicalDatabase().removeAllProtections();
         }
 
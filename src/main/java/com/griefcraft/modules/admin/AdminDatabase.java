@@ -0,0 +1,52 @@
+package com.griefcraft.modules.admin;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.scripting.JavaModule;
+import com.griefcraft.scripting.event.LWCCommandEvent;
+import com.griefcraft.sql.LegacyEntityMigration;
+import org.bukkit.command.CommandSender;
+
+public class AdminDatabase extends JavaModule {
+
+    @Override
+    public void onCommand(LWCCommandEvent event) {
+        if (event.isCancelled()) {
+            return;
+        }
+
+        if (!event.hasFlag("a", "admin")) {
+            return;
+        }
+
+        LWC lwc = event.getLWC();
+        CommandSender sender = event.getSender();
+        String[] args = event.getArgs();
+
+        if (!args[0].equals("db")) {
+            return;
+        }
+
+        // we have the right command
+        event.setCancelled(true);
+
+        if (args.length > 1 && args[1].equalsIgnoreCase("vacuum")) {
+            boolean full = args.length > 2 && args[2].equalsIgnoreCase("full");
+            lwc.getSQLiteMaintenance().vacuum(sender, full);
+            return;
+        }
+
+        if (args.length > 2 && args[1].equalsIgnoreCase("legacyentities")) {
+            LegacyEntityMigration migration = lwc.getLegacyEntityMigration();
+            switch (args[2].toLowerCase()) {
+                case "start" -> migration.start(sender);
+                case "status" -> migration.sendStatus(sender);
+                case "finish" -> migration.finish(sender);
+                default -> lwc.sendSimpleUsage(sender, "/lwc admin db legacyentities <start|status|finish>");
+            }
+            return;
+        }
+
+        lwc.sendSimpleUsage(sender, "/lwc admin db <vacuum [full]|legacyentities <start|status|finish>>");
+    }
+
+}
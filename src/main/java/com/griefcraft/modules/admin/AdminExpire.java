@@ -74,6 +74,9 @@ public class AdminExpire extends JavaModule {
 
         int threshold = (int) ((System.currentTimeMillis() / 1000L) - time);
 
+        // the last access times are only written periodically
+        lwc.getDatabaseThread().writeLastAccessedNow();
+
         // remove the protections
         int completed = lwc.fastRemoveProtections(sender, "last_accessed <= " + threshold + " AND last_accessed >= 0", shouldRemoveBlocks);
 
@@ -32,7 +32,9 @@ import com.griefcraft.lwc.LWC;
 import com.griefcraft.model.Protection;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
+import com.griefcraft.util.UUIDRegistry;
 import java.util.List;
+import java.util.UUID;
 import org.bukkit.command.CommandSender;
 
 public class AdminFind extends JavaModule {
@@ -79,14 +81,15 @@ public class AdminFind extends JavaModule {
 
         int start = (page - 1) * perPage;
 
+        UUID uuid = UUIDRegistry.getUUID(player);
         List<Protection> protections = lwc.getPhysicalDatabase().loadProtectionsByPlayer(player, start, perPage);
-        int results = lwc.getPhysicalDatabase().getProtectionCount(player);
+        int results = lwc.getProtectionCounts().getProtectionCount(uuid != null ? uuid.toString() : player);
         int max = protections.size(); // may not be the full perPage
         int ceil = start + max;
 
         lwc.sendLocale(sender, "protection.find.currentpage", "page", page);
 
-        if (results != max) {
+        if (ceil < results) {
             lwc.sendLocale(sender, "protection.find.nextpage", "player", player, "page", page + 1);
         }
 
@@ -117,11 +117,15 @@ public class AdminForceOwner extends JavaModule {
 
         // did they provide an ID?
         if (args.length > 2) {
+            int protectionId;
             try {
-                int protectionId = Integer.parseInt(args[2]);
-
-                Protection protection = lwc.getPhysicalDatabase().loadProtection(protectionId);
+                protectionId = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                lwc.sendLocale(sender, "lwc.invalidprotectionid");
+                return;
+            }
 
+            lwc.loadProtectionAsync(protectionId).thenAccept(protection -> {
                 // No protection found
                 if (protection == null) {
                     lwc.sendLocale(sender, "lwc.protectionnotfound");
@@ -139,11 +143,8 @@ public class AdminForceOwner extends JavaModule {
                 protection.save();
 
                 lwc.sendLocale(sender, "protection.interact.forceowner.finalize", "player", UUIDRegistry.formatPlayerName(newOwner));
-                return;
-            } catch (NumberFormatException e) {
-                lwc.sendLocale(sender, "lwc.invalidprotectionid");
-                return;
-            }
+            });
+            return;
         }
 
         if (!(sender instanceof Player)) {
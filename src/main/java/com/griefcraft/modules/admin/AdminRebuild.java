@@ -34,8 +34,6 @@ import com.griefcraft.model.Protection;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
 import com.griefcraft.util.Colors;
-import java.util.Iterator;
-import java.util.List;
 import org.bukkit.Bukkit;
 import org.bukkit.Server;
 import org.bukkit.World;
@@ -87,88 +85,88 @@ public class AdminRebuild extends JavaModule {
         LWC lwc = LWC.getInstance();
         sender.sendMessage("Now rebuilding the LWC database.");
 
-        // Get all of the currently active history objects
         lwc.getProtectionCache().clear();
-        List<History> fullHistory = lwc.getPhysicalDatabase().loadHistory(History.Status.ACTIVE);
-
-        sender.sendMessage("Loaded " + fullHistory.size() + " history objects");
 
         // Our start time
         long start = System.currentTimeMillis();
 
-        // The amount of protections we created
-        int created = 0;
-
-        // The amount of protections we failed to create
-        int failed = 0;
+        // The amount of protections we created and failed to create
+        int[] results = new int[2];
 
-        Iterator<History> iter = fullHistory.iterator();
-        while (iter.hasNext()) {
-            History history = iter.next();
-
-            // Is it active?
-            if (history.getProtection() != null) {
-                iter.remove();
-                continue;
+        // Go through all of the currently active history objects, they are streamed from the database
+        lwc.getPhysicalDatabase().forEachHistory("status = " + History.Status.ACTIVE.ordinal(), history -> {
+            Boolean rebuilt = rebuildProtection(sender, history);
+            if (rebuilt != null) {
+                results[rebuilt ? 0 : 1]++;
             }
+        });
 
-            // Coordinates
-            int x = history.getX();
-            int y = history.getY();
-            int z = history.getZ();
+        int created = results[0];
+        int failed = results[1];
+        int total = created + failed; // the total amount of history objects operated on
+        long runningTime = System.currentTimeMillis() - start;
+        int runningTimeSeconds = (int) runningTime / 1000;
+        float ratio = ((float) created / (total)) * 100;
+        sender.sendMessage(String.format("LWC rebuild complete (%ds). %.2f%% conversion ratio; %d success and %d failures", runningTimeSeconds, ratio, created, failed));
+    }
 
-            // Very old history object
-            if (x == 0 && y == 0 && z == 0) {
-                iter.remove();
-                continue;
-            }
+    /**
+     * Rebuild the protection a history object was created for
+     *
+     * @param sender
+     * @param history
+     * @return true if the protection was created, false if it failed and null if the history object was skipped
+     */
+    private Boolean rebuildProtection(CommandSender sender, History history) {
+        LWC lwc = LWC.getInstance();
 
-            // Protection's creator
-            String creator = history.getString("creator");
+        // Is it active?
+        if (history.getProtection() != null) {
+            return null;
+        }
 
-            if (creator == null) {
-                sender.sendMessage(String.format("Unable to match owner at Id:%d", history.getId()));
-                failed++;
-                iter.remove();
-                continue;
-            }
+        // Coordinates
+        int x = history.getX();
+        int y = history.getY();
+        int z = history.getZ();
 
-            // Bruteforce that shit, yo
-            Block block = findProtectableBlock(x, y, z);
+        // Very old history object
+        if (x == 0 && y == 0 && z == 0) {
+            return null;
+        }
 
-            if (block == null) {
-                sender.sendMessage(String.format("Unable to match block at Id:%d [%d, %d, %d] (this is probably OK)", history.getId(), x, y, z));
-                failed++;
-                iter.remove();
-                continue;
-            }
+        // Protection's creator
+        String creator = history.getString("creator");
 
-            // Create the protection!
-            Protection protection = lwc.getPhysicalDatabase().registerProtection(block.getType(), Protection.Type.PRIVATE,
-                    block.getWorld().getName(), creator, "", x, y, z);
+        if (creator == null) {
+            sender.sendMessage(String.format("Unable to match owner at Id:%d", history.getId()));
+            return false;
+        }
 
-            if (protection == null) {
-                sender.sendMessage(String.format("Failed to create protection at Id:%d", history.getId()));
-                failed++;
-                iter.remove();
-                continue;
-            }
+        // Bruteforce that shit, yo
+        Block block = findProtectableBlock(x, y, z);
+
+        if (block == null) {
+            sender.sendMessage(String.format("Unable to match block at Id:%d [%d, %d, %d] (this is probably OK)", history.getId(), x, y, z));
+            return false;
+        }
 
-            // Hell yeah
-            created++;
-            history.remove();
-            protection.saveNow();
-            iter.remove();
+        // Create the protection!
+        Protection protection = lwc.getPhysicalDatabase().registerProtection(block.getType(), Protection.Type.PRIVATE,
+                block.getWorld().getName(), creator, "", x, y, z);
 
-            // Clean up the cache, we want to conserve as much memory as possible at this time
-            lwc.getProtectionCache().clear();
+        if (protection == null) {
+            sender.sendMessage(String.format("Failed to create protection at Id:%d", history.getId()));
+            return false;
         }
 
-        int total = created + failed; // the total amount of history objects operated on
-        long runningTime = System.currentTimeMillis() - start;
-        int runningTimeSeconds = (int) runningTime / 1000;
-        float ratio = ((float) created / (total)) * 100;
-        sender.sendMessage(String.format("LWC rebuild complete (%ds). %.2f%% conversion ratio; %d success and %d failures", runningTimeSeconds, ratio, created, failed));
+        // Hell yeah
+        history.remove();
+        protection.saveNow();
+
+        // Clean up the cache, we want to conserve as much memory as possible at this time
+        lwc.getProtectionCache().clear();
+        return true;
     }
 
     /**
@@ -80,9 +80,6 @@ public class AdminTransfer extends JavaModule {
         // Transfer all of them
         int changed = lwc.transferProtectionsOfPlayer(sender, oldplayer, newplayerid);
         lwc.sendLocale(sender, "protection.admin.transfer.finalize", "oldplayer", oldplayer, "newplayer", newplayer, "changed", changed);
-
-        // reload the cache!
-        LWC.getInstance().getPhysicalDatabase().precache();
     }
 
 }
\ No newline at end of file
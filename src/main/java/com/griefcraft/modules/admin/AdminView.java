@@ -1,7 +1,6 @@
 package com.griefcraft.modules.admin;
 
 import com.griefcraft.lwc.LWC;
-import com.griefcraft.model.Protection;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
 import org.bukkit.World;
@@ -64,23 +63,27 @@ public class AdminView extends JavaModule {
         }
 
         int protectionId = Integer.parseInt(args[1]);
-        Protection protection = lwc.getPhysicalDatabase().loadProtection(protectionId);
+        lwc.loadProtectionAsync(protectionId).thenAccept(protection -> {
+            if (protection == null) {
+                lwc.sendLocale(sender, "protection.admin.view.noexist");
+                return;
+            }
 
-        if (protection == null) {
-            lwc.sendLocale(sender, "protection.admin.view.noexist");
-            return;
-        }
+            if (!player.isOnline()) {
+                return;
+            }
 
-        Block block = world.getBlockAt(protection.getX(), protection.getY(), protection.getZ());
+            Block block = world.getBlockAt(protection.getX(), protection.getY(), protection.getZ());
 
-        if (!(block.getState() instanceof InventoryHolder)) {
-            lwc.sendLocale(sender, "protection.admin.view.noinventory");
-            return;
-        }
+            if (!(block.getState() instanceof InventoryHolder)) {
+                lwc.sendLocale(sender, "protection.admin.view.noinventory");
+                return;
+            }
 
-        player.openInventory(((InventoryHolder) block.getState()).getInventory());
+            player.openInventory(((InventoryHolder) block.getState()).getInventory());
 
-        lwc.sendLocale(sender, "protection.admin.view.viewing", "id", protectionId);
+            lwc.sendLocale(sender, "protection.admin.view.viewing", "id", protectionId);
+        });
     }
 
 }
@@ -28,6 +28,7 @@
 
 package com.griefcraft.modules.limits;
 
+import com.griefcraft.lwc.BlockMap;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCProtectionRegisterEvent;
@@ -139,11 +140,11 @@ public class LimitsModule extends JavaModule {
 
         switch (type) {
             case CUSTOM:
-                protections = lwc.getPhysicalDatabase().getProtectionCount(player.getName(), block.getType());
+                protections = lwc.getProtectionCounts().getProtectionCount(player.getUniqueId().toString(), BlockMap.instance().getId(block.getType()));
                 break;
 
             case DEFAULT:
-                protections = lwc.getPhysicalDatabase().getProtectionCount(player.getName());
+                protections = lwc.getProtectionCounts().getProtectionCount(player.getUniqueId().toString());
                 break;
 
             default:
@@ -28,6 +28,8 @@
 
 package com.griefcraft.modules.limits;
 
+import com.griefcraft.cache.ProtectionCounts;
+import com.griefcraft.lwc.BlockMap;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
@@ -124,7 +126,7 @@ public class LimitsV2 extends JavaModule {
 
         @Override
         public int getProtectionCount(Player player, Material material) {
-            return LWC.getInstance().getPhysicalDatabase().getProtectionCount(player.getName());
+            return LWC.getInstance().getProtectionCounts().getProtectionCount(player.getUniqueId().toString());
         }
 
     }
@@ -143,7 +145,7 @@ public class LimitsV2 extends JavaModule {
 
         @Override
         public int getProtectionCount(Player player, Material material) {
-            return LWC.getInstance().getPhysicalDatabase().getProtectionCount(player.getName(), material);
+            return LWC.getInstance().getProtectionCounts().getProtectionCount(player.getUniqueId().toString(), BlockMap.instance().getId(material));
         }
 
         /**
@@ -163,10 +165,11 @@ public class LimitsV2 extends JavaModule {
 
         @Override
         public int getProtectionCount(Player player, Material material) {
-            LWC lwc = LWC.getInstance();
+            ProtectionCounts counts = LWC.getInstance().getProtectionCounts();
+            String owner = player.getUniqueId().toString();
             int count = 0;
             for (Material m : SIGNS) {
-                count += lwc.getPhysicalDatabase().getProtectionCount(player.getName(), m);
+                count += counts.getProtectionCount(owner, BlockMap.instance().getId(m));
             }
             return count;
         }
@@ -0,0 +1,264 @@
+package com.griefcraft.sql;
+
+import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.cache.ProtectionCounts;
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Keeps the caches of several servers sharing one database coherent. Every register, save and remove of a
+ * protection is recorded in the protection_changes table within the transaction writing it, and every server polls
+ * the table for the changes of the others to drop exactly the affected protections from its caches.
+ * <p>
+ * The ids of the table are assigned when a change is inserted, but transactions can commit out of order. Ids that
+ * are skipped while reading are therefore read again until they show up or are old enough to belong to a
+ * transaction that was rolled back.
+ */
+public class ChangeLog {
+
+    /**
+     * The kinds of changes, stored as their ordinal
+     */
+    public enum Operation {
+        REGISTER, SAVE, REMOVE,
+
+        /**
+         * Protections were changed in bulk, the whole cache is dropped
+         */
+        CLEAR
+    }
+
+    /**
+     * An entry of the change log. The world is null for entity protections and bulk changes.
+     */
+    record Change(long id, long server, Operation operation, int protectionId, String world, int x, int y, int z, UUID entityId, String owner) {
+    }
+
+    /**
+     * Identifies the changes written by this server, which do not have to be applied again
+     */
+    static final long SERVER_ID = new SecureRandom().nextLong();
+
+    /**
+     * The maximum amount of changes read at once
+     */
+    private static final int POLL_LIMIT = 1000;
+
+    /**
+     * How long a skipped id is read again before it is given up (in milliseconds)
+     */
+    private static final long GAP_TIMEOUT = 10000;
+
+    /**
+     * The maximum amount of skipped ids that are read again
+     */
+    private static final int MAX_GAPS = 1000;
+
+    /**
+     * The LWC instance
+     */
+    private final LWC lwc;
+
+    /**
+     * If a poll is running
+     */
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+    /**
+     * The skipped ids and when they were skipped, only used by the running poll
+     */
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+
+    /**
+     * The highest id that was read, only used by the running poll
+     */
+    private long lastId;
+
+    private BukkitTask pollTask;
+    private BukkitTask pruneTask;
+
+    public ChangeLog(LWC lwc) {
+        this.lwc = lwc;
+    }
+
+    /**
+     * Start polling the change log, if it is enabled. Changes written before are not applied, as the caches start
+     * empty.
+     */
+    public void start() {
+        if (!lwc.getConfiguration().getBoolean("database.changeLog.enabled", false)) {
+            return;
+        }
+
+        PhysDB database = lwc.getPhysicalDatabase();
+        lastId = database.loadLastChangeId();
+        gaps.clear();
+
+        long pollInterval = Math.max(1, lwc.getConfiguration().getInt("database.changeLog.pollInterval", 20));
+        pollTask = Bukkit.getScheduler().runTaskTimer(lwc.getPlugin(), this::poll, pollInterval, pollInterval);
+
+        long retention = Math.max(1, lwc.getConfiguration().getInt("database.changeLog.retention", 60)) * 60L;
+        long pruneInterval = 5 * 60 * 20L;
+        pruneTask = Bukkit.getScheduler().runTaskTimer(lwc.getPlugin(), () -> lwc.getDatabaseExecutor().execute(() -> {
+            try {
+                database.pruneChanges(System.currentTimeMillis() / 1000L - retention);
+            } catch (RuntimeException e) {
+                lwc.getPlugin().getLogger().log(Level.WARNING, "Could not prune the change log", e);
+            }
+        }), pruneInterval, pruneInterval);
+    }
+
+    /**
+     * Stop polling the change log
+     */
+    public void stop() {
+        if (pollTask != null) {
+            pollTask.cancel();
+            pollTask = null;
+        }
+        if (pruneTask != null) {
+            pruneTask.cancel();
+            pruneTask = null;
+        }
+    }
+
+    /**
+     * Read the new changes on the database executor and apply them on the main thread
+     */
+    private void poll() {
+        if (!LWC.ENABLED || !polling.compareAndSet(false, true)) {
+            return;
+        }
+
+        PhysDB database = lwc.getPhysicalDatabase();
+        lwc.getDatabaseExecutor().execute(() -> {
+            try {
+                List<Change> changes = read(database);
+                if (!changes.isEmpty() && LWC.ENABLED) {
+                    Bukkit.getScheduler().runTask(lwc.getPlugin(), () -> apply(changes));
+                }
+            } catch (RuntimeException e) {
+                lwc.getPlugin().getLogger().log(Level.WARNING, "Could not read the change log", e);
+            } finally {
+                polling.set(false);
+            }
+        });
+    }
+
+    /**
+     * Read the changes following the last read id and the skipped ids
+     *
+     * @param database
+     * @return the changes of other servers that were not read before
+     */
+    private List<Change> read(PhysDB database) {
+        long now = System.currentTimeMillis();
+        for (Iterator<Long> it = gaps.values().iterator(); it.hasNext();) {
+            if (now - it.next() > GAP_TIMEOUT) {
+                it.remove();
+            }
+        }
+
+        long from = gaps.isEmpty() ? lastId : gaps.firstKey() - 1;
+        List<Change> changes = new ArrayList<>();
+        for (Change change : database.loadChanges(from, POLL_LIMIT)) {
+            long id = change.id();
+            if (id <= lastId) {
+                // only the skipped ids are new
+                if (gaps.remove(id) == null) {
+                    continue;
+                }
+            } else {
+                for (long skipped = lastId + 1; skipped < id; skipped++) {
+                    gaps.put(skipped, now);
+                }
+                lastId = id;
+            }
+
+            if (change.server() != SERVER_ID) {
+                changes.add(change);
+            }
+        }
+
+        while (gaps.size() > MAX_GAPS) {
+            gaps.pollFirstEntry();
+        }
+        return changes;
+    }
+
+    /**
+     * Drop the changed protections from the caches
+     *
+     * @param changes
+     */
+    private void apply(List<Change> changes) {
+        ProtectionCache cache = lwc.getProtectionCache();
+        ProtectionCounts counts = lwc.getProtectionCounts();
+
+        for (Change change : changes) {
+            if (change.operation() == Operation.CLEAR) {
+                cache.clear();
+                counts.clear();
+                continue;
+            }
+
+            Protection cached = cache.peekProtectionById(change.protectionId());
+            if (cached != null) {
+                // the owner might have been changed
+                invalidateCounts(counts, cached.getOwner());
+                cache.removeProtection(cached);
+            }
+            invalidateCounts(counts, change.owner());
+
+            // the markers of the block or entity might claim there is no protection
+            if (change.operation() == Operation.REGISTER) {
+                lwc.getPersistentProtectionIds().registered(change.protectionId(), change.world(), change.x(), change.y(), change.z(), change.entityId());
+            }
+
+            if (change.entityId() != null) {
+                cache.remove(change.entityId());
+            } else if (change.world() != null) {
+                // the blocks matched to the protection might be known as not protected
+                cache.removeKnownNulls(change.world(), change.x(), change.y(), change.z());
+                cache.remove(change.world(), change.x(), change.y(), change.z());
+                if (change.operation() == Operation.REMOVE) {
+                    cache.markAbsent(change.world(), change.x(), change.y(), change.z());
+                } else {
+                    cache.markPresent(change.world(), change.x(), change.y(), change.z());
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the protection counts of an owner, they are loaded again right away if the owner is online
+     *
+     * @param counts
+     * @param owner
+     */
+    private void invalidateCounts(ProtectionCounts counts, String owner) {
+        if (owner == null) {
+            return;
+        }
+
+        counts.invalidate(owner);
+        try {
+            if (Bukkit.getPlayer(UUID.fromString(owner)) != null) {
+                counts.loadAsync(owner);
+            }
+        } catch (IllegalArgumentException e) {
+            // owners that are not UUIDs are never online
+        }
+    }
+}
@@ -37,6 +37,7 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -75,22 +76,84 @@ public abstract class Database {
         public T call() throws SQLException;
     }
 
+    public static interface SQLConnectionCallable<T> {
+        public T call(Connection connection) throws SQLException;
+    }
+
+    /**
+     * A connection of the pool together with its prepared statements
+     */
+    private static class PooledConnection {
+
+        private final Connection connection;
+
+        /**
+         * Store cached prepared statements.
+         * <p/>
+         * Since SQLite JDBC doesn't cache them.. we do it ourselves :S
+         */
+        private final Map<String, PreparedStatement> statementCache = new HashMap<>();
+
+        /**
+         * If this is the connection used for writing
+         */
+        private final boolean writer;
+
+        /**
+         * The pool generation this connection belongs to
+         */
+        private final int generation;
+
+        private PooledConnection(Connection connection, boolean writer, int generation) {
+            this.connection = connection;
+            this.writer = writer;
+            this.generation = generation;
+        }
+
+        private void close() {
+            statementCache.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
     /**
      * The database engine being used for this connection
      */
     public Type currentType;
 
     /**
-     * Store cached prepared statements.
-     * <p/>
-     * Since SQLite JDBC doesn't cache them.. we do it ourselves :S
+     * The connection used for all writes and everything that is not explicitly read only
+     */
+    private PooledConnection writer = null;
+
+    /**
+     * The idle read only connections
      */
-    private Map<String, PreparedStatement> statementCache = new HashMap<>();
+    private final ArrayDeque<PooledConnection> idleReaders = new ArrayDeque<>();
 
     /**
-     * The connection to the database
+     * The amount of read only connections that are currently open, idle or in use
      */
-    protected Connection connection = null;
+    private int openReaders = 0;
+
+    /**
+     * The max amount of read only connections. If 0, reads use the writing connection.
+     */
+    private int maxReaders = 0;
+
+    /**
+     * Incremented when the pool is disposed, so connections in use are closed instead of being returned
+     */
+    private volatile int poolGeneration = 0;
+
+    /**
+     * The connection the current thread is working with, set while a run or read call is active
+     */
+    private final ThreadLocal<PooledConnection> currentConnection = new ThreadLocal<>();
 
     /**
      * The default database engine being used. This is set via config
@@ -138,7 +201,7 @@ public abstract class Database {
      */
     public void pingDatabase() {
         runAndIgnoreException(() -> {
-            Statement stmt = connection.createStatement();
+            Statement stmt = getConnection().createStatement();
             stmt.executeQuery("SELECT 1;");
             stmt.close();
         });
@@ -166,7 +229,7 @@ public abstract class Database {
      * @return if the connection was succesful
      */
     public boolean connect() throws SQLException {
-        if (connection != null) {
+        if (writer != null) {
             return true;
         }
 
@@ -186,22 +249,16 @@ public abstract class Database {
             LWC.getInstance().getPlugin().getLogger().log(Level.SEVERE, "Could not load the database driver!", e);
         }
 
-        // Create the properties to pass to the driver
-        Properties properties = new Properties();
+        maxReaders = Math.max(0, LWC.getInstance().getConfiguration().getInt("database.readConnections", 3));
 
-        // if we're using mysql, append the database info
-        if (currentType == Type.MySQL) {
-            LWC lwc = LWC.getInstance();
-            // properties.put("autoReconnect", "true");
-            properties.put("user", lwc.getConfiguration().getString("database.username"));
-            properties.put("password", lwc.getConfiguration().getString("database.password"));
+        // in memory sqlite databases are private to their connection
+        if (currentType == Type.SQLite && getDatabasePath().contains(":memory:")) {
+            maxReaders = 0;
         }
 
-        statementCache.clear();
         try {
             // Connect to the database
-            connection = DriverManager.getConnection("jdbc:" + currentType.toString().toLowerCase() + ":" + getDatabasePath(), properties);
-            connection.setAutoCommit(false);
+            writer = new PooledConnection(openConnection(), true, poolGeneration);
             connected = true;
             return true;
         } catch (SQLException e) {
@@ -214,18 +271,121 @@ public abstract class Database {
         }
     }
 
-    public void dispose() {
-        statementCache.clear();
+    /**
+     * Open a new connection to the database
+     *
+     * @return the connection
+     */
+    private Connection openConnection() throws SQLException {
+        // Create the properties to pass to the driver
+        Properties properties = new Properties();
 
-        try {
-            if (connection != null) {
-                connection.close();
+        // if we're using mysql, append the database info
+        if (currentType == Type.MySQL) {
+            LWC lwc = LWC.getInstance();
+            // properties.put("autoReconnect", "true");
+            properties.put("user", lwc.getConfiguration().getString("database.username"));
+            properties.put("password", lwc.getConfiguration().getString("database.password"));
+        } else {
+            // the readers and the writer may have to wait for each other
+            properties.put("busy_timeout", "10000");
+        }
+
+        Connection connection = DriverManager.getConnection("jdbc:" + currentType.toString().toLowerCase() + ":" + getDatabasePath(), properties);
+        if (currentType == Type.SQLite) {
+            configureSQLite(connection);
+        }
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    /**
+     * Apply the performance settings in database.sqlite to a new connection. The journal mode can not be changed
+     * within a transaction, so this has to be done before switching to manual commits.
+     *
+     * @param connection
+     */
+    private void configureSQLite(Connection connection) throws SQLException {
+        Configuration configuration = LWC.getInstance().getConfiguration();
+        String journalMode = getSQLiteSetting("journalMode", "WAL", "DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+        String synchronous = getSQLiteSetting("synchronous", "NORMAL", "OFF", "NORMAL", "FULL", "EXTRA");
+        String tempStore = getSQLiteSetting("tempStore", "MEMORY", "DEFAULT", "FILE", "MEMORY");
+        long mmapSize = Math.max(0, configuration.getInt("database.sqlite.mmapSize", 256)) * 1024L * 1024L;
+        long cacheSize = Math.max(1, configuration.getInt("database.sqlite.cacheSize", 16)) * 1024L;
+
+        try (Statement statement = connection.createStatement()) {
+            // only takes effect for new databases, existing ones are converted by /lwc admin db vacuum full
+            statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            statement.execute("PRAGMA journal_mode = " + journalMode);
+            statement.execute("PRAGMA synchronous = " + synchronous);
+            statement.execute("PRAGMA temp_store = " + tempStore);
+            statement.execute("PRAGMA mmap_size = " + mmapSize);
+
+            // a negative size is in KiB instead of pages
+            statement.execute("PRAGMA cache_size = -" + cacheSize);
+
+            // the log is written back by the background checkpoints, this only keeps it from growing too large
+            if (configuration.getInt("database.sqlite.checkpointInterval", 60) > 0) {
+                statement.execute("PRAGMA wal_autocheckpoint = " + SQLiteMaintenance.AUTO_CHECKPOINT_PAGES);
+            }
+        }
+    }
+
+    /**
+     * Get a setting of database.sqlite that is inserted into a pragma, so only the given values are accepted
+     *
+     * @param key
+     * @param defaultValue
+     * @param values
+     * @return the configured value or defaultValue if it is invalid
+     */
+    private String getSQLiteSetting(String key, String defaultValue, String... values) {
+        String value = LWC.getInstance().getConfiguration().getString("database.sqlite." + key, defaultValue);
+        for (String allowed : values) {
+            if (allowed.equalsIgnoreCase(value)) {
+                return allowed;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
 
-        connection = null;
+        log("Invalid value " + value + " for database.sqlite." + key + ", using " + defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * @return true if this is an SQLite database stored in a file, which other connections can open as well
+     */
+    public boolean isSQLiteFile() {
+        return currentType == Type.SQLite && !getDatabasePath().contains(":memory:");
+    }
+
+    /**
+     * Open a connection that commits every statement on its own, for maintenance work that can not run within a
+     * transaction or must not hold locks for long. The caller has to close it.
+     *
+     * @return the connection
+     */
+    Connection openAutoCommitConnection() throws SQLException {
+        Connection connection = openConnection();
+        connection.setAutoCommit(true);
+        return connection;
+    }
+
+    public void dispose() {
+        synchronized (this) {
+            if (writer != null) {
+                writer.close();
+            }
+            writer = null;
+        }
+
+        synchronized (idleReaders) {
+            for (PooledConnection reader : idleReaders) {
+                reader.close();
+            }
+            openReaders -= idleReaders.size();
+            idleReaders.clear();
+            poolGeneration++;
+        }
     }
 
     protected <T> T runAndIgnoreException(SQLCallable<T> callable) {
@@ -253,35 +413,217 @@ public abstract class Database {
         }
     }
 
-    protected synchronized <T> T run(SQLCallable<T> callable) throws SQLException {
+    protected <T> T run(SQLCallable<T> callable) throws SQLException {
+        PooledConnection bound = currentConnection.get();
+        if (bound != null && bound.writer) {
+            // the outermost call commits
+            return callable.call();
+        }
+
+        synchronized (this) {
+            currentConnection.set(writer);
+            int fails = 0;
+            try {
+                while (true) {
+                    try {
+                        if (writer == null || writer.connection.isClosed()) {
+                            if (writer != null) {
+                                writer.close();
+                                writer = null;
+                            }
+                            connect();
+                            currentConnection.set(writer);
+                        }
+                        T rv = callable.call();
+                        writer.connection.commit();
+                        return rv;
+                    } catch (SQLException e) {
+                        fails += 1;
+                        if (writer != null) {
+                            rollbackAndClose(writer);
+                            writer = null;
+                        }
+                        if (fails >= 3) {
+                            throw e;
+                        }
+                    }
+                }
+            } finally {
+                if (bound != null) {
+                    currentConnection.set(bound);
+                } else {
+                    currentConnection.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a read only callable on an idle connection of the pool, so it does not have to wait for the writes of other
+     * threads. Nested calls use the connection of the outer call.
+     *
+     * @param callable
+     * @return
+     */
+    protected <T> T read(SQLCallable<T> callable) throws SQLException {
+        if (currentConnection.get() != null) {
+            return callable.call();
+        }
+        if (maxReaders == 0) {
+            return run(callable);
+        }
+
         int fails = 0;
         while (true) {
+            PooledConnection reader = acquireReader();
+            currentConnection.set(reader);
+            boolean success = false;
             try {
-                if (connection == null || connection.isClosed()) {
-                    connect();
-                }
                 T rv = callable.call();
-                connection.commit();
+                reader.connection.commit();
+                success = true;
                 return rv;
             } catch (SQLException e) {
                 fails += 1;
-                if (connection != null) {
-                    try {
-                        if (!connection.isClosed()) {
-                            connection.rollback();
-                        }
-                    } catch (SQLException ex) {
-                        // ignore
-                    }
-                }
-                dispose();
                 if (fails >= 3) {
                     throw e;
                 }
+            } finally {
+                currentConnection.remove();
+                if (!success) {
+                    rollbackAndClose(reader);
+                }
+                releaseReader(reader, !success);
+            }
+        }
+    }
+
+    /**
+     * Run a long read only callable, such as the iteration over a streamed result set, on its own connection of the
+     * pool. It is not retried, as it might have handed out rows already. The connection is passed to the callable
+     * instead of being bound to the thread, so the thread can keep using the database while the callable runs.
+     *
+     * @param callable
+     * @return
+     */
+    protected <T> T readDetached(SQLConnectionCallable<T> callable) throws SQLException {
+        if (maxReaders == 0) {
+            throw new SQLException("There are no read connections");
+        }
+
+        PooledConnection reader = acquireReader();
+        boolean success = false;
+        try {
+            T rv = callable.call(reader.connection);
+            reader.connection.commit();
+            success = true;
+            return rv;
+        } finally {
+            if (!success) {
+                rollbackAndClose(reader);
+            }
+            releaseReader(reader, !success);
+        }
+    }
+
+    /**
+     * @return true if there are read only connections besides the writing connection
+     */
+    protected boolean hasReadConnections() {
+        return maxReaders > 0;
+    }
+
+    protected <T> T readAndLogException(SQLCallable<T> callable) {
+        try {
+            return read(callable);
+        } catch (SQLException e) {
+            LWC.getInstance().getPlugin().getLogger().log(Level.SEVERE, "Database Exception", e);
+        }
+        return null;
+    }
+
+    protected <T> T readAndThrowModuleExceptionIfFailing(SQLCallable<T> callable) {
+        try {
+            return read(callable);
+        } catch (SQLException e) {
+            throw new ModuleException(e);
+        }
+    }
+
+    /**
+     * Take an idle read only connection, opening a new one if the pool is not full yet. Waits if all connections are
+     * in use.
+     *
+     * @return the connection
+     */
+    private PooledConnection acquireReader() throws SQLException {
+        synchronized (idleReaders) {
+            while (true) {
+                PooledConnection reader = idleReaders.pollLast();
+                if (reader != null) {
+                    if (!reader.connection.isClosed()) {
+                        return reader;
+                    }
+                    reader.close();
+                    openReaders--;
+                    continue;
+                }
+                if (openReaders < maxReaders) {
+                    openReaders++;
+                    break;
+                }
+                try {
+                    idleReaders.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a database connection", e);
+                }
+            }
+        }
+
+        int generation = poolGeneration;
+        try {
+            return new PooledConnection(openConnection(), false, generation);
+        } catch (SQLException e) {
+            synchronized (idleReaders) {
+                openReaders--;
+                idleReaders.notify();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return a read only connection to the pool
+     *
+     * @param reader
+     * @param broken
+     *            true if the connection failed and has to be closed
+     */
+    private void releaseReader(PooledConnection reader, boolean broken) {
+        synchronized (idleReaders) {
+            if (broken || reader.generation != poolGeneration) {
+                // broken or the pool was disposed in the meantime
+                reader.close();
+                openReaders--;
+            } else {
+                idleReaders.addLast(reader);
             }
+            idleReaders.notify();
         }
     }
 
+    private void rollbackAndClose(PooledConnection pooled) {
+        try {
+            if (!pooled.connection.isClosed()) {
+                pooled.connection.rollback();
+            }
+        } catch (SQLException ex) {
+            // ignore
+        }
+        pooled.close();
+    }
+
     protected void runAndIgnoreException(SQLRunnable runnable) {
         try {
             run(runnable);
@@ -305,40 +647,22 @@ public abstract class Database {
         }
     }
 
-    protected synchronized void run(SQLRunnable runnable) throws SQLException {
-        int fails = 0;
-        while (true) {
-            try {
-                if (connection == null || connection.isClosed()) {
-                    connect();
-                }
-                runnable.run();
-                connection.commit();
-                return;
-            } catch (SQLException e) {
-                fails += 1;
-                if (connection != null) {
-                    try {
-                        if (!connection.isClosed()) {
-                            connection.rollback();
-                        }
-                    } catch (SQLException ex) {
-                        // ignore
-                    }
-                }
-                dispose();
-                if (fails >= 3) {
-                    throw e;
-                }
-            }
-        }
+    protected void run(SQLRunnable runnable) throws SQLException {
+        run(() -> {
+            runnable.run();
+            return null;
+        });
     }
 
     /**
-     * @return the connection to the database
+     * @return the connection the current thread is working with, or the writing connection outside of run and read
      */
     protected Connection getConnection() {
-        return connection;
+        PooledConnection pooled = currentConnection.get();
+        if (pooled == null) {
+            pooled = writer;
+        }
+        return pooled == null ? null : pooled.connection;
     }
 
     /**
@@ -394,10 +718,15 @@ public abstract class Database {
      * @return
      */
     protected PreparedStatement prepare(String sql, boolean returnGeneratedKeys) throws SQLException {
-        if (connection == null) {
+        PooledConnection pooled = currentConnection.get();
+        if (pooled == null) {
+            pooled = writer;
+        }
+        if (pooled == null) {
             return null;
         }
 
+        Map<String, PreparedStatement> statementCache = pooled.statementCache;
         if (useStatementCache && statementCache.containsKey(sql)) {
             Statistics.addQuery();
             return statementCache.get(sql);
@@ -406,9 +735,9 @@ public abstract class Database {
             PreparedStatement preparedStatement;
 
             if (returnGeneratedKeys) {
-                preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                preparedStatement = pooled.connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
             } else {
-                preparedStatement = connection.prepareStatement(sql);
+                preparedStatement = pooled.connection.prepareStatement(sql);
             }
 
             statementCache.put(sql, preparedStatement);
@@ -467,7 +796,7 @@ public abstract class Database {
         boolean exception = false;
 
         try {
-            statement = connection.createStatement();
+            statement = getConnection().createStatement();
             statement.executeUpdate(query);
         } catch (SQLException e) {
             exception = true;
@@ -0,0 +1,322 @@
+package com.griefcraft.sql;
+
+import com.griefcraft.cache.IntLongHashMap;
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import com.griefcraft.sql.PhysDB.ProtectionRow;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Writes modified protections to the database in the background. Saved protections are collected and written in
+ * one batch every core.flushInterval seconds by a dedicated writer thread. Until they are written, the queued
+ * instances are handed out for every database lookup of the same protection, so no stale copy is ever loaded.
+ * <p>
+ * Last access times are only kept in memory and written every core.lastAccessedFlushInterval minutes.
+ */
+public class DatabaseThread {
+
+    /**
+     * The LWC instance
+     */
+    private final LWC lwc;
+
+    /**
+     * The protections saved since the last flush, in the order they were saved
+     */
+    private final Map<Integer, Protection> dirty = new LinkedHashMap<>();
+
+    /**
+     * All protections that are either dirty or currently being written
+     */
+    private final Map<Integer, Protection> queued = new ConcurrentHashMap<>();
+
+    /**
+     * The modified fields of protections that could not be written, by protection id
+     */
+    private final Map<Integer, Integer> failedFields = new HashMap<>();
+
+    /**
+     * The last access times that were not written yet, by protection id
+     */
+    private final IntLongHashMap lastAccessed = new IntLongHashMap();
+
+    /**
+     * The thread writing the batches. Being single threaded, the batches are written in the order they were flushed.
+     */
+    private ExecutorService writer;
+
+    /**
+     * The timer flushing the dirty protections
+     */
+    private BukkitTask flushTask;
+
+    /**
+     * The timer writing the last access times
+     */
+    private BukkitTask lastAccessedTask;
+
+    public DatabaseThread(LWC lwc) {
+        this.lwc = lwc;
+    }
+
+    /**
+     * Start the writer thread. If core.flushInterval is not positive, protections keep being saved immediately.
+     */
+    public void start() {
+        if (writer != null) {
+            return;
+        }
+
+        writer = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "LWC Database Writer"));
+
+        int interval = lwc.getConfiguration().getInt("core.flushInterval", 10);
+        if (interval > 0) {
+            flushTask = Bukkit.getScheduler().runTaskTimer(lwc.getPlugin(), this::flush, interval * 20L, interval * 20L);
+        }
+
+        long lastAccessedInterval = Math.max(1, lwc.getConfiguration().getInt("core.lastAccessedFlushInterval", 5)) * 60 * 20L;
+        lastAccessedTask = Bukkit.getScheduler().runTaskTimer(lwc.getPlugin(), this::flushLastAccessed, lastAccessedInterval, lastAccessedInterval);
+    }
+
+    /**
+     * Write all remaining protections and stop the writer thread. Blocks until everything is written.
+     */
+    public void stop() {
+        if (writer == null) {
+            return;
+        }
+
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        lastAccessedTask.cancel();
+        lastAccessedTask = null;
+
+        flush();
+        flushLastAccessed();
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+                lwc.log("Timed out while writing the remaining protections to the database");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    /**
+     * @return true if saved protections are queued and written in the background
+     */
+    public boolean isQueueingProtections() {
+        return flushTask != null;
+    }
+
+    /**
+     * Queue a protection to be written with the next flush
+     *
+     * @param protection
+     */
+    public synchronized void addProtection(Protection protection) {
+        dirty.put(protection.getId(), protection);
+        queued.put(protection.getId(), protection);
+    }
+
+    /**
+     * Drop a queued protection, it was removed and must not be written anymore
+     *
+     * @param protection
+     */
+    public synchronized void removeProtection(Protection protection) {
+        dirty.remove(protection.getId(), protection);
+        queued.remove(protection.getId(), protection);
+        failedFields.remove(protection.getId());
+    }
+
+    /**
+     * Get the queued instance of a protection. Can be called from any thread.
+     *
+     * @param protectionId
+     * @return the protection or null if it is not waiting to be written
+     */
+    public Protection getQueuedProtection(int protectionId) {
+        return queued.get(protectionId);
+    }
+
+    /**
+     * Record the time a protection was last accessed
+     *
+     * @param protectionId
+     * @param time
+     */
+    public synchronized void addLastAccessed(int protectionId, long time) {
+        lastAccessed.put(protectionId, time);
+    }
+
+    /**
+     * Get the last access time of a protection that was not written yet. Can be called from any thread.
+     *
+     * @param protectionId
+     * @return the time or -1 if there is none
+     */
+    public synchronized long getLastAccessed(int protectionId) {
+        return lastAccessed.get(protectionId, -1);
+    }
+
+    /**
+     * Write all last access times and wait until they are written, so queries on the last_accessed column
+     * see the current values
+     */
+    public void writeLastAccessedNow() {
+        flushLastAccessed();
+        awaitWriter();
+    }
+
+    /**
+     * Write all queued protections and wait until they are written, so the database can be changed directly
+     * without being overwritten by queued protections. Must be called on the main thread.
+     */
+    public void writeNow() {
+        flush();
+        awaitWriter();
+    }
+
+    /**
+     * Drop all queued protections and wait until the batch that is currently being written is done
+     */
+    public void discardAll() {
+        synchronized (this) {
+            dirty.clear();
+            queued.clear();
+            failedFields.clear();
+            lastAccessed.clear();
+        }
+
+        awaitWriter();
+    }
+
+    /**
+     * Wait until everything handed to the writer thread so far is written
+     */
+    private void awaitWriter() {
+        if (writer != null) {
+            try {
+                writer.submit(() -> {
+                }).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                lwc.getPlugin().getLogger().log(Level.SEVERE, "Could not wait for the database writer", e);
+            }
+        }
+    }
+
+    /**
+     * Hand all dirty protections to the writer thread. Must be called on the main thread, as the protections are
+     * captured here.
+     */
+    public void flush() {
+        List<ProtectionRow> rows;
+        synchronized (this) {
+            if (dirty.isEmpty() || writer == null) {
+                return;
+            }
+
+            rows = new ArrayList<>(dirty.size());
+            for (Protection protection : dirty.values()) {
+                Integer failed = failedFields.remove(protection.getId());
+                if (!protection.isRemoved()) {
+                    rows.add(ProtectionRow.of(protection, protection.getModifiedFields() | (failed != null ? failed : 0)));
+                    protection.clearModifiedFields();
+                }
+            }
+            dirty.clear();
+        }
+
+        writer.execute(() -> write(rows));
+    }
+
+    /**
+     * Hand the last access times to the writer thread
+     */
+    public void flushLastAccessed() {
+        IntLongHashMap times;
+        synchronized (this) {
+            if (lastAccessed.isEmpty() || writer == null) {
+                return;
+            }
+
+            times = lastAccessed.copy();
+        }
+
+        writer.execute(() -> writeLastAccessed(times));
+    }
+
+    /**
+     * Write a batch of last access times, runs on the writer thread. The times stay in memory until they are
+     * written, so they are retried with the next flush if writing fails.
+     *
+     * @param times
+     */
+    private void writeLastAccessed(IntLongHashMap times) {
+        try {
+            lwc.getPhysicalDatabase().saveProtectionsLastAccessed(times);
+        } catch (Exception e) {
+            lwc.getPlugin().getLogger().log(Level.SEVERE, "Could not write the last access times of " + times.size() + " protections to the database", e);
+            return;
+        }
+
+        synchronized (this) {
+            times.forEach(lastAccessed::remove);
+        }
+    }
+
+    /**
+     * Write a batch of protections, runs on the writer thread
+     *
+     * @param rows
+     */
+    private void write(List<ProtectionRow> rows) {
+        try {
+            lwc.getPhysicalDatabase().saveProtections(rows);
+        } catch (Exception e) {
+            lwc.getPlugin().getLogger().log(Level.SEVERE, "Could not write " + rows.size() + " protections to the database, retrying with the next flush", e);
+
+            synchronized (this) {
+                for (ProtectionRow row : rows) {
+                    Protection protection = row.protection();
+                    if (queued.get(protection.getId()) == protection) {
+                        dirty.putIfAbsent(protection.getId(), protection);
+                        failedFields.merge(protection.getId(), row.fields(), (a, b) -> a | b);
+                    }
+                }
+            }
+            return;
+        }
+
+        synchronized (this) {
+            for (ProtectionRow row : rows) {
+                Protection protection = row.protection();
+
+                // it might have been saved again in the meantime
+                if (!dirty.containsKey(protection.getId())) {
+                    queued.remove(protection.getId(), protection);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,394 @@
+package com.griefcraft.sql;
+
+import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import com.griefcraft.util.Statistics;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Migrates the entity protections created before UUIDs were stored, which are only found by the hash of their
+ * entity's UUID. The hashes of all legacy protections are held in memory while the migration runs, and every
+ * protectable entity that is loaded is checked against them. Matches are written in batches.
+ * <p>
+ * The state is kept in the internal table, so a migration resumes after a restart. Once all legacy protections are
+ * migrated (or the migration is finished by an admin), the legacy lookups are switched off.
+ */
+public class LegacyEntityMigration {
+
+    /**
+     * The progress of the migration
+     */
+    public enum State {
+        /**
+         * Not started, entities are upgraded when they are looked up
+         */
+        IDLE,
+
+        /**
+         * Loaded entities are matched against the legacy protections
+         */
+        RUNNING,
+
+        /**
+         * No legacy protections are left, legacy lookups are off
+         */
+        COMPLETE
+    }
+
+    /**
+     * A legacy entity protection
+     *
+     * @param hash
+     *            the hash of the UUID of the protected entity
+     */
+    record LegacyProtection(int id, String world, int hash) {
+    }
+
+    /**
+     * The key of the state in the internal table
+     */
+    private static final String STATE_KEY = "legacyEntityMigration";
+
+    /**
+     * The amount of already loaded entities checked per tick when the migration starts
+     */
+    private static final int SCAN_BATCH_SIZE = 2000;
+
+    /**
+     * How often matches are written (in ticks)
+     */
+    private static final long FLUSH_INTERVAL = 100;
+
+    /**
+     * The LWC instance
+     */
+    private final LWC lwc;
+
+    private volatile State state = State.IDLE;
+
+    /**
+     * The ids of the legacy protections by world and hash, only used on the main thread
+     */
+    private final Map<String, Map<Integer, Integer>> pending = new HashMap<>();
+
+    /**
+     * The amount of protections in {@link #pending}
+     */
+    private int pendingCount;
+
+    /**
+     * The ids of the legacy protections that can not be matched, because they share a hash with another one in the
+     * same world or the migration is finished without being started
+     */
+    private final List<Integer> unmatched = new ArrayList<>();
+
+    /**
+     * The matched entities by protection id, waiting to be written
+     */
+    private Map<Integer, UUID> matches = new HashMap<>();
+
+    /**
+     * The already loaded entities that still have to be checked
+     */
+    private List<Entity> scanQueue = new ArrayList<>();
+
+    private int scanIndex;
+
+    private boolean flushing;
+
+    private BukkitTask scanTask;
+    private BukkitTask flushTask;
+
+    public LegacyEntityMigration(LWC lwc) {
+        this.lwc = lwc;
+    }
+
+    /**
+     * Load the state of the migration and resume it if it was running. Databases without legacy entity protections
+     * are marked as migrated right away, so they are only counted once.
+     */
+    public void load() {
+        PhysDB database = lwc.getPhysicalDatabase();
+        String value = database.getInternal(STATE_KEY);
+
+        if (State.COMPLETE.name().equals(value)) {
+            state = State.COMPLETE;
+        } else if (State.RUNNING.name().equals(value)) {
+            // completed by begin() if no legacy protections are left
+            start(null);
+        } else if (database.countLegacyEntityProtections() == 0) {
+            complete();
+        }
+    }
+
+    /**
+     * Stop the migration, it is resumed when LWC is loaded again. Matches that were not written yet are found again
+     * then.
+     */
+    public void stop() {
+        if (scanTask != null) {
+            scanTask.cancel();
+            scanTask = null;
+        }
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+    }
+
+    /**
+     * @return the progress of the migration
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Start the migration in the background
+     *
+     * @param sender
+     *            receives the progress messages, may be null
+     */
+    public void start(CommandSender sender) {
+        if (state != State.IDLE) {
+            send(sender, state == State.RUNNING ? "lwc.admin.db.legacyentities.running" : "lwc.admin.db.legacyentities.notneeded");
+            return;
+        }
+
+        state = State.RUNNING;
+        PhysDB database = lwc.getPhysicalDatabase();
+        lwc.getDatabaseExecutor().execute(() -> {
+            try {
+                database.setInternal(STATE_KEY, State.RUNNING.name());
+                List<LegacyProtection> protections = database.loadLegacyEntityProtections();
+                Bukkit.getScheduler().runTask(lwc.getPlugin(), () -> begin(sender, protections));
+            } catch (RuntimeException e) {
+                lwc.getPlugin().getLogger().log(Level.SEVERE, "Could not load the legacy entity protections", e);
+                state = State.IDLE;
+            }
+        });
+    }
+
+    /**
+     * Send the amount of legacy protections that are left
+     *
+     * @param sender
+     */
+    public void sendStatus(CommandSender sender) {
+        switch (state) {
+            case RUNNING -> send(sender, "lwc.admin.db.legacyentities.status", "count", pendingCount + matches.size());
+            case COMPLETE -> send(sender, "lwc.admin.db.legacyentities.notneeded");
+            default -> send(sender, "lwc.admin.db.legacyentities.idle");
+        }
+    }
+
+    /**
+     * Finish the migration even though legacy protections are left, their entities were most likely removed. The
+     * remaining protections can not be found anymore afterwards, their ids are logged.
+     *
+     * @param sender
+     */
+    public void finish(CommandSender sender) {
+        if (state == State.COMPLETE) {
+            send(sender, "lwc.admin.db.legacyentities.notneeded");
+            return;
+        }
+
+        if (state == State.IDLE) {
+            // the legacy protections are only loaded to log the ids that are given up
+            for (LegacyProtection protection : lwc.getPhysicalDatabase().loadLegacyEntityProtections()) {
+                unmatched.add(protection.id());
+            }
+        }
+
+        int remaining = pendingCount + unmatched.size();
+        stop();
+
+        // the matches are written right away, their protections could not be found anymore otherwise
+        if (!matches.isEmpty()) {
+            Map<Integer, UUID> batch = matches;
+            matches = new HashMap<>();
+            applyMigrated(batch, lwc.getPhysicalDatabase().migrateLegacyEntityProtections(batch));
+        }
+        complete();
+        send(sender, "lwc.admin.db.legacyentities.finished", "count", remaining);
+    }
+
+    /**
+     * Check an entity that was added to a world
+     *
+     * @param entity
+     */
+    public void entityLoaded(Entity entity) {
+        if (pendingCount == 0) {
+            return;
+        }
+
+        Map<Integer, Integer> hashes = pending.get(entity.getWorld().getName());
+        if (hashes == null) {
+            return;
+        }
+
+        UUID entityId = entity.getUniqueId();
+        Integer id = hashes.get(entityId.hashCode());
+        if (id != null && lwc.isProtectable(entity)) {
+            hashes.remove(entityId.hashCode());
+            pendingCount--;
+            matches.put(id, entityId);
+        }
+    }
+
+    private void begin(CommandSender sender, List<LegacyProtection> protections) {
+        if (state != State.RUNNING) {
+            return;
+        }
+
+        for (LegacyProtection protection : protections) {
+            // protections sharing a hash can not be told apart, the first one wins as in legacy lookups
+            if (pending.computeIfAbsent(protection.world(), k -> new HashMap<>()).putIfAbsent(protection.hash(), protection.id()) == null) {
+                pendingCount++;
+            } else {
+                unmatched.add(protection.id());
+            }
+        }
+        send(sender, "lwc.admin.db.legacyentities.start", "count", pendingCount);
+
+        if (!unmatched.isEmpty()) {
+            lwc.getPlugin().getLogger().warning(unmatched.size() + " legacy entity protections share their hash with another one and can not be migrated: " + unmatched);
+        }
+
+        if (pendingCount == 0) {
+            complete();
+            return;
+        }
+
+        for (World world : Bukkit.getWorlds()) {
+            scanQueue.addAll(world.getEntities());
+        }
+        scanTask = Bukkit.getScheduler().runTaskTimer(lwc.getPlugin(), this::scan, 1, 1);
+        flushTask = Bukkit.getScheduler().runTaskTimer(lwc.getPlugin(), this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL);
+    }
+
+    /**
+     * Check the next batch of the entities that were loaded before the migration started
+     */
+    private void scan() {
+        int end = Math.min(scanIndex + SCAN_BATCH_SIZE, scanQueue.size());
+        for (; scanIndex < end; scanIndex++) {
+            Entity entity = scanQueue.get(scanIndex);
+            if (entity.isValid()) {
+                entityLoaded(entity);
+            }
+        }
+
+        if (scanIndex >= scanQueue.size()) {
+            scanQueue = new ArrayList<>();
+            scanIndex = 0;
+            scanTask.cancel();
+            scanTask = null;
+        }
+    }
+
+    /**
+     * Write the matched entities in the background
+     */
+    private void flush() {
+        if (flushing || matches.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, UUID> batch = matches;
+        matches = new HashMap<>();
+        flushing = true;
+
+        PhysDB database = lwc.getPhysicalDatabase();
+        lwc.getDatabaseExecutor().execute(() -> {
+            List<Integer> migrated = null;
+            try {
+                migrated = database.migrateLegacyEntityProtections(batch);
+            } catch (RuntimeException e) {
+                lwc.getPlugin().getLogger().log(Level.WARNING, "Could not migrate legacy entity protections", e);
+            }
+
+            List<Integer> result = migrated;
+            Bukkit.getScheduler().runTask(lwc.getPlugin(), () -> {
+                flushing = false;
+                if (result == null) {
+                    // written again with the next batch
+                    batch.putAll(matches);
+                    matches = batch;
+                    return;
+                }
+                applyMigrated(batch, result);
+            });
+        });
+    }
+
+    /**
+     * Drop the migrated protections from the cache, they are loaded by their UUID from now on
+     *
+     * @param batch
+     * @param migrated
+     */
+    private void applyMigrated(Map<Integer, UUID> batch, List<Integer> migrated) {
+        ProtectionCache cache = lwc.getProtectionCache();
+        for (int id : migrated) {
+            Protection cached = cache.peekProtectionById(id);
+            if (cached != null) {
+                cache.removeProtection(cached);
+            }
+            cache.remove(batch.get(id));
+            Statistics.addUpdatedLegacyEntity();
+        }
+
+        if (state == State.RUNNING && pendingCount == 0 && matches.isEmpty()) {
+            complete();
+        }
+    }
+
+    /**
+     * Log the ids of the legacy protections that were not matched, so they can be fixed by hand
+     */
+    private void logAbandoned() {
+        List<Integer> abandoned = new ArrayList<>(unmatched);
+        for (Map<Integer, Integer> hashes : pending.values()) {
+            abandoned.addAll(hashes.values());
+        }
+
+        if (!abandoned.isEmpty()) {
+            lwc.getPlugin().getLogger().warning("Gave up on " + abandoned.size() + " legacy entity protections that were not matched to an entity: " + abandoned);
+        }
+    }
+
+    /**
+     * Record that no legacy protections are left
+     */
+    private void complete() {
+        stop();
+        logAbandoned();
+        state = State.COMPLETE;
+        pending.clear();
+        pendingCount = 0;
+        unmatched.clear();
+        scanQueue = new ArrayList<>();
+        scanIndex = 0;
+        lwc.getPhysicalDatabase().setInternal(STATE_KEY, State.COMPLETE.name());
+    }
+
+    private void send(CommandSender sender, String key, Object... args) {
+        if (sender != null) {
+            lwc.sendLocale(sender, key, args);
+        }
+    }
+}
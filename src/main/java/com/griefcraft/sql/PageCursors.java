@@ -0,0 +1,60 @@
+package com.griefcraft.sql;
+
+import com.griefcraft.cache.LRUCache;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Remembers where the pages of paged queries start. Rows are listed by descending id, so a page starts behind the
+ * id of the last row of the previous page and can be loaded by seeking to it instead of skipping all rows before.
+ */
+class PageCursors {
+
+    /**
+     * The amount of queries to remember the pages of
+     */
+    private static final int MAX_QUERIES = 100;
+
+    /**
+     * The id the rows before a page end with, by the offset of the page and the query
+     */
+    private final LRUCache<String, TreeMap<Integer, Integer>> cursors = new LRUCache<>(MAX_QUERIES);
+
+    /**
+     * Forget the pages of a query, it is listed from the start again
+     *
+     * @param query
+     */
+    public synchronized void reset(String query) {
+        cursors.remove(query);
+    }
+
+    /**
+     * Get the closest known page at or before an offset
+     *
+     * @param query
+     * @param start
+     * @return the offset of the page and the id the rows before it end with, or null if none is known
+     */
+    public synchronized Map.Entry<Integer, Integer> floor(String query, int start) {
+        TreeMap<Integer, Integer> pages = cursors.get(query);
+        return pages == null ? null : pages.floorEntry(start);
+    }
+
+    /**
+     * Remember where a page starts
+     *
+     * @param query
+     * @param start
+     * @param lastId
+     *            the id of the last row before the page
+     */
+    public synchronized void put(String query, int start, int lastId) {
+        TreeMap<Integer, Integer> pages = cursors.get(query);
+        if (pages == null) {
+            pages = new TreeMap<>();
+            cursors.put(query, pages);
+        }
+        pages.put(start, lastId);
+    }
+}
@@ -29,7 +29,9 @@
 package com.griefcraft.sql;
 
 import com.griefcraft.bukkit.EntityBlock;
-import com.griefcraft.cache.CacheKey;
+import com.griefcraft.cache.ChunkIndex;
+import com.griefcraft.cache.ChunkIndex.Presence;
+import com.griefcraft.cache.IntLongHashMap;
 import com.griefcraft.cache.LRUCache;
 import com.griefcraft.cache.ProtectionCache;
 import com.griefcraft.lwc.BlockMap;
@@ -38,8 +40,10 @@ import com.griefcraft.model.Flag;
 import com.griefcraft.model.History;
 import com.griefcraft.model.Permission;
 import com.griefcraft.model.Protection;
+import com.griefcraft.model.Protection.Field;
 import com.griefcraft.modules.limits.LimitsModule;
 import com.griefcraft.scripting.Module;
+import com.griefcraft.scripting.ModuleException;
 import com.griefcraft.util.Colors;
 import com.griefcraft.util.Statistics;
 import com.griefcraft.util.UUIDRegistry;
@@ -49,15 +53,22 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.command.CommandSender;
@@ -72,9 +83,111 @@ import org.json.simple.parser.ParseException;
 public class PhysDB extends Database {
 
     /**
-     * The JSON Parser object
+     * The columns of a protection, captured on the main thread so they can be written by another thread. Only the
+     * given modified fields are written, the data and rights are only built if the data was modified. The owner is
+     * either a UUID or, for owners that were never converted, a name.
      */
-    private final JSONParser jsonParser = new JSONParser();
+    public record ProtectionRow(Protection protection, int fields, int id, int type, int blockId, int worldId, String data, UUID ownerId, String ownerName, String password, int x, int y, int z, UUID entityId, String creation, long lastAccessed, List<RightRow> rights) {
+        public static ProtectionRow of(Protection protection) {
+            return of(protection, protection.getModifiedFields());
+        }
+
+        public static ProtectionRow of(Protection protection, int fields) {
+            String data = null;
+            List<RightRow> rights = Collections.emptyList();
+            if (Field.DATA.isIn(fields)) {
+                List<Permission> permissions = protection.getPermissions();
+                List<Flag> flags = protection.getFlags();
+                if (LWC.getInstance().getPhysicalDatabase().isWritingEncodedData() && ProtectionDataCodec.canEncode(flags)) {
+                    data = ProtectionDataCodec.encode(permissions, flags);
+                } else {
+                    JSONObject json = protection.getData();
+                    data = json == null ? null : json.toJSONString();
+                }
+
+                rights = new ArrayList<>();
+                for (Permission permission : permissions) {
+                    if (permission != null) {
+                        rights.add(RightRow.of(permission));
+                    }
+                }
+            }
+
+            UUID ownerId = protection.getOwnerUUID();
+            String world = protection.getWorld();
+            int worldId = world == null ? 0 : LWC.getInstance().getPhysicalDatabase().worldMap.registerOrGetId(world);
+            return new ProtectionRow(protection, fields, protection.getId(), protection.getType().ordinal(), protection.getBlockId(), worldId, data, ownerId, ownerId == null ? protection.getOwner() : null, protection.getPassword(), protection.getX(), protection.getY(), protection.getZ(), protection.getEntityId(), protection.getCreation(), protection.getLastAccessed(), rights);
+        }
+    }
+
+    /**
+     * A row of the protection_rights table, which mirrors the rights stored in the data column so they can be
+     * looked up by name
+     */
+    public record RightRow(int type, String name, int access) {
+        public static RightRow of(Permission permission) {
+            return new RightRow(permission.getType().ordinal(), permission.getName(), permission.getAccess().ordinal());
+        }
+    }
+
+    /**
+     * The amount of protection ids updated at once when the chunk coordinates are filled in
+     */
+    private static final int CHUNK_COORDINATES_BATCH_SIZE = 10000;
+
+    /**
+     * The amount of rows read at once when iterating over a table without streaming
+     */
+    private static final int CURSOR_PAGE_SIZE = 1000;
+
+    /**
+     * The amount of protection ids read at once when the protection_rights table is filled
+     */
+    private static final int RIGHTS_MIGRATION_BATCH_SIZE = 10000;
+
+    /**
+     * The amount of protections loaded at once when the rights of a transferred player are rewritten
+     */
+    private static final int TRANSFER_BATCH_SIZE = 1000;
+
+    /**
+     * The amount of protection ids converted at once when the world names and UUIDs are moved into their compact
+     * columns
+     */
+    private static final int COMPACT_COLUMNS_BATCH_SIZE = 10000;
+
+    /**
+     * The amount of entities looked up by one query when the protections of loaded entities are fetched
+     */
+    private static final int ENTITY_BATCH_SIZE = 500;
+
+    /**
+     * The amount of players to remember the amount of history entries of
+     */
+    private static final int MAX_HISTORY_COUNTS = 1000;
+
+    /**
+     * The columns a protection is read from
+     */
+    private static final String PROTECTION_COLUMNS = "id, owner, owner_msb, owner_lsb, type, x, y, z, entity_msb, entity_lsb, data, blockId, worldId, password, date, last_accessed";
+
+    /**
+     * Creates the object of a row of a result set
+     */
+    private interface RowResolver<T> {
+        T resolve(ResultSet set) throws SQLException;
+    }
+
+    /**
+     * The rows of a page read by {@link PhysDB#forEachRow} and the key of its last row, null if it is the last page
+     */
+    private record Page<T>(List<T> rows, Object[] lastKey) {
+    }
+
+    /**
+     * The JSON Parser objects, one per thread as protections are loaded by multiple threads
+     */
+    private final ThreadLocal<JSONParser> jsonParser = ThreadLocal.withInitial(JSONParser::new);
 
     /**
      * The database version
@@ -87,6 +200,47 @@ public class PhysDB extends Database {
      */
     private int protectionCount = 0;
 
+    /**
+     * If the data column is written with the compact encoding instead of JSON
+     */
+    private boolean writeEncodedData = false;
+
+    /**
+     * If changes of protections are recorded in the protection_changes table
+     */
+    private boolean writeChangeLog = false;
+
+    /**
+     * Where the pages of the paged queries start
+     */
+    private final PageCursors pageCursors = new PageCursors();
+
+    /**
+     * The ids of the worlds stored in the worldId column
+     */
+    final WorldMap worldMap = new WorldMap(this);
+
+    /**
+     * The statements updating the columns of a set of modified protection fields, by the set of fields
+     */
+    private final Map<Integer, String> updateStatements = new ConcurrentHashMap<>();
+
+    /**
+     * The amount of history entries by lower case player, loaded when first requested and updated when history is
+     * written. Only the most recently requested players are remembered.
+     */
+    private final LRUCache<String, Integer> historyCounts = new LRUCache<>(MAX_HISTORY_COUNTS);
+
+    /**
+     * The total amount of history entries, -1 if not loaded yet
+     */
+    private int historyCount = -1;
+
+    /**
+     * Incremented whenever history is inserted or deleted, so counts loaded in the meantime are not cached
+     */
+    private int historyChanges = 0;
+
     public PhysDB() {
         super();
     }
@@ -95,6 +249,13 @@ public class PhysDB extends Database {
         super(currentType);
     }
 
+    /**
+     * @return true if the data column is written with the compact encoding of {@link ProtectionDataCodec}
+     */
+    public boolean isWritingEncodedData() {
+        return writeEncodedData;
+    }
+
     /**
      * Decrement the known protection counter
      */
@@ -145,7 +306,7 @@ public class PhysDB extends Database {
      * @return the number of protections
      */
     public int getProtectionCount() {
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             return Integer.decode(fetch("SELECT COUNT(*) AS count FROM " + prefix + "protections", "count").toString());
         });
     }
@@ -157,7 +318,7 @@ public class PhysDB extends Database {
      * @return the number of protected chests
      */
     public int getProtectionCount(Protection.Type type) {
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             return Integer.decode(fetch("SELECT COUNT(*) AS count FROM " + prefix + "protections WHERE type = " + type.ordinal(), "count").toString());
         });
     }
@@ -166,9 +327,24 @@ public class PhysDB extends Database {
      * @return the number of history items stored
      */
     public int getHistoryCount() {
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        int changes;
+        synchronized (historyCounts) {
+            if (historyCount >= 0) {
+                return historyCount;
+            }
+            changes = historyChanges;
+        }
+
+        int count = readAndThrowModuleExceptionIfFailing(() -> {
             return Integer.decode(fetch("SELECT COUNT(*) AS count FROM " + prefix + "history", "count").toString());
         });
+
+        synchronized (historyCounts) {
+            if (historyChanges == changes) {
+                historyCount = count;
+            }
+        }
+        return count;
     }
 
     /**
@@ -178,12 +354,13 @@ public class PhysDB extends Database {
      * @return the amount of protections they have
      */
     public int getProtectionCount(String player) {
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             int count = 0;
 
-            PreparedStatement statement = prepare("SELECT COUNT(*) as count FROM " + prefix + "protections WHERE owner = ?");
             UUID uuid = UUIDRegistry.getUUID(player);
-            statement.setString(1, uuid != null ? uuid.toString() : player);
+            String owner = uuid != null ? uuid.toString() : player;
+            PreparedStatement statement = prepare("SELECT COUNT(*) as count FROM " + prefix + "protections WHERE " + ownerCondition(owner));
+            bindOwner(statement, 1, owner);
 
             ResultSet set = statement.executeQuery();
 
@@ -198,18 +375,29 @@ public class PhysDB extends Database {
     }
 
     /**
-     * Get the amount of protections a player has
+     * Get the amount of history entries of a player
      *
      * @param player
-     * @return the amount of protections they have
+     * @return the amount of history entries they have
      */
     public int getHistoryCount(String player) {
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        UUID uuid = UUIDRegistry.getUUID(player);
+        String key = (uuid != null ? uuid.toString() : player).toLowerCase();
+
+        int changes;
+        synchronized (historyCounts) {
+            Integer cached = historyCounts.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            changes = historyChanges;
+        }
+
+        int loaded = readAndThrowModuleExceptionIfFailing(() -> {
             int count = 0;
 
-            PreparedStatement statement = prepare("SELECT COUNT(*) AS count FROM " + prefix + "history WHERE LOWER(player) = LOWER(?)");
-            UUID uuid = UUIDRegistry.getUUID(player);
-            statement.setString(1, uuid != null ? uuid.toString() : player);
+            PreparedStatement statement = prepare("SELECT COUNT(*) AS count FROM " + prefix + "history WHERE LOWER(player) = ?");
+            statement.setString(1, key);
             ResultSet set = statement.executeQuery();
 
             if (set.next()) {
@@ -220,6 +408,41 @@ public class PhysDB extends Database {
 
             return count;
         });
+
+        synchronized (historyCounts) {
+            if (historyChanges == changes) {
+                historyCounts.put(key, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Update the cached history counts after a history entry was inserted
+     *
+     * @param player
+     */
+    private void historyInserted(String player) {
+        synchronized (historyCounts) {
+            historyChanges++;
+            if (historyCount >= 0) {
+                historyCount++;
+            }
+            if (player != null) {
+                historyCounts.computeIfPresent(player.toLowerCase(), (key, count) -> count + 1);
+            }
+        }
+    }
+
+    /**
+     * Drop the cached history counts after history entries were deleted
+     */
+    private void historyRemoved() {
+        synchronized (historyCounts) {
+            historyChanges++;
+            historyCount = -1;
+            historyCounts.clear();
+        }
     }
 
     /**
@@ -229,13 +452,14 @@ public class PhysDB extends Database {
      * @return the amount of protections they have of blockId
      */
     public int getProtectionCount(String player, Material block) {
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             int count = 0;
 
-            PreparedStatement statement = prepare("SELECT COUNT(*) AS count FROM " + prefix + "protections WHERE owner = ? AND blockId = ?");
             UUID uuid = UUIDRegistry.getUUID(player);
-            statement.setString(1, uuid != null ? uuid.toString() : player);
-            statement.setInt(2, BlockMap.instance().getId(block));
+            String owner = uuid != null ? uuid.toString() : player;
+            PreparedStatement statement = prepare("SELECT COUNT(*) AS count FROM " + prefix + "protections WHERE " + ownerCondition(owner) + " AND blockId = ?");
+            int index = bindOwner(statement, 1, owner);
+            statement.setInt(index, BlockMap.instance().getId(block));
 
             ResultSet set = statement.executeQuery();
 
@@ -249,6 +473,29 @@ public class PhysDB extends Database {
         });
     }
 
+    /**
+     * Count the protections of an owner by block id
+     *
+     * @param owner
+     * @return the amount of protections by block id
+     */
+    public IntLongHashMap loadProtectionCounts(String owner) {
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            IntLongHashMap counts = new IntLongHashMap();
+
+            PreparedStatement statement = prepare("SELECT blockId, COUNT(*) AS count FROM " + prefix + "protections WHERE " + ownerCondition(owner) + " GROUP BY blockId");
+            bindOwner(statement, 1, owner);
+
+            try (ResultSet set = statement.executeQuery()) {
+                while (set.next()) {
+                    counts.put(set.getInt("blockId"), set.getLong("count"));
+                }
+            }
+
+            return counts;
+        });
+    }
+
     /**
      * Load the database and do any updating required or create the tables
      */
@@ -258,6 +505,9 @@ public class PhysDB extends Database {
             return;
         }
 
+        writeEncodedData = LWC.getInstance().getConfiguration().getBoolean("core.compactProtectionData", false);
+        writeChangeLog = LWC.getInstance().getConfiguration().getBoolean("database.changeLog.enabled", false);
+
         databaseVersion = 0;
         loadDatabaseVersion();
         entityLockingDatabaseVersion = 0;
@@ -332,6 +582,34 @@ public class PhysDB extends Database {
                 column = new Column("last_accessed");
                 column.setType("INTEGER");
                 protections.add(column);
+
+                column = new Column("cx");
+                column.setType("INTEGER");
+                protections.add(column);
+
+                column = new Column("cz");
+                column.setType("INTEGER");
+                protections.add(column);
+
+                column = new Column("worldId");
+                column.setType("INTEGER");
+                protections.add(column);
+
+                column = new Column("owner_msb");
+                column.setType("BIGINT");
+                protections.add(column);
+
+                column = new Column("owner_lsb");
+                column.setType("BIGINT");
+                protections.add(column);
+
+                column = new Column("entity_msb");
+                column.setType("BIGINT");
+                protections.add(column);
+
+                column = new Column("entity_lsb");
+                column.setType("BIGINT");
+                protections.add(column);
             }
 
             Table history = new Table(this, "history");
@@ -548,6 +826,30 @@ public class PhysDB extends Database {
             incrementDatabaseVersion(); 
         }
 
+        if (databaseVersion == 9) {
+            doUpdatesDatabaseVersion9();
+
+            incrementDatabaseVersion();
+        }
+
+        if (databaseVersion == 10) {
+            doUpdatesDatabaseVersion10();
+
+            incrementDatabaseVersion();
+        }
+
+        if (databaseVersion == 11) {
+            doUpdatesDatabaseVersion11();
+
+            incrementDatabaseVersion();
+        }
+
+        if (databaseVersion == 12) {
+            doUpdatesDatabaseVersion12();
+
+            incrementDatabaseVersion();
+        }
+
         if (entityLockingDatabaseVersion == 0) {
             incrementEntityLockingDatabaseVersion();
         }
@@ -614,7 +916,7 @@ public class PhysDB extends Database {
      * @return the value found, otherwise NULL if none exists
      */
     public String getInternal(String key) {
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             String value = null;
             PreparedStatement statement = prepare("SELECT value FROM " + prefix + "internal WHERE name = ?");
             statement.setString(1, key);
@@ -759,12 +1061,7 @@ public class PhysDB extends Database {
             return cached;
         }
 
-        Protection protection = runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE id = ?");
-            statement.setInt(1, id);
-
-            return resolveProtection(statement);
-        });
+        Protection protection = queryProtection(id);
 
         if (protection != null) {
             cache.addProtection(protection);
@@ -772,6 +1069,21 @@ public class PhysDB extends Database {
         return protection;
     }
 
+    /**
+     * Load a protection with the given id without using the cache. Can be called from any thread.
+     *
+     * @param id
+     * @return the protection or null if it does not exist
+     */
+    public Protection queryProtection(int id) {
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections WHERE id = ?");
+            statement.setInt(1, id);
+
+            return resolveProtection(statement);
+        });
+    }
+
     /**
      * Load protections using a specific type
      *
@@ -779,8 +1091,8 @@ public class PhysDB extends Database {
      * @return the Protection object
      */
     public List<Protection> loadProtectionsUsingType(Protection.Type type) {
-        return runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE type = ?");
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections WHERE type = ?");
             statement.setInt(1, type.ordinal());
 
             return resolveProtections(statement);
@@ -794,21 +1106,41 @@ public class PhysDB extends Database {
      * @return
      */
     private Protection resolveProtection(ResultSet set) throws SQLException {
+        int protectionId = set.getInt("id");
+
+        // the database might not contain the latest changes yet
+        Protection queued = LWC.getInstance().getDatabaseThread().getQueuedProtection(protectionId);
+        if (queued != null) {
+            return queued;
+        }
+
         Protection protection = new Protection();
+        readProtection(protection, protectionId, set);
 
-        int protectionId = set.getInt("id");
+        // the protection matches its row now
+        protection.clearModifiedFields();
+        return protection;
+    }
+
+    /**
+     * Fill a new protection with the columns of its row
+     *
+     * @param protection
+     * @param protectionId
+     * @param set
+     */
+    private void readProtection(Protection protection, int protectionId, ResultSet set) throws SQLException {
         int x = set.getInt("x");
         int y = set.getInt("y");
         int z = set.getInt("z");
-        String entityidString = set.getString("entityid");
-        UUID entityid = entityidString == null ? null : UUID.fromString(entityidString);
+        UUID entityid = getUUID(set, "entity_msb", "entity_lsb");
         int blockId = set.getInt("blockId");
         int type = set.getInt("type");
-        String world = set.getString("world");
-        String owner = set.getString("owner");
+        String world = worldMap.getName(set.getInt("worldId"));
+        UUID ownerId = getUUID(set, "owner_msb", "owner_lsb");
         String password = set.getString("password");
         String date = set.getString("date");
-        long lastAccessed = set.getLong("last_accessed");
+        long lastAccessed = Math.max(set.getLong("last_accessed"), LWC.getInstance().getDatabaseThread().getLastAccessed(protectionId));
 
         protection.setId(protectionId);
         protection.setX(x);
@@ -822,29 +1154,43 @@ public class PhysDB extends Database {
         protection.setEntityId(entityid);
         protection.setType(Protection.Type.values()[type]);
         protection.setWorld(world);
-        protection.setOwner(owner);
+        if (ownerId != null) {
+            protection.setOwner(ownerId);
+        } else {
+            protection.setOwner(set.getString("owner"));
+        }
         protection.setPassword(password);
         protection.setCreation(date);
         protection.setLastAccessed(lastAccessed);
+        protection.setCounted(protection.getOwner(), blockId);
 
         // check for oh so beautiful data!
         String data = set.getString("data");
 
         if (data == null || data.isBlank()) {
-            return protection;
+            return;
+        }
+
+        if (ProtectionDataCodec.isEncoded(data)) {
+            try {
+                ProtectionDataCodec.decode(data, protection::addPermission, protection::addFlag);
+            } catch (IllegalArgumentException e) {
+                // invalid data is ignored, just like invalid JSON
+            }
+            return;
         }
 
         // rev up them JSON parsers!
         Object object = null;
 
         try {
-            object = jsonParser.parse(data);
+            object = jsonParser.get().parse(data);
         } catch (ParseException e) {
-            return protection;
+            return;
         }
 
         if (!(object instanceof JSONObject root)) {
-            return protection;
+            return;
         }
 
         // Attempt to parse rights
@@ -879,8 +1225,116 @@ public class PhysDB extends Database {
                 }
             }
         }
+    }
 
-        return protection;
+    /**
+     * Read a UUID stored in two numeric columns
+     *
+     * @param set
+     * @param mostSignificant
+     * @param leastSignificant
+     * @return the UUID or null if the columns are null
+     */
+    private static UUID getUUID(ResultSet set, String mostSignificant, String leastSignificant) throws SQLException {
+        long most = set.getLong(mostSignificant);
+        if (set.wasNull()) {
+            return null;
+        }
+        return new UUID(most, set.getLong(leastSignificant));
+    }
+
+    /**
+     * Bind a UUID to two numeric parameters
+     *
+     * @param statement
+     * @param index
+     * @param uuid
+     *            the UUID or null
+     * @return the index of the next parameter
+     */
+    private static int bindUUID(PreparedStatement statement, int index, UUID uuid) throws SQLException {
+        if (uuid == null) {
+            statement.setNull(index++, Types.BIGINT);
+            statement.setNull(index++, Types.BIGINT);
+        } else {
+            statement.setLong(index++, uuid.getMostSignificantBits());
+            statement.setLong(index++, uuid.getLeastSignificantBits());
+        }
+        return index;
+    }
+
+    /**
+     * Get the condition matching the protections of an owner. Owners that are UUIDs are stored in two numeric
+     * columns, the owner column only holds the names of owners that were never converted.
+     *
+     * @param owner
+     * @return the condition, its parameters are bound by {@link #bindOwner(PreparedStatement, int, String)}
+     */
+    private static String ownerCondition(String owner) {
+        return UUIDRegistry.isValidUUID(owner) ? "owner_msb = ? AND owner_lsb = ?" : "owner = ?";
+    }
+
+    /**
+     * Bind the parameters of {@link #ownerCondition(String)}
+     *
+     * @param statement
+     * @param index
+     * @param owner
+     * @return the index of the next parameter
+     */
+    private static int bindOwner(PreparedStatement statement, int index, String owner) throws SQLException {
+        if (UUIDRegistry.isValidUUID(owner)) {
+            return bindUUID(statement, index, UUID.fromString(owner));
+        }
+        statement.setString(index++, owner);
+        return index;
+    }
+
+    /**
+     * Bind the worldId column
+     *
+     * @param statement
+     * @param index
+     * @param worldId
+     *            the id of the world or 0 if the protection has no world
+     */
+    private static void bindWorld(PreparedStatement statement, int index, int worldId) throws SQLException {
+        if (worldId == 0) {
+            statement.setNull(index, Types.INTEGER);
+        } else {
+            statement.setInt(index, worldId);
+        }
+    }
+
+    /**
+     * Bind the owner, owner_msb and owner_lsb columns
+     *
+     * @param statement
+     * @param index
+     * @param ownerId
+     *            the UUID of the owner or null if it is a name
+     * @param ownerName
+     *            the name of the owner, only written if it is not a UUID
+     * @return the index of the next parameter
+     */
+    private static int bindOwnerColumns(PreparedStatement statement, int index, UUID ownerId, String ownerName) throws SQLException {
+        statement.setString(index++, ownerId == null ? ownerName : null);
+        return bindUUID(statement, index, ownerId);
+    }
+
+    /**
+     * Get a condition matching the protections of an owner with its values inlined, for the bulk operations that
+     * take raw SQL conditions. Names are matched case insensitive.
+     *
+     * @param owner
+     * @return the condition
+     */
+    public String getOwnerCondition(String owner) {
+        if (UUIDRegistry.isValidUUID(owner)) {
+            UUID uuid = UUID.fromString(owner);
+            return "owner_msb = " + uuid.getMostSignificantBits() + " AND owner_lsb = " + uuid.getLeastSignificantBits();
+        }
+        return "LOWER(owner) = LOWER('" + owner.replace("'", "''") + "')";
     }
 
     /**
@@ -936,8 +1390,8 @@ public class PhysDB extends Database {
         }
         int finalPrecacheSize = precacheSize;
 
-        List<Protection> protections = runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections ORDER BY id DESC LIMIT ?");
+        List<Protection> protections = readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections ORDER BY id DESC LIMIT ?");
             statement.setInt(1, finalPrecacheSize);
             statement.setFetchSize(10);
 
@@ -973,14 +1427,11 @@ public class PhysDB extends Database {
      * @return the Protection object
      */
     private Protection loadProtection(String worldName, int x, int y, int z, boolean ignoreProtectionCount) {
-        // the unique key to use in the cache
-        CacheKey cacheKey = ProtectionCache.cacheKey(worldName, x, y, z);
-
         // the protection cache
         ProtectionCache cache = LWC.getInstance().getProtectionCache();
 
         // check if the protection is already cached
-        Protection cached = cache.getProtection(cacheKey);
+        Protection cached = cache.getProtection(worldName, x, y, z);
         if (cached != null) {
             // System.out.println("loadProtection() => CACHE HIT");
             if (x == y && x == z) {
@@ -990,7 +1441,16 @@ public class PhysDB extends Database {
             }
             return cached;
         }
-        if (cache.isDirectKnownNull(cacheKey) || cache.isKnownNull(cacheKey)) {
+
+        // in loaded chunks all protected positions are known, so unprotected blocks never hit the database
+        Presence presence = cache.getPresence(worldName, x, y, z);
+        if (presence == Presence.UNKNOWN && cache.isChunkLoaded(worldName, x, z)) {
+            int version = cache.getPresenceVersion(worldName, x >> 4, z >> 4);
+            cache.setPresence(worldName, x >> 4, z >> 4, loadProtectionPresence(worldName, x >> 4, z >> 4), version);
+            presence = cache.getPresence(worldName, x, y, z);
+        }
+
+        if (presence == Presence.ABSENT || cache.isKnownNull(worldName, x, y, z)) {
             if (x == y && x == z) {
                 Statistics.addEntityCacheHitNull();
             } else {
@@ -1007,15 +1467,7 @@ public class PhysDB extends Database {
         }
         // System.out.println("loadProtection() => QUERYING");
 
-        Protection protection = runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE x = ? AND y = ? AND z = ? AND world = ? AND entityid IS NULL");
-            statement.setInt(1, x);
-            statement.setInt(2, y);
-            statement.setInt(3, z);
-            statement.setString(4, worldName);
-
-            return resolveProtection(statement);
-        });
+        Protection protection = queryProtection(worldName, x, y, z);
 
         if (protection != null) {
             // cache the protection
@@ -1031,12 +1483,62 @@ public class PhysDB extends Database {
             } else {
                 Statistics.addBlockCacheMissNull();
             }
-            cache.addDirectKnownNull(cacheKey);
+            cache.markAbsent(worldName, x, y, z);
         }
 
         return protection;
     }
 
+    /**
+     * Load the block protection at the given coordinates without using the cache. Can be called from any thread.
+     *
+     * @param worldName
+     * @param x
+     * @param y
+     * @param z
+     * @return the protection or null if there is none
+     */
+    public Protection queryProtection(String worldName, int x, int y, int z) {
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections WHERE x = ? AND y = ? AND z = ? AND worldId = ? AND entity_msb IS NULL");
+            statement.setInt(1, x);
+            statement.setInt(2, y);
+            statement.setInt(3, z);
+            statement.setInt(4, worldMap.getId(worldName));
+
+            return resolveProtection(statement);
+        });
+    }
+
+    /**
+     * Load the positions of all block protections in a chunk
+     *
+     * @param worldName
+     * @param chunkX
+     * @param chunkZ
+     * @return the positions as {@link ChunkIndex#localKey(int, int, int)}
+     */
+    public long[] loadProtectionPresence(String worldName, int chunkX, int chunkZ) {
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT x, y, z FROM " + prefix + "protections WHERE worldId = ? AND cx = ? AND cz = ? AND entity_msb IS NULL");
+            statement.setInt(1, worldMap.getId(worldName));
+            statement.setInt(2, chunkX);
+            statement.setInt(3, chunkZ);
+
+            long[] positions = new long[16];
+            int count = 0;
+            ResultSet set = statement.executeQuery();
+            while (set.next()) {
+                if (count == positions.length) {
+                    positions = Arrays.copyOf(positions, count * 2);
+                }
+                positions[count++] = ChunkIndex.localKey(set.getInt("x"), set.getInt("y"), set.getInt("z"));
+            }
+            set.close();
+            return Arrays.copyOf(positions, count);
+        });
+    }
+
     /**
      * Load a protection for an entity at the given coordinates
      *
@@ -1060,12 +1562,7 @@ public class PhysDB extends Database {
         }
         // System.out.println("loadProtection() => QUERYING");
 
-        Protection protection = runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE entityid = ?");
-            statement.setString(1, entityId.toString());
-
-            return resolveProtection(statement);
-        });
+        Protection protection = queryProtection(entityId);
 
         if (protection != null) {
             // cache the protection
@@ -1079,14 +1576,66 @@ public class PhysDB extends Database {
         return protection;
     }
 
+    /**
+     * Load the protection of an entity without using the cache. Can be called from any thread.
+     *
+     * @param entityId
+     * @return the protection or null if there is none
+     */
+    public Protection queryProtection(UUID entityId) {
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections WHERE entity_msb = ? AND entity_lsb = ?");
+            bindUUID(statement, 1, entityId);
+
+            return resolveProtection(statement);
+        });
+    }
+
+    /**
+     * Load the protections of many entities at once without using the cache. Can be called from any thread.
+     *
+     * @param entityIds
+     * @return the protections found, or null if the query failed
+     */
+    public List<Protection> queryProtections(Collection<UUID> entityIds) {
+        return readAndLogException(() -> {
+            List<UUID> ids = new ArrayList<>(entityIds);
+            Set<UUID> wanted = new HashSet<>(ids);
+            List<Protection> protections = new ArrayList<>();
+
+            try (Statement select = getConnection().createStatement()) {
+                for (int from = 0; from < ids.size(); from += ENTITY_BATCH_SIZE) {
+                    // the most significant bits are indexed, the least significant ones are compared after loading
+                    StringBuilder msbs = new StringBuilder();
+                    for (UUID entityId : ids.subList(from, Math.min(from + ENTITY_BATCH_SIZE, ids.size()))) {
+                        if (msbs.length() > 0) {
+                            msbs.append(",");
+                        }
+                        msbs.append(entityId.getMostSignificantBits());
+                    }
+
+                    try (ResultSet set = select.executeQuery("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections WHERE entity_msb IN (" + msbs + ")")) {
+                        while (set.next()) {
+                            Protection protection = resolveProtection(set);
+                            if (wanted.contains(protection.getEntityId())) {
+                                protections.add(protection);
+                            }
+                        }
+                    }
+                }
+            }
+            return protections;
+        });
+    }
+
     /**
      * Load all protections (use sparingly !!)
      *
      * @return
      */
     public List<Protection> loadProtections() {
-        return runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections");
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections");
 
             return resolveProtections(statement);
         });
@@ -1098,13 +1647,222 @@ public class PhysDB extends Database {
      * @return
      */
     public List<Protection> loadProtectionsOrderedByChunk() {
-        return runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed, x>>4 AS xshift4, z>>4 AS zshift4 FROM " + prefix + "protections ORDER BY xshift4, zshift4");
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections ORDER BY worldId, cx, cz");
 
             return resolveProtections(statement);
         });
     }
 
+    /**
+     * Iterate over protections in the order of their ids without loading them all into memory. The consumer runs on
+     * the calling thread and may use the database.
+     *
+     * @param where
+     *            the condition the protections have to match or null for all protections
+     * @param consumer
+     */
+    public void forEachProtection(String where, Consumer<Protection> consumer) {
+        forEachRow(PROTECTION_COLUMNS, "protections", where, new String[] { "id" }, this::resolveProtection, consumer);
+    }
+
+    /**
+     * Iterate over protections ordered by the chunk they are in without loading them all into memory. Protections
+     * without a world are skipped. The consumer runs on the calling thread and may use the database.
+     *
+     * @param where
+     *            the condition the protections have to match or null for all protections
+     * @param consumer
+     */
+    public void forEachProtectionOrderedByChunk(String where, Consumer<Protection> consumer) {
+        String condition = "worldId IS NOT NULL" + (where == null || where.isBlank() ? "" : " AND (" + where + ")");
+        forEachRow(PROTECTION_COLUMNS + ", cx, cz", "protections", condition, new String[] { "worldId", "cx", "cz", "id" }, this::resolveProtection, consumer);
+    }
+
+    /**
+     * Iterate over the rows of a table without loading them all into memory. On MySQL the rows are streamed from the
+     * server on a separate connection. Otherwise they are read in pages, as an open read transaction would block all
+     * writes to an SQLite database while the consumer runs.
+     *
+     * @param columns
+     *            the selected columns, they have to include the key columns
+     * @param table
+     * @param where
+     *            the condition or null
+     * @param key
+     *            the columns the rows are ordered by, they must not be null and together be unique
+     * @param resolver
+     * @param consumer
+     */
+    private <T> void forEachRow(String columns, String table, String where, String[] key, RowResolver<T> resolver, Consumer<T> consumer) {
+        String condition = where == null || where.isBlank() ? null : "(" + where + ")";
+        String orderBy = " ORDER BY " + String.join(", ", key);
+
+        if (currentType == Type.MySQL && hasReadConnections()) {
+            String sql = "SELECT " + columns + " FROM " + prefix + table + (condition == null ? "" : " WHERE " + condition) + orderBy;
+            try {
+                readDetached(connection -> {
+                    try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                        statement.setFetchSize(Integer.MIN_VALUE);
+
+                        try (ResultSet set = statement.executeQuery(sql)) {
+                            while (set.next()) {
+                                T row = resolver.resolve(set);
+                                if (row != null) {
+                                    consumer.accept(row);
+                                }
+                            }
+                        }
+                    }
+                    return null;
+                });
+            } catch (SQLException e) {
+                throw new ModuleException(e);
+            }
+            return;
+        }
+
+        // seek behind the last row of the previous page: k1 > ? OR (k1 = ? AND (k2 > ? OR ...))
+        StringBuilder seek = new StringBuilder(key[key.length - 1] + " > ?");
+        for (int i = key.length - 2; i >= 0; i--) {
+            seek.insert(0, key[i] + " > ? OR (" + key[i] + " = ? AND (").append("))");
+        }
+        String firstPage = "SELECT " + columns + " FROM " + prefix + table + (condition == null ? "" : " WHERE " + condition) + orderBy + " LIMIT " + CURSOR_PAGE_SIZE;
+        String nextPage = "SELECT " + columns + " FROM " + prefix + table + " WHERE " + (condition == null ? "" : condition + " AND ") + "(" + seek + ")" + orderBy + " LIMIT " + CURSOR_PAGE_SIZE;
+
+        Object[] lastKey = null;
+        while (true) {
+            Object[] from = lastKey;
+            Page<T> page = readAndThrowModuleExceptionIfFailing(() -> {
+                PreparedStatement statement = prepare(from == null ? firstPage : nextPage);
+                if (from != null) {
+                    int index = 1;
+                    for (int i = 0; i < key.length; i++) {
+                        statement.setObject(index++, from[i]);
+                        if (i < key.length - 1) {
+                            statement.setObject(index++, from[i]);
+                        }
+                    }
+                }
+
+                List<T> rows = new ArrayList<>();
+                Object[] last = null;
+                int count = 0;
+                try (ResultSet set = statement.executeQuery()) {
+                    while (set.next()) {
+                        count++;
+                        T row = resolver.resolve(set);
+                        if (row != null) {
+                            rows.add(row);
+                        }
+                        last = new Object[key.length];
+                        for (int i = 0; i < key.length; i++) {
+                            last[i] = set.getObject(key[i]);
+                        }
+                    }
+                }
+
+                // a page that is not full is the last one
+                return new Page<>(rows, count < CURSOR_PAGE_SIZE ? null : last);
+            });
+
+            for (T row : page.rows()) {
+                consumer.accept(row);
+            }
+
+            if (page.lastKey() == null) {
+                return;
+            }
+            lastKey = page.lastKey();
+        }
+    }
+
+    /**
+     * Load a page of rows ordered by descending id using keyset pagination. Instead of skipping all rows before the
+     * page, the query seeks behind the last id of the previous page, which is remembered for every loaded page. A page that was not
+     * reached yet is found by skipping ids from the closest known page only.
+     *
+     * @param columns
+     * @param table
+     * @param where
+     *            a condition or null
+     * @param parameters
+     *            the parameters of the condition, or null
+     * @param start
+     *            the offset of the page, the pages are listed from the start again when it is 0
+     * @param count
+     * @param resolver
+     * @return the rows of the page
+     */
+    private <T> List<T> loadPage(String columns, String table, String where, Object[] parameters, int start, int count, RowResolver<T> resolver) {
+        String query = table + ":" + where + ":" + Arrays.toString(parameters);
+        String condition = where == null ? "" : "(" + where + ") AND ";
+
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            int beforeId = Integer.MAX_VALUE;
+            if (start <= 0) {
+                pageCursors.reset(query);
+            } else {
+                Map.Entry<Integer, Integer> known = pageCursors.floor(query, start);
+                int knownStart = 0;
+                if (known != null) {
+                    knownStart = known.getKey();
+                    beforeId = known.getValue();
+                }
+
+                if (knownStart < start) {
+                    // only the ids between the known page and the requested one are skipped
+                    PreparedStatement statement = prepare("SELECT id FROM " + prefix + table + " WHERE " + condition + "id < ? ORDER BY id DESC LIMIT 1 OFFSET ?");
+                    int index = 1;
+                    if (parameters != null) {
+                        for (Object parameter : parameters) {
+                            statement.setObject(index++, parameter);
+                        }
+                    }
+                    statement.setInt(index++, beforeId);
+                    statement.setInt(index, start - knownStart - 1);
+
+                    try (ResultSet set = statement.executeQuery()) {
+                        if (!set.next()) {
+                            return new ArrayList<T>();
+                        }
+                        beforeId = set.getInt("id");
+                    }
+                    pageCursors.put(query, start, beforeId);
+                }
+            }
+
+            PreparedStatement statement = prepare("SELECT " + columns + " FROM " + prefix + table + " WHERE " + condition + "id < ? ORDER BY id DESC LIMIT ?");
+            int index = 1;
+            if (parameters != null) {
+                for (Object parameter : parameters) {
+                    statement.setObject(index++, parameter);
+                }
+            }
+            statement.setInt(index++, beforeId);
+            statement.setInt(index, count);
+
+            List<T> rows = new ArrayList<>();
+            int found = 0;
+            int lastId = 0;
+            try (ResultSet set = statement.executeQuery()) {
+                while (set.next()) {
+                    found++;
+                    lastId = set.getInt("id");
+                    T row = resolver.resolve(set);
+                    if (row != null) {
+                        rows.add(row);
+                    }
+                }
+            }
+
+            if (found == count) {
+                pageCursors.put(query, start + count, lastId);
+            }
+            return rows;
+        });
+    }
+
     /**
      * Remove all protections for a given player
      *
@@ -1122,6 +1880,26 @@ public class PhysDB extends Database {
         return removed;
     }
 
+    /**
+     * Load all block protections in a chunk
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     * @return the protections or null if they could not be loaded
+     */
+    public List<Protection> loadProtectionsInChunk(String world, int chunkX, int chunkZ) {
+        return readAndLogException(() -> {
+            PreparedStatement statement = prepare("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections WHERE worldId = ? AND cx = ? AND cz = ? AND entity_msb IS NULL");
+
+            statement.setInt(1, worldMap.getId(world));
+            statement.setInt(2, chunkX);
+            statement.setInt(3, chunkZ);
+
+            return resolveProtections(statement);
+        });
+    }
+
     /**
      * Load all protections in the coordinate ranges
      *
@@ -1135,16 +1913,20 @@ public class PhysDB extends Database {
      * @return list of Protection objects found
      */
     public List<Protection> loadProtections(String world, int x1, int x2, int y1, int y2, int z1, int z2) {
-        return runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE world = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ? AND z >= ? AND z <= ? AND entityid IS NULL");
-
-            statement.setString(1, world);
-            statement.setInt(2, x1);
-            statement.setInt(3, x2);
-            statement.setInt(4, y1);
-            statement.setInt(5, y2);
-            statement.setInt(6, z1);
-            statement.setInt(7, z2);
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections WHERE worldId = ? AND cx >= ? AND cx <= ? AND cz >= ? AND cz <= ? AND x >= ? AND x <= ? AND y >= ? AND y <= ? AND z >= ? AND z <= ? AND entity_msb IS NULL");
+
+            statement.setInt(1, worldMap.getId(world));
+            statement.setInt(2, x1 >> 4);
+            statement.setInt(3, x2 >> 4);
+            statement.setInt(4, z1 >> 4);
+            statement.setInt(5, z2 >> 4);
+            statement.setInt(6, x1);
+            statement.setInt(7, x2);
+            statement.setInt(8, y1);
+            statement.setInt(9, y2);
+            statement.setInt(10, z1);
+            statement.setInt(11, z2);
 
             return resolveProtections(statement);
         });
@@ -1152,23 +1934,106 @@ public class PhysDB extends Database {
 
     /**
      * Load protections by a player if he is the owner of the protection or has expicit permission to it.
-     * This requires a full table scan so can be slow.
+     * The permissions are looked up in the protection_rights table.
      *
      * @param player
      * @return
      */
     public List<Protection> loadProtectionsByPlayerAlsoIfNotOwner(String player) {
-        return runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE owner = ? OR data LIKE ?");
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            String columns = PROTECTION_COLUMNS;
             UUID uuid = UUIDRegistry.getUUID(player);
             String playerString = uuid != null ? uuid.toString() : player;
-            statement.setString(1, playerString);
-            statement.setString(2, "%\"" + playerString + "\"%");
+            PreparedStatement statement = prepare("SELECT " + columns + " FROM " + prefix + "protections WHERE " + ownerCondition(playerString) + " UNION SELECT " + columns + " FROM " + prefix + "protections WHERE id IN (SELECT protectionId FROM " + prefix + "protection_rights WHERE name = ? AND type = ?)");
+            int index = bindOwner(statement, 1, playerString);
+            statement.setString(index++, playerString);
+            statement.setInt(index, Permission.Type.PLAYER.ordinal());
 
             return resolveProtections(statement);
         });
     }
 
+    /**
+     * Transfer all protections of a player to another player, including the rights the player has on protections
+     * of others. The owners are changed with a single update, only the protections the player has rights on are
+     * loaded to rewrite their data. Queued protections have to be written before, as they would overwrite the
+     * changes.
+     *
+     * @param oldOwner
+     * @param newOwner
+     * @return the ids of the changed protections
+     */
+    public Set<Integer> transferProtections(String oldOwner, String newOwner) {
+        return runAndThrowModuleExceptionIfFailing(() -> {
+            Set<Integer> changed = new HashSet<>();
+
+            PreparedStatement statement = prepare("SELECT id FROM " + prefix + "protections WHERE " + ownerCondition(oldOwner));
+            bindOwner(statement, 1, oldOwner);
+            try (ResultSet set = statement.executeQuery()) {
+                while (set.next()) {
+                    changed.add(set.getInt("id"));
+                }
+            }
+
+            List<Integer> withRights = new ArrayList<>();
+            // names are matched ignoring the case, like the rights in the data column
+            statement = prepare("SELECT DISTINCT protectionId FROM " + prefix + "protection_rights WHERE LOWER(name) = ? AND type = ?");
+            statement.setString(1, oldOwner.toLowerCase());
+            statement.setInt(2, Permission.Type.PLAYER.ordinal());
+            try (ResultSet set = statement.executeQuery()) {
+                while (set.next()) {
+                    withRights.add(set.getInt("protectionId"));
+                }
+            }
+            changed.addAll(withRights);
+
+            statement = prepare("UPDATE " + prefix + "protections SET owner = ?, owner_msb = ?, owner_lsb = ? WHERE " + ownerCondition(oldOwner));
+            int index = bindOwnerColumns(statement, 1, UUIDRegistry.isValidUUID(newOwner) ? UUID.fromString(newOwner) : null, newOwner);
+            bindOwner(statement, index, oldOwner);
+            statement.executeUpdate();
+
+            // the rights are stored in the data column as well
+            PreparedStatement updateData = prepare("UPDATE " + prefix + "protections SET data = ? WHERE id = ?");
+            try (Statement select = getConnection().createStatement()) {
+                for (int from = 0; from < withRights.size(); from += TRANSFER_BATCH_SIZE) {
+                    StringBuilder ids = new StringBuilder();
+                    for (int id : withRights.subList(from, Math.min(from + TRANSFER_BATCH_SIZE, withRights.size()))) {
+                        if (ids.length() > 0) {
+                            ids.append(",");
+                        }
+                        ids.append(id);
+                    }
+
+                    try (ResultSet set = select.executeQuery("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections WHERE id IN (" + ids + ")")) {
+                        while (set.next()) {
+                            Protection protection = resolveProtection(set);
+                            for (Permission permission : protection.getPermissions()) {
+                                if (permission.getType() == Permission.Type.PLAYER && oldOwner.equalsIgnoreCase(permission.getName())) {
+                                    permission.setName(newOwner);
+                                }
+                            }
+
+                            updateData.setString(1, ProtectionRow.of(protection, Field.DATA.bit()).data());
+                            updateData.setInt(2, protection.getId());
+                            updateData.addBatch();
+                        }
+                    }
+                    updateData.executeBatch();
+                }
+            }
+
+            statement = prepare("UPDATE " + prefix + "protection_rights SET name = ? WHERE LOWER(name) = ? AND type = ?");
+            statement.setString(1, newOwner);
+            statement.setString(2, oldOwner.toLowerCase());
+            statement.setInt(3, Permission.Type.PLAYER.ordinal());
+            statement.executeUpdate();
+
+            logChanges(ChangeLog.Operation.SAVE, changed);
+
+            return changed;
+        });
+    }
+
     /**
      * Load protections by a player
      *
@@ -1176,10 +2041,11 @@ public class PhysDB extends Database {
      * @return
      */
     public List<Protection> loadProtectionsByPlayer(String player) {
-        return runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE owner = ?");
+        return readAndThrowModuleExceptionIfFailing(() -> {
             UUID uuid = UUIDRegistry.getUUID(player);
-            statement.setString(1, uuid != null ? uuid.toString() : player);
+            String owner = uuid != null ? uuid.toString() : player;
+            PreparedStatement statement = prepare("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections WHERE " + ownerCondition(owner));
+            bindOwner(statement, 1, owner);
 
             return resolveProtections(statement);
         });
@@ -1195,14 +2061,8 @@ public class PhysDB extends Database {
      */
     public List<Protection> loadProtectionsByPlayer(String player, int start, int count) {
         UUID uuid = UUIDRegistry.getUUID(player);
-        return runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE owner = ? ORDER BY id DESC limit ?,?");
-            statement.setString(1, uuid != null ? uuid.toString() : player);
-            statement.setInt(2, start);
-            statement.setInt(3, count);
-
-            return resolveProtections(statement);
-        });
+        Object[] parameters = uuid != null ? new Object[] { uuid.getMostSignificantBits(), uuid.getLeastSignificantBits() } : new Object[] { player };
+        return loadPage(PROTECTION_COLUMNS, "protections", ownerCondition(uuid != null ? uuid.toString() : player), parameters, start, count, this::resolveProtection);
     }
 
     /**
@@ -1229,40 +2089,32 @@ public class PhysDB extends Database {
 
     private Protection registerProtection(int blockId, Protection.Type type, String world, String player, String data, int x, int y, int z, UUID entityId) {
         ProtectionCache cache = LWC.getInstance().getProtectionCache();
+        long now = System.currentTimeMillis();
 
-        runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("INSERT INTO " + prefix + "protections (blockId, type, world, owner, password, x, y, z, entityid, date, last_accessed) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-
-            statement.setInt(1, blockId);
-            statement.setInt(2, type.ordinal());
-            statement.setString(3, world);
-            statement.setString(4, player);
-            statement.setString(5, data);
-            statement.setInt(6, x);
-            statement.setInt(7, y);
-            statement.setInt(8, z);
-            statement.setString(9, entityId != null ? entityId.toString() : null);
-            statement.setString(10, new Timestamp(new Date().getTime()).toString());
-            statement.setLong(11, System.currentTimeMillis() / 1000L);
-
-            statement.executeUpdate();
-        });
+        // the protection is built in memory instead of being loaded again after inserting it
+        Protection protection = new Protection();
+        protection.setX(x);
+        protection.setY(y);
+        protection.setZ(z);
+        if (blockId == EntityBlock.ENTITY_BLOCK_ID) {
+            protection.setIsEntity(true);
+        } else {
+            protection.setBlockMaterial(BlockMap.instance().getMaterial(blockId));
+        }
+        protection.setEntityId(entityId);
+        protection.setType(type);
+        protection.setWorld(world);
+        protection.setOwner(player);
+        protection.setPassword(data);
+        protection.setCreationTime(now);
+        protection.setLastAccessed(now / 1000L);
 
         // We need to create the initial transaction for this protection
         // this transaction is viewable and modifiable during
         // POST_REGISTRATION
-        if (entityId == null) {
-            cache.remove(ProtectionCache.cacheKey(world, x, y, z));
-        } else {
-            cache.remove(entityId);
-        }
-
-        Protection protection = entityId != null ? loadProtection(entityId, true) : loadProtection(world, x, y, z, true);
-        protection.removeCache();
-
-        // if history logging is enabled, create it
+        History transaction = null;
         if (LWC.getInstance().isHistoryEnabled()) {
-            History transaction = protection.createHistoryObject();
+            transaction = protection.createHistoryObject();
 
             transaction.setPlayer(player);
             transaction.setType(History.Type.TRANSACTION);
@@ -1270,15 +2122,66 @@ public class PhysDB extends Database {
 
             // store the player that created the protection
             transaction.addMetaData("creator=" + player);
+        }
 
-            // now sync the history object to the database
-            transaction.saveNow();
+        History history = transaction;
+        int worldId = world == null ? 0 : worldMap.registerOrGetId(world);
+        runAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("INSERT INTO " + prefix + "protections (blockId, type, worldId, owner, owner_msb, owner_lsb, password, x, y, z, entity_msb, entity_lsb, date, last_accessed, cx, cz) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", true);
+
+            statement.setInt(1, blockId);
+            statement.setInt(2, type.ordinal());
+            bindWorld(statement, 3, worldId);
+            int index = bindOwnerColumns(statement, 4, protection.getOwnerUUID(), player);
+            statement.setString(index++, data);
+            statement.setInt(index++, x);
+            statement.setInt(index++, y);
+            statement.setInt(index++, z);
+            index = bindUUID(statement, index, entityId);
+            statement.setString(index++, new Timestamp(now).toString());
+            statement.setLong(index++, now / 1000L);
+            statement.setInt(index++, x >> 4);
+            statement.setInt(index, z >> 4);
+
+            statement.executeUpdate();
+
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                if (!generatedKeys.next()) {
+                    throw new SQLException("No id was generated for the protection at " + world + " " + x + " " + y + " " + z);
+                }
+                protection.setId(generatedKeys.getInt(1));
+            }
+
+            // written within the same transaction as the protection
+            if (history != null) {
+                // a failed attempt might have assigned an id already
+                history.setExists(false);
+                history.setProtectionId(protection.getId());
+                saveHistory(history);
+            }
+
+            logChanges(ChangeLog.Operation.REGISTER, Collections.singletonList(protection.getId()));
+        });
+
+        // the protection matches its row now
+        protection.clearModifiedFields();
+
+        if (entityId == null) {
+            cache.remove(world, x, y, z);
+            cache.markPresent(world, x, y, z);
+        } else {
+            cache.remove(entityId);
         }
+        protection.removeCache();
 
         // Cache it
         cache.addProtection(protection);
         protectionCount++;
 
+        LWC.getInstance().getProtectionCounts().add(player, blockId, 1);
+        protection.setCounted(player, blockId);
+        LWC.getInstance().getPersistentProtectionIds().registered(protection);
+
         // return the newly created protection
         return protection;
     }
@@ -1289,6 +2192,7 @@ public class PhysDB extends Database {
      * @param history
      */
     public void saveHistory(History history) {
+        boolean inserting = !history.doesExist();
         runAndThrowModuleExceptionIfFailing(() -> {
             PreparedStatement statement;
 
@@ -1329,6 +2233,10 @@ public class PhysDB extends Database {
                 }
             }
         });
+
+        if (inserting) {
+            historyInserted(history.getPlayer());
+        }
     }
 
     /**
@@ -1395,7 +2303,7 @@ public class PhysDB extends Database {
             return Collections.emptyList();
         }
 
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             List<History> temp = new ArrayList<>();
             PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE protectionId = ? ORDER BY id DESC");
             statement.setInt(1, protection.getId());
@@ -1437,7 +2345,7 @@ public class PhysDB extends Database {
             return Collections.emptyList();
         }
 
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             List<History> temp = new ArrayList<>();
             PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE LOWER(player) = LOWER(?) ORDER BY id DESC");
             statement.setString(1, player);
@@ -1469,7 +2377,7 @@ public class PhysDB extends Database {
             return null;
         }
 
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE id = ?");
             statement.setInt(1, historyId);
 
@@ -1510,27 +2418,8 @@ public class PhysDB extends Database {
             return Collections.emptyList();
         }
 
-        return runAndThrowModuleExceptionIfFailing(() -> {
-            List<History> temp = new ArrayList<>();
-            PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE LOWER(player) = LOWER(?) ORDER BY id DESC LIMIT ?,?");
-            statement.setString(1, player);
-            statement.setInt(2, start);
-            statement.setInt(3, count);
-
-            ResultSet set = statement.executeQuery();
-
-            while (set.next()) {
-                History history = resolveHistory(new History(), set);
-
-                if (history != null) {
-                    // seems ok
-                    temp.add(history);
-                }
-            }
-
-            set.close();
-            return temp;
-        });
+        UUID uuid = UUIDRegistry.getUUID(player);
+        return loadPage("id, protectionId, player, x, y, z, type, status, metadata, timestamp", "history", "LOWER(player) = ?", new Object[] { (uuid != null ? uuid.toString() : player).toLowerCase() }, start, count, set -> resolveHistory(new History(), set));
     }
 
     /**
@@ -1543,7 +2432,7 @@ public class PhysDB extends Database {
             return Collections.emptyList();
         }
 
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             List<History> temp = new ArrayList<>();
             PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history ORDER BY id DESC");
             ResultSet set = statement.executeQuery();
@@ -1572,7 +2461,7 @@ public class PhysDB extends Database {
             return Collections.emptyList();
         }
 
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             List<History> temp = new ArrayList<>();
             PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE status = ? ORDER BY id DESC");
             statement.setInt(1, status.ordinal());
@@ -1592,6 +2481,22 @@ public class PhysDB extends Database {
         });
     }
 
+    /**
+     * Iterate over history objects in the order of their ids without loading them all into memory. The consumer
+     * runs on the calling thread and may use the database.
+     *
+     * @param where
+     *            the condition the history objects have to match or null for all of them
+     * @param consumer
+     */
+    public void forEachHistory(String where, Consumer<History> consumer) {
+        if (!LWC.getInstance().isHistoryEnabled()) {
+            return;
+        }
+
+        forEachRow("id, protectionId, player, x, y, z, type, status, metadata, timestamp", "history", where, new String[] { "id" }, set -> resolveHistory(new History(), set), consumer);
+    }
+
     /**
      * Load all of the history at the given location
      *
@@ -1605,7 +2510,7 @@ public class PhysDB extends Database {
             return Collections.emptyList();
         }
 
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             List<History> temp = new ArrayList<>();
             PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE x = ? AND y = ? AND z = ?");
             statement.setInt(1, x);
@@ -1642,7 +2547,7 @@ public class PhysDB extends Database {
             return Collections.emptyList();
         }
 
-        return runAndThrowModuleExceptionIfFailing(() -> {
+        return readAndThrowModuleExceptionIfFailing(() -> {
             List<History> temp = new ArrayList<>();
             PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history WHERE LOWER(player) = LOWER(?) AND x = ? AND y = ? AND z = ?");
             statement.setString(1, player);
@@ -1676,64 +2581,233 @@ public class PhysDB extends Database {
             return Collections.emptyList();
         }
 
-        return runAndThrowModuleExceptionIfFailing(() -> {
-            List<History> temp = new ArrayList<>();
-            PreparedStatement statement = prepare("SELECT * FROM " + prefix + "history ORDER BY id DESC LIMIT ?,?");
-            statement.setInt(1, start);
-            statement.setInt(2, count);
+        return loadPage("id, protectionId, player, x, y, z, type, status, metadata, timestamp", "history", null, null, start, count, set -> resolveHistory(new History(), set));
+    }
 
-            ResultSet set = statement.executeQuery();
+    /**
+     * Save a protection to the database
+     *
+     * @param protection
+     */
+    public void saveProtection(Protection protection) {
+        ProtectionRow row = ProtectionRow.of(protection);
+        protection.clearModifiedFields();
+        try {
+            saveProtections(Collections.singletonList(row));
+        } catch (ModuleException e) {
+            protection.addModifiedFields(row.fields());
+            throw e;
+        }
 
-            while (set.next()) {
-                History history = resolveHistory(new History(), set);
+        // the protection might have been moved to another block
+        if (protection.getEntityId() == null) {
+            LWC.getInstance().getProtectionCache().markPresent(protection.getWorld(), protection.getX(), protection.getY(), protection.getZ());
+        }
+    }
 
-                if (history != null) {
-                    // seems ok
-                    temp.add(history);
+    /**
+     * Save a batch of protections to the database in one transaction. Rows of protections that were removed in the
+     * meantime are skipped, so they are not written back after their deletion. Only the modified columns are
+     * updated, protections with all fields modified replace their whole row.
+     *
+     * @param rows
+     */
+    public void saveProtections(Collection<ProtectionRow> rows) {
+        runAndThrowModuleExceptionIfFailing(() -> {
+            // rows with the same modified fields are written with the same statement
+            Map<Integer, List<ProtectionRow>> byFields = new HashMap<>();
+            List<ProtectionRow> withData = new ArrayList<>();
+            List<Integer> changed = new ArrayList<>();
+            for (ProtectionRow row : rows) {
+                if (row.protection().isRemoved() || row.fields() == 0) {
+                    continue;
+                }
+
+                byFields.computeIfAbsent(row.fields(), fields -> new ArrayList<>()).add(row);
+                if (Field.DATA.isIn(row.fields())) {
+                    withData.add(row);
+                }
+
+                // other servers do not need to know about access times
+                if ((row.fields() & ~Field.LAST_ACCESSED.bit()) != 0) {
+                    changed.add(row.id());
+                }
+            }
+
+            for (Map.Entry<Integer, List<ProtectionRow>> entry : byFields.entrySet()) {
+                int fields = entry.getKey();
+                if (fields == Field.ALL) {
+                    replaceProtections(entry.getValue());
+                    continue;
+                }
+
+                PreparedStatement statement = prepare(updateStatements.computeIfAbsent(fields, this::createUpdateStatement));
+                for (ProtectionRow row : entry.getValue()) {
+                    int index = 1;
+                    for (Field field : Field.values()) {
+                        if (field.isIn(fields)) {
+                            index = bindField(statement, index, field, row);
+                        }
+                    }
+                    statement.setInt(index, row.id());
+                    statement.addBatch();
                 }
+                statement.executeBatch();
+            }
+
+            if (!withData.isEmpty()) {
+                saveRights(withData);
+            }
+
+            logChanges(ChangeLog.Operation.SAVE, changed);
+        });
+    }
+
+    /**
+     * Write whole rows, inserting them if they do not exist yet
+     *
+     * @param rows
+     */
+    private void replaceProtections(List<ProtectionRow> rows) throws SQLException {
+        PreparedStatement statement = prepare("REPLACE INTO " + prefix + "protections (id, type, blockId, worldId, data, owner, owner_msb, owner_lsb, password, x, y, z, entity_msb, entity_lsb, date, last_accessed, cx, cz) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+
+        for (ProtectionRow row : rows) {
+            statement.setInt(1, row.id());
+            statement.setInt(2, row.type());
+            statement.setInt(3, row.blockId());
+            bindWorld(statement, 4, row.worldId());
+            statement.setString(5, row.data());
+            int index = bindOwnerColumns(statement, 6, row.ownerId(), row.ownerName());
+            statement.setString(index++, row.password());
+            statement.setInt(index++, row.x());
+            statement.setInt(index++, row.y());
+            statement.setInt(index++, row.z());
+            index = bindUUID(statement, index, row.entityId());
+            statement.setString(index++, row.creation());
+            statement.setLong(index++, row.lastAccessed());
+            statement.setInt(index++, row.x() >> 4);
+            statement.setInt(index, row.z() >> 4);
+            statement.addBatch();
+        }
+
+        statement.executeBatch();
+    }
+
+    /**
+     * Create the statement updating the given fields of a protection
+     *
+     * @param fields
+     * @return the sql
+     */
+    private String createUpdateStatement(int fields) {
+        StringBuilder columns = new StringBuilder();
+        for (Field field : Field.values()) {
+            if (!field.isIn(fields)) {
+                continue;
+            }
+
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(switch (field) {
+                case OWNER -> "owner = ?, owner_msb = ?, owner_lsb = ?";
+                case TYPE -> "type = ?";
+                case DATA -> "data = ?";
+                case PASSWORD -> "password = ?";
+                case BLOCK_ID -> "blockId = ?";
+                case WORLD -> "worldId = ?";
+                case LOCATION -> "x = ?, y = ?, z = ?, cx = ?, cz = ?";
+                case ENTITY_ID -> "entity_msb = ?, entity_lsb = ?";
+                case CREATION -> "date = ?";
+                case LAST_ACCESSED -> "last_accessed = ?";
+            });
+        }
+
+        return "UPDATE " + prefix + "protections SET " + columns + " WHERE id = ?";
+    }
+
+    /**
+     * Bind the columns of a field in a statement created by {@link #createUpdateStatement(int)}
+     *
+     * @param statement
+     * @param index
+     * @param field
+     * @param row
+     * @return the index of the next parameter
+     */
+    private int bindField(PreparedStatement statement, int index, Field field, ProtectionRow row) throws SQLException {
+        switch (field) {
+            case OWNER -> index = bindOwnerColumns(statement, index, row.ownerId(), row.ownerName());
+            case TYPE -> statement.setInt(index++, row.type());
+            case DATA -> statement.setString(index++, row.data());
+            case PASSWORD -> statement.setString(index++, row.password());
+            case BLOCK_ID -> statement.setInt(index++, row.blockId());
+            case WORLD -> bindWorld(statement, index++, row.worldId());
+            case LOCATION -> {
+                statement.setInt(index++, row.x());
+                statement.setInt(index++, row.y());
+                statement.setInt(index++, row.z());
+                statement.setInt(index++, row.x() >> 4);
+                statement.setInt(index++, row.z() >> 4);
             }
-
-            set.close();
-            return temp;
-        });
+            case ENTITY_ID -> index = bindUUID(statement, index, row.entityId());
+            case CREATION -> statement.setString(index++, row.creation());
+            case LAST_ACCESSED -> statement.setLong(index++, row.lastAccessed());
+        }
+        return index;
     }
 
     /**
-     * Save a protection to the database
+     * Replace the rows in the protection_rights table of the given protections, runs within the transaction saving
+     * them
      *
-     * @param protection
+     * @param rows
      */
-    public void saveProtection(Protection protection) {
-        runAndThrowModuleExceptionIfFailing(() -> {
-            PreparedStatement statement = prepare("REPLACE INTO " + prefix + "protections (id, type, blockId, world, data, owner, password, x, y, z, entityid, date, last_accessed) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+    private void saveRights(Collection<ProtectionRow> rows) throws SQLException {
+        PreparedStatement delete = prepare("DELETE FROM " + prefix + "protection_rights WHERE protectionId = ?");
+        PreparedStatement insert = prepare("INSERT INTO " + prefix + "protection_rights (protectionId, type, name, access) VALUES (?, ?, ?, ?)");
+
+        int inserted = 0;
+        for (ProtectionRow row : rows) {
+            if (row.protection().isRemoved()) {
+                continue;
+            }
 
-            statement.setInt(1, protection.getId());
-            statement.setInt(2, protection.getType().ordinal());
-            statement.setInt(3, protection.getBlockId());
-            statement.setString(4, protection.getWorld());
-            JSONObject data = protection.getData();
-            statement.setString(5, data == null ? null : data.toJSONString());
-            statement.setString(6, protection.getOwner());
-            statement.setString(7, protection.getPassword());
-            statement.setInt(8, protection.getX());
-            statement.setInt(9, protection.getY());
-            statement.setInt(10, protection.getZ());
-            statement.setString(11, protection.getEntityId() != null ? protection.getEntityId().toString() : null);
-            statement.setString(12, protection.getCreation());
-            statement.setLong(13, protection.getLastAccessed());
+            delete.setInt(1, row.id());
+            delete.addBatch();
 
-            statement.executeUpdate();
-        });
+            for (RightRow right : row.rights()) {
+                insert.setInt(1, row.id());
+                insert.setInt(2, right.type());
+                insert.setString(3, right.name());
+                insert.setInt(4, right.access());
+                insert.addBatch();
+                inserted++;
+            }
+        }
+
+        delete.executeBatch();
+        if (inserted > 0) {
+            insert.executeBatch();
+        }
     }
 
-    public void saveProtectionLastAccessed(Protection protection) {
+    /**
+     * Save the last access times of protections in one batch
+     *
+     * @param lastAccessed the times by protection id
+     */
+    public void saveProtectionsLastAccessed(IntLongHashMap lastAccessed) {
         runAndThrowModuleExceptionIfFailing(() -> {
             PreparedStatement statement = prepare("UPDATE " + prefix + "protections SET last_accessed = ? WHERE id = ?");
 
-            statement.setLong(1, protection.getLastAccessed());
-            statement.setInt(2, protection.getId());
+            for (int protectionId : lastAccessed.keys()) {
+                statement.setLong(1, lastAccessed.get(protectionId, 0));
+                statement.setInt(2, protectionId);
+                statement.addBatch();
+            }
 
-            statement.executeUpdate();
+            statement.executeBatch();
         });
     }
 
@@ -1745,11 +2819,17 @@ public class PhysDB extends Database {
      */
     public void removeProtection(int protectionId) {
         runAndThrowModuleExceptionIfFailing(() -> {
+            logChanges(ChangeLog.Operation.REMOVE, Collections.singletonList(protectionId));
+
             PreparedStatement statement = prepare("DELETE FROM " + prefix + "protections WHERE id = ?");
             statement.setInt(1, protectionId);
 
             int affected = statement.executeUpdate();
 
+            statement = prepare("DELETE FROM " + prefix + "protection_rights WHERE protectionId = ?");
+            statement.setInt(1, protectionId);
+            statement.executeUpdate();
+
             if (affected >= 1) {
                 protectionCount -= affected;
             }
@@ -1765,6 +2845,7 @@ public class PhysDB extends Database {
 
             statement.executeUpdate();
         });
+        historyRemoved();
     }
 
     public void removeHistory(int historyId) {
@@ -1774,6 +2855,7 @@ public class PhysDB extends Database {
 
             statement.executeUpdate();
         });
+        historyRemoved();
     }
 
     /**
@@ -1781,11 +2863,15 @@ public class PhysDB extends Database {
      */
     public void removeAllProtections() {
         runAndThrowModuleExceptionIfFailing(() -> {
-            Statement statement = connection.createStatement();
+            Statement statement = getConnection().createStatement();
             statement.executeUpdate("DELETE FROM " + prefix + "protections");
+            statement.executeUpdate("DELETE FROM " + prefix + "protection_rights");
             protectionCount = 0;
             statement.close();
+
+            logClear();
         });
+        LWC.getInstance().getProtectionCounts().clear();
     }
 
     /**
@@ -1797,7 +2883,7 @@ public class PhysDB extends Database {
      */
     private void createIndex(String table, String indexName, String columns) {
         runAndIgnoreException(() -> {
-            Statement statement = connection.createStatement();
+            Statement statement = getConnection().createStatement();
             statement.executeUpdate("CREATE INDEX" + (currentType == Type.SQLite ? " IF NOT EXISTS" : "") + " " + indexName + " ON " + prefix + table + " (" + columns + ")");
             statement.close();
         });
@@ -1810,7 +2896,7 @@ public class PhysDB extends Database {
      */
     private void dropIndex(String table, String indexName) {
         runAndIgnoreException(() -> {
-            Statement statement = connection.createStatement();
+            Statement statement = getConnection().createStatement();
             if (currentType == Type.SQLite) {
                 statement.executeUpdate("DROP INDEX IF EXISTS " + indexName);
             } else {
@@ -1827,7 +2913,7 @@ public class PhysDB extends Database {
         runAndThrowModuleExceptionIfFailing(() -> {
             // check limits table
             try {
-                Statement statement = connection.createStatement();
+                Statement statement = getConnection().createStatement();
                 statement.executeQuery("SELECT * FROM limits LIMIT 1");
                 statement.close();
             } catch (SQLException e) {
@@ -1893,7 +2979,7 @@ public class PhysDB extends Database {
             // check for the table
             Statement statement = null;
             try {
-                statement = connection.createStatement();
+                statement = getConnection().createStatement();
                 statement.execute("SELECT id FROM " + prefix + "protections limit 1");
             } catch (SQLException e) {
                 // The table does not exist, let's go ahead and rename all of the
@@ -1919,7 +3005,7 @@ public class PhysDB extends Database {
         runAndThrowModuleExceptionIfFailing(() -> {
             Statement statement = null;
             try {
-                statement = connection.createStatement();
+                statement = getConnection().createStatement();
                 statement.execute("SELECT last_accessed FROM " + prefix + "protections LIMIT 1");
             } catch (SQLException e) {
                 addColumn(prefix + "protections", "last_accessed", "INTEGER");
@@ -1941,13 +3027,13 @@ public class PhysDB extends Database {
         runAndThrowModuleExceptionIfFailing(() -> {
             Statement statement = null;
             try {
-                statement = connection.createStatement();
+                statement = getConnection().createStatement();
                 statement.execute("SELECT id FROM " + prefix + "rights LIMIT 1");
 
                 log("Migrating LWC3 rights to LWC4 format");
 
                 // it exists ..!
-                Statement stmt = connection.createStatement();
+                Statement stmt = getConnection().createStatement();
                 ResultSet set = stmt.executeQuery("SELECT * FROM " + prefix + "rights");
 
                 // keep a mini-cache of protections, max size of 100k should be OK!
@@ -2020,7 +3106,7 @@ public class PhysDB extends Database {
         runAndThrowModuleExceptionIfFailing(() -> {
             Statement statement = null;
             try {
-                statement = connection.createStatement();
+                statement = getConnection().createStatement();
                 statement.execute("SELECT data FROM " + prefix + "protections LIMIT 1");
             } catch (SQLException e) {
                 dropColumn(prefix + "protections", "rights");
@@ -2043,7 +3129,7 @@ public class PhysDB extends Database {
         runAndThrowModuleExceptionIfFailing(() -> {
             Statement statement = null;
             try {
-                statement = connection.createStatement();
+                statement = getConnection().createStatement();
                 statement.executeQuery("SELECT flags FROM " + prefix + "protections LIMIT 1");
 
                 // The flags column is still there ..!
@@ -2094,7 +3180,7 @@ public class PhysDB extends Database {
         runAndThrowModuleExceptionIfFailing(() -> {
             Statement statement = null;
             try {
-                statement = connection.createStatement();
+                statement = getConnection().createStatement();
                 ResultSet rs = statement.executeQuery("SELECT x FROM " + prefix + "history LIMIT 1");
                 rs.close();
             } catch (SQLException e) {
@@ -2120,7 +3206,7 @@ public class PhysDB extends Database {
         runAndThrowModuleExceptionIfFailing(() -> {
             Statement statement = null;
             try {
-                statement = connection.createStatement();
+                statement = getConnection().createStatement();
                 try {
                     ResultSet rs = statement.executeQuery("SELECT blockId FROM " + prefix + "protections LIMIT 1");
                     rs.close();
@@ -2181,7 +3267,7 @@ public class PhysDB extends Database {
         return runAndThrowModuleExceptionIfFailing(() -> {
             Statement statement = null;
             try {
-                statement = connection.createStatement();
+                statement = getConnection().createStatement();
                 ResultSet rs = statement.executeQuery("SELECT DISTINCT blockName FROM " + prefix + "protections");
                 LWC.getInstance().getPlugin().getLogger().info("Upgrading from ModernLWC");
                 try {
@@ -2224,7 +3310,7 @@ public class PhysDB extends Database {
      */
     private void doUpdatesDatabaseVersion7() {
         runAndIgnoreException(() -> {
-            Statement statement = connection.createStatement();
+            Statement statement = getConnection().createStatement();
             statement.executeUpdate("ALTER TABLE `" + prefix + "protections` CHANGE `owner` `owner` VARCHAR(36)");
             statement.executeUpdate("ALTER TABLE `" + prefix + "protections` CHANGE `world` `world` VARCHAR(50)");
             statement.executeUpdate("ALTER TABLE `" + prefix + "protections` CHANGE `date` `date` VARCHAR(50)");
@@ -2243,7 +3329,7 @@ public class PhysDB extends Database {
         runAndThrowModuleExceptionIfFailing(() -> {
             Statement statement = null;
             try {
-                statement = connection.createStatement();
+                statement = getConnection().createStatement();
                 statement.execute("SELECT entityid FROM " + prefix + "protections LIMIT 1");
             } catch (SQLException e) {
                 addColumn(prefix + "protections", "entityid", currentType == Type.SQLite ? "VARCHAR(36)" : "VARCHAR(36) AFTER `z`");
@@ -2258,12 +3344,388 @@ public class PhysDB extends Database {
             }
         });
     }
+
+    /**
+     * Add the chunk coordinate columns, fill them for existing protections and index them
+     */
+    private void doUpdatesDatabaseVersion9() {
+        runAndThrowModuleExceptionIfFailing(() -> {
+            Statement statement = null;
+            try {
+                statement = getConnection().createStatement();
+                statement.execute("SELECT cx FROM " + prefix + "protections LIMIT 1");
+            } catch (SQLException e) {
+                addColumn(prefix + "protections", "cx", "INTEGER");
+                addColumn(prefix + "protections", "cz", "INTEGER");
+            } finally {
+                if (statement != null) {
+                    try {
+                        statement.close();
+                    } catch (SQLException e) {
+                    }
+                }
+            }
+        });
+
+        int[] range = runAndThrowModuleExceptionIfFailing(() -> {
+            Statement statement = getConnection().createStatement();
+            ResultSet set = statement.executeQuery("SELECT MIN(id), MAX(id), COUNT(*) FROM " + prefix + "protections WHERE cx IS NULL OR cz IS NULL");
+            int[] result = set.next() ? new int[] { set.getInt(1), set.getInt(2), set.getInt(3) } : new int[3];
+            set.close();
+            statement.close();
+            return result;
+        });
+
+        if (range[2] > 0) {
+            log("Calculating the chunk coordinates of " + range[2] + " protections");
+
+            // update the rows in id ranges, so every batch is committed on its own
+            String chunkX = currentType == Type.SQLite ? "x >> 4" : "FLOOR(x / 16)";
+            String chunkZ = currentType == Type.SQLite ? "z >> 4" : "FLOOR(z / 16)";
+            for (long start = range[0]; start <= range[1]; start += CHUNK_COORDINATES_BATCH_SIZE) {
+                final long from = start;
+                runAndThrowModuleExceptionIfFailing(() -> {
+                    PreparedStatement statement = prepare("UPDATE " + prefix + "protections SET cx = " + chunkX + ", cz = " + chunkZ + " WHERE id >= ? AND id < ? AND (cx IS NULL OR cz IS NULL)");
+                    statement.setLong(1, from);
+                    statement.setLong(2, from + CHUNK_COORDINATES_BATCH_SIZE);
+                    statement.executeUpdate();
+                });
+            }
+        }
+
+        createIndex("protections", "protections_chunk", "world, cx, cz");
+    }
+
+    /**
+     * Create the protection_rights table and fill it with the rights stored in the data column of the protections
+     */
+    private void doUpdatesDatabaseVersion10() {
+        Column column;
+
+        Table rights = new Table(this, "protection_rights");
+        {
+            column = new Column("protectionId");
+            column.setType("INTEGER");
+            rights.add(column);
+
+            column = new Column("type");
+            column.setType("INTEGER");
+            rights.add(column);
+
+            column = new Column("name");
+            column.setType("VARCHAR(100)");
+            rights.add(column);
+
+            column = new Column("access");
+            column.setType("INTEGER");
+            rights.add(column);
+        }
+
+        runAndThrowModuleExceptionIfFailing(() -> {
+            rights.execute();
+
+            // the update might be repeated, so start from scratch
+            Statement statement = getConnection().createStatement();
+            statement.executeUpdate("DELETE FROM " + prefix + "protection_rights");
+            statement.close();
+        });
+
+        int[] range = runAndThrowModuleExceptionIfFailing(() -> {
+            Statement statement = getConnection().createStatement();
+            ResultSet set = statement.executeQuery("SELECT MIN(id), MAX(id), COUNT(*) FROM " + prefix + "protections WHERE data IS NOT NULL");
+            int[] result = set.next() ? new int[] { set.getInt(1), set.getInt(2), set.getInt(3) } : new int[3];
+            set.close();
+            statement.close();
+            return result;
+        });
+
+        if (range[2] > 0) {
+            log("Copying the rights of " + range[2] + " protections into the protection_rights table");
+
+            // copy the rights in id ranges, so every batch is committed on its own
+            for (long start = range[0]; start <= range[1]; start += RIGHTS_MIGRATION_BATCH_SIZE) {
+                final long from = start;
+                runAndThrowModuleExceptionIfFailing(() -> {
+                    PreparedStatement select = prepare("SELECT id, data FROM " + prefix + "protections WHERE id >= ? AND id < ? AND data IS NOT NULL");
+                    PreparedStatement insert = prepare("INSERT INTO " + prefix + "protection_rights (protectionId, type, name, access) VALUES (?, ?, ?, ?)");
+                    select.setLong(1, from);
+                    select.setLong(2, from + RIGHTS_MIGRATION_BATCH_SIZE);
+
+                    int inserted = 0;
+                    ResultSet set = select.executeQuery();
+                    while (set.next()) {
+                        int protectionId = set.getInt("id");
+                        for (RightRow right : parseRights(set.getString("data"))) {
+                            insert.setInt(1, protectionId);
+                            insert.setInt(2, right.type());
+                            insert.setString(3, right.name());
+                            insert.setInt(4, right.access());
+                            insert.addBatch();
+                            inserted++;
+                        }
+                    }
+                    set.close();
+
+                    if (inserted > 0) {
+                        insert.executeBatch();
+                    }
+                });
+            }
+        }
+
+        createIndex("protection_rights", "protection_rights_main", "protectionId");
+        createIndex("protection_rights", "protection_rights_name", "name, type");
+    }
+
+    /**
+     * Move the world names into the worlds table and the owner and entity UUIDs into two numeric columns each. The
+     * old columns are cleared, only owners that are not UUIDs stay in the owner column.
+     */
+    private void doUpdatesDatabaseVersion11() {
+        Column column;
+
+        Table worlds = new Table(this, "worlds");
+        {
+            column = new Column("id");
+            column.setType("INTEGER");
+            column.setPrimary(true);
+            worlds.add(column);
+
+            column = new Column("name");
+            column.setType("VARCHAR(50)");
+            worlds.add(column);
+        }
+
+        runAndThrowModuleExceptionIfFailing(() -> {
+            worlds.execute();
+
+            Statement statement = null;
+            try {
+                statement = getConnection().createStatement();
+                statement.execute("SELECT worldId FROM " + prefix + "protections LIMIT 1");
+            } catch (SQLException e) {
+                addColumn(prefix + "protections", "worldId", "INTEGER");
+                addColumn(prefix + "protections", "owner_msb", "BIGINT");
+                addColumn(prefix + "protections", "owner_lsb", "BIGINT");
+                addColumn(prefix + "protections", "entity_msb", "BIGINT");
+                addColumn(prefix + "protections", "entity_lsb", "BIGINT");
+            } finally {
+                if (statement != null) {
+                    try {
+                        statement.close();
+                    } catch (SQLException e) {
+                    }
+                }
+            }
+        });
+
+        runAndIgnoreException(() -> {
+            Statement statement = getConnection().createStatement();
+            statement.executeUpdate("CREATE UNIQUE INDEX" + (currentType == Type.SQLite ? " IF NOT EXISTS" : "") + " worlds_name ON " + prefix + "worlds (name)");
+            statement.close();
+        });
+
+        int[] range = runAndThrowModuleExceptionIfFailing(() -> {
+            Statement statement = getConnection().createStatement();
+            ResultSet set = statement.executeQuery("SELECT MIN(id), MAX(id), COUNT(*) FROM " + prefix + "protections WHERE world IS NOT NULL OR owner IS NOT NULL OR entityid IS NOT NULL");
+            int[] result = set.next() ? new int[] { set.getInt(1), set.getInt(2), set.getInt(3) } : new int[3];
+            set.close();
+            statement.close();
+            return result;
+        });
+
+        if (range[2] > 0) {
+            log("Converting the worlds and UUIDs of " + range[2] + " protections");
+
+            // the worlds are registered up front, so a failed batch can not leave unknown ids behind
+            List<String> names = runAndThrowModuleExceptionIfFailing(() -> {
+                List<String> result = new ArrayList<>();
+                Statement statement = getConnection().createStatement();
+                ResultSet set = statement.executeQuery("SELECT DISTINCT world FROM " + prefix + "protections WHERE world IS NOT NULL");
+                while (set.next()) {
+                    result.add(set.getString(1));
+                }
+                set.close();
+                statement.close();
+                return result;
+            });
+            for (String name : names) {
+                worldMap.registerOrGetId(name);
+            }
+
+            // convert the rows in id ranges, so every batch is committed on its own
+            for (long start = range[0]; start <= range[1]; start += COMPACT_COLUMNS_BATCH_SIZE) {
+                final long from = start;
+                runAndThrowModuleExceptionIfFailing(() -> {
+                    PreparedStatement select = prepare("SELECT id, world, worldId, owner, owner_msb, owner_lsb, entityid, entity_msb, entity_lsb FROM " + prefix + "protections WHERE id >= ? AND id < ? AND (world IS NOT NULL OR owner IS NOT NULL OR entityid IS NOT NULL)");
+                    PreparedStatement update = prepare("UPDATE " + prefix + "protections SET world = NULL, worldId = ?, owner = ?, owner_msb = ?, owner_lsb = ?, entityid = NULL, entity_msb = ?, entity_lsb = ? WHERE id = ?");
+                    select.setLong(1, from);
+                    select.setLong(2, from + COMPACT_COLUMNS_BATCH_SIZE);
+
+                    int updated = 0;
+                    ResultSet set = select.executeQuery();
+                    while (set.next()) {
+                        // columns that were converted before are kept
+                        String world = set.getString("world");
+                        int worldId = world != null ? worldMap.getId(world) : set.getInt("worldId");
+
+                        String owner = set.getString("owner");
+                        UUID ownerId = getUUID(set, "owner_msb", "owner_lsb");
+                        if (owner != null && UUIDRegistry.isValidUUID(owner)) {
+                            ownerId = UUID.fromString(owner);
+                        }
+
+                        String entity = set.getString("entityid");
+                        UUID entityId = getUUID(set, "entity_msb", "entity_lsb");
+                        if (entity != null) {
+                            try {
+                                entityId = UUID.fromString(entity);
+                            } catch (IllegalArgumentException e) {
+                            }
+                        }
+
+                        bindWorld(update, 1, worldId);
+                        int index = bindOwnerColumns(update, 2, ownerId, owner);
+                        index = bindUUID(update, index, entityId);
+                        update.setInt(index, set.getInt("id"));
+                        update.addBatch();
+                        updated++;
+                    }
+                    set.close();
+
+                    if (updated > 0) {
+                        update.executeBatch();
+                    }
+                });
+            }
+        }
+
+        // the indexes on the old columns are replaced
+        dropIndex("protections", "protections_main");
+        dropIndex("protections", "protections_entity");
+        dropIndex("protections", "protections_chunk");
+        createIndex("protections", "protections_main", "x, y, z, worldId");
+        createIndex("protections", "protections_entity", "entity_msb");
+        createIndex("protections", "protections_chunk", "worldId, cx, cz");
+        createIndex("protections", "protections_owner", "owner_msb");
+    }
+
+    /**
+     * Create the protection_changes table, the change log read by other servers sharing the database
+     */
+    private void doUpdatesDatabaseVersion12() {
+        Column column;
+
+        Table changes = new Table(this, "protection_changes");
+        {
+            column = new Column("id");
+            column.setType("INTEGER");
+            column.setPrimary(true);
+            changes.add(column);
+
+            column = new Column("server");
+            column.setType("BIGINT");
+            changes.add(column);
+
+            column = new Column("operation");
+            column.setType("INTEGER");
+            changes.add(column);
+
+            column = new Column("protectionId");
+            column.setType("INTEGER");
+            changes.add(column);
+
+            column = new Column("worldId");
+            column.setType("INTEGER");
+            changes.add(column);
+
+            column = new Column("x");
+            column.setType("INTEGER");
+            changes.add(column);
+
+            column = new Column("y");
+            column.setType("INTEGER");
+            changes.add(column);
+
+            column = new Column("z");
+            column.setType("INTEGER");
+            changes.add(column);
+
+            column = new Column("entity_msb");
+            column.setType("BIGINT");
+            changes.add(column);
+
+            column = new Column("entity_lsb");
+            column.setType("BIGINT");
+            changes.add(column);
+
+            column = new Column("owner");
+            column.setType("VARCHAR(36)");
+            changes.add(column);
+
+            column = new Column("owner_msb");
+            column.setType("BIGINT");
+            changes.add(column);
+
+            column = new Column("owner_lsb");
+            column.setType("BIGINT");
+            changes.add(column);
+
+            column = new Column("time");
+            column.setType("BIGINT");
+            changes.add(column);
+        }
+
+        runAndThrowModuleExceptionIfFailing(() -> {
+            changes.execute();
+        });
+
+        createIndex("protection_changes", "protection_changes_time", "time");
+    }
+
+    /**
+     * Parse the rights stored in the data column of a protection
+     *
+     * @param data
+     * @return the rights, empty if there are none or the data is invalid
+     */
+    private List<RightRow> parseRights(String data) {
+        List<RightRow> rights = new ArrayList<>();
+        if (data == null || data.isBlank()) {
+            return rights;
+        }
+
+        if (ProtectionDataCodec.isEncoded(data)) {
+            try {
+                ProtectionDataCodec.decode(data, permission -> rights.add(RightRow.of(permission)), flag -> {
+                });
+            } catch (IllegalArgumentException e) {
+            }
+            return rights;
+        }
+
+        try {
+            if (jsonParser.get().parse(data) instanceof JSONObject root && root.get("rights") instanceof JSONArray array) {
+                for (Object node : array) {
+                    if (node instanceof JSONObject map) {
+                        Permission permission = Permission.decodeJSON(map);
+                        if (permission != null) {
+                            rights.add(RightRow.of(permission));
+                        }
+                    }
+                }
+            }
+        } catch (ParseException | RuntimeException e) {
+            // invalid data is ignored when protections are loaded as well
+        }
+        return rights;
+    }
     
 
     public HashMap<Integer, String> loadBlockMappings() {
         return runAndThrowModuleExceptionIfFailing(() -> {
             HashMap<Integer, String> rv = new HashMap<>();
-            Statement statement = connection.createStatement();
+            Statement statement = getConnection().createStatement();
             ResultSet rs = statement.executeQuery("SELECT `id`,`name` FROM " + prefix + "blocks");
             while (rs.next()) {
                 rv.put(rs.getInt(1), rs.getString(2));
@@ -2282,6 +3744,219 @@ public class PhysDB extends Database {
         });
     }
 
+    /**
+     * Record changes of protections in the change log, within the transaction writing them. The location and owner
+     * are copied from the rows, so removals have to be recorded before the rows are deleted.
+     *
+     * @param operation
+     * @param protectionIds
+     */
+    private void logChanges(ChangeLog.Operation operation, Collection<Integer> protectionIds) throws SQLException {
+        if (!writeChangeLog || protectionIds.isEmpty()) {
+            return;
+        }
+
+        PreparedStatement statement = prepare("INSERT INTO " + prefix + "protection_changes (server, operation, protectionId, worldId, x, y, z, entity_msb, entity_lsb, owner, owner_msb, owner_lsb, time) SELECT ?, ?, id, worldId, x, y, z, entity_msb, entity_lsb, owner, owner_msb, owner_lsb, ? FROM " + prefix + "protections WHERE id = ?");
+        long now = System.currentTimeMillis() / 1000L;
+        for (int protectionId : protectionIds) {
+            statement.setLong(1, ChangeLog.SERVER_ID);
+            statement.setInt(2, operation.ordinal());
+            statement.setLong(3, now);
+            statement.setInt(4, protectionId);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    /**
+     * Record in the change log that protections were changed in bulk, so other servers drop their whole cache
+     */
+    private void logClear() throws SQLException {
+        if (!writeChangeLog) {
+            return;
+        }
+
+        PreparedStatement statement = prepare("INSERT INTO " + prefix + "protection_changes (server, operation, protectionId, time) VALUES (?, ?, 0, ?)");
+        statement.setLong(1, ChangeLog.SERVER_ID);
+        statement.setInt(2, ChangeLog.Operation.CLEAR.ordinal());
+        statement.setLong(3, System.currentTimeMillis() / 1000L);
+        statement.executeUpdate();
+    }
+
+    /**
+     * Get the id of the latest entry of the change log
+     *
+     * @return the id or 0 if the change log is empty
+     */
+    long loadLastChangeId() {
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT MAX(id) FROM " + prefix + "protection_changes");
+            try (ResultSet set = statement.executeQuery()) {
+                return set.next() ? set.getLong(1) : 0L;
+            }
+        });
+    }
+
+    /**
+     * Load entries of the change log in the order they were written
+     *
+     * @param afterId
+     *            the id the entries have to follow
+     * @param limit
+     * @return the entries
+     */
+    List<ChangeLog.Change> loadChanges(long afterId, int limit) {
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT id, server, operation, protectionId, worldId, x, y, z, entity_msb, entity_lsb, owner, owner_msb, owner_lsb FROM " + prefix + "protection_changes WHERE id > ? ORDER BY id LIMIT ?");
+            statement.setLong(1, afterId);
+            statement.setInt(2, limit);
+
+            List<ChangeLog.Change> changes = new ArrayList<>();
+            ChangeLog.Operation[] operations = ChangeLog.Operation.values();
+            try (ResultSet set = statement.executeQuery()) {
+                while (set.next()) {
+                    int operation = set.getInt("operation");
+                    if (operation < 0 || operation >= operations.length) {
+                        continue;
+                    }
+
+                    UUID ownerId = getUUID(set, "owner_msb", "owner_lsb");
+                    changes.add(new ChangeLog.Change(set.getLong("id"), set.getLong("server"), operations[operation], set.getInt("protectionId"), worldMap.getName(set.getInt("worldId")), set.getInt("x"), set.getInt("y"), set.getInt("z"), getUUID(set, "entity_msb", "entity_lsb"), ownerId != null ? ownerId.toString() : set.getString("owner")));
+                }
+            }
+            return changes;
+        });
+    }
+
+    /**
+     * Delete the entries of the change log written before the given time
+     *
+     * @param time
+     *            the time in seconds
+     */
+    void pruneChanges(long time) {
+        runAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("DELETE FROM " + prefix + "protection_changes WHERE time < ?");
+            statement.setLong(1, time);
+            statement.executeUpdate();
+        });
+    }
+
+    /**
+     * Count the entity protections that are still stored by the hash of their entity's UUID
+     *
+     * @return the amount of legacy entity protections
+     */
+    int countLegacyEntityProtections() {
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT COUNT(*) FROM " + prefix + "protections WHERE entity_msb IS NULL AND blockId = ?");
+            statement.setInt(1, EntityBlock.ENTITY_BLOCK_ID);
+            try (ResultSet set = statement.executeQuery()) {
+                return set.next() ? set.getInt(1) : 0;
+            }
+        });
+    }
+
+    /**
+     * Load the entity protections that are still stored by the hash of their entity's UUID
+     *
+     * @return the legacy entity protections
+     */
+    List<LegacyEntityMigration.LegacyProtection> loadLegacyEntityProtections() {
+        return readAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("SELECT id, worldId, x FROM " + prefix + "protections WHERE entity_msb IS NULL AND blockId = ?");
+            statement.setInt(1, EntityBlock.ENTITY_BLOCK_ID);
+
+            List<LegacyEntityMigration.LegacyProtection> protections = new ArrayList<>();
+            try (ResultSet set = statement.executeQuery()) {
+                while (set.next()) {
+                    String world = worldMap.getName(set.getInt("worldId"));
+                    if (world != null) {
+                        protections.add(new LegacyEntityMigration.LegacyProtection(set.getInt("id"), world, set.getInt("x") - EntityBlock.POSITION_OFFSET));
+                    }
+                }
+            }
+            return protections;
+        });
+    }
+
+    /**
+     * Store the UUIDs of the entities of legacy entity protections. Protections that were upgraded in the meantime
+     * are left alone.
+     *
+     * @param entityIds
+     *            the entity UUIDs by protection id
+     * @return the ids of the upgraded protections
+     */
+    List<Integer> migrateLegacyEntityProtections(Map<Integer, UUID> entityIds) {
+        return runAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement statement = prepare("UPDATE " + prefix + "protections SET entity_msb = ?, entity_lsb = ? WHERE id = ? AND entity_msb IS NULL");
+            List<Integer> ids = new ArrayList<>(entityIds.keySet());
+            for (int id : ids) {
+                int index = bindUUID(statement, 1, entityIds.get(id));
+                statement.setInt(index, id);
+                statement.addBatch();
+            }
+
+            int[] results = statement.executeBatch();
+            List<Integer> migrated = new ArrayList<>();
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] != 0) {
+                    migrated.add(ids.get(i));
+                }
+            }
+
+            logChanges(ChangeLog.Operation.SAVE, migrated);
+            return migrated;
+        });
+    }
+
+    /**
+     * Load the mappings of the worlds table
+     *
+     * @return the world names by id
+     */
+    HashMap<Integer, String> loadWorldMappings() {
+        return runAndThrowModuleExceptionIfFailing(() -> {
+            HashMap<Integer, String> rv = new HashMap<>();
+            Statement statement = getConnection().createStatement();
+            ResultSet rs = statement.executeQuery("SELECT id, name FROM " + prefix + "worlds");
+            while (rs.next()) {
+                rv.put(rs.getInt(1), rs.getString(2));
+            }
+            statement.close();
+            return rv;
+        });
+    }
+
+    /**
+     * Add a world to the worlds table, if it is not in it yet
+     *
+     * @param name
+     * @return the id of the world
+     */
+    int addWorldMapping(String name) {
+        return runAndThrowModuleExceptionIfFailing(() -> {
+            PreparedStatement select = prepare("SELECT id FROM " + prefix + "worlds WHERE name = ?");
+            select.setString(1, name);
+            try (ResultSet set = select.executeQuery()) {
+                if (set.next()) {
+                    return set.getInt(1);
+                }
+            }
+
+            PreparedStatement insert = prepare("INSERT INTO " + prefix + "worlds (name) VALUES (?)", true);
+            insert.setString(1, name);
+            insert.executeUpdate();
+            try (ResultSet generatedKeys = insert.getGeneratedKeys()) {
+                if (!generatedKeys.next()) {
+                    throw new SQLException("No id was generated for the world " + name);
+                }
+                return generatedKeys.getInt(1);
+            }
+        });
+    }
+
     public void updateBlockMappingName(int id, String name) {
         runAndThrowModuleExceptionIfFailing(() -> {
             PreparedStatement insertSmt = prepare("UPDATE " + prefix + "blocks SET name = ? WHERE id = ?");
@@ -2308,13 +3983,13 @@ public class PhysDB extends Database {
     public List<Protection> streamDeleteProtections(String where, CommandSender sender) {
         int totalProtections = getProtectionCount();
         ArrayList<Protection> resultList = runAndThrowModuleExceptionIfFailing(() -> {
-            Statement resultStatement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            Statement resultStatement = getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
 
             if (getType() == Database.Type.MySQL) {
                 resultStatement.setFetchSize(Integer.MIN_VALUE);
             }
 
-            ResultSet result = resultStatement.executeQuery("SELECT id, owner, type, x, y, z, entityid, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections" + where);
+            ResultSet result = resultStatement.executeQuery("SELECT " + PROTECTION_COLUMNS + " FROM " + prefix + "protections" + where);
 
             List<Integer> exemptedBlocks = LWC.getInstance().getConfiguration().getIntList("optional.exemptBlocks", new ArrayList<Integer>());
             // int completed = 0;
@@ -2356,6 +4031,7 @@ public class PhysDB extends Database {
             // delete protections
             
             StringBuilder deleteProtectionsQuery = new StringBuilder();
+            StringBuilder deleteRightsQuery = new StringBuilder();
             StringBuilder deleteHistoryQuery = new StringBuilder();
             int total = toRemove.size();
             count = 0;
@@ -2364,7 +4040,7 @@ public class PhysDB extends Database {
             Iterator<Integer> iter = toRemoveIds.iterator();
 
             // create the statement to use
-            Statement statement = connection.createStatement();
+            Statement statement = getConnection().createStatement();
 
             while (iter.hasNext()) {
                 int protectionId = iter.next();
@@ -2373,6 +4049,9 @@ public class PhysDB extends Database {
                     deleteProtectionsQuery.append("DELETE FROM ").append(prefix)
                             .append("protections WHERE id IN (")
                             .append(protectionId);
+                    deleteRightsQuery.append("DELETE FROM ").append(prefix)
+                            .append("protection_rights WHERE protectionId IN (")
+                            .append(protectionId);
                     deleteHistoryQuery
                             .append("UPDATE ")
                             .append(prefix)
@@ -2382,15 +4061,19 @@ public class PhysDB extends Database {
                             .append(protectionId);
                 } else {
                     deleteProtectionsQuery.append(",").append(protectionId);
+                    deleteRightsQuery.append(",").append(protectionId);
                     deleteHistoryQuery.append(",").append(protectionId);
                 }
 
                 if (count % 10000 == 9999 || count == (total - 1)) {
                     deleteProtectionsQuery.append(")");
+                    deleteRightsQuery.append(")");
                     deleteHistoryQuery.append(")");
                     statement.executeUpdate(deleteProtectionsQuery.toString());
+                    statement.executeUpdate(deleteRightsQuery.toString());
                     statement.executeUpdate(deleteHistoryQuery.toString());
                     deleteProtectionsQuery.setLength(0);
+                    deleteRightsQuery.setLength(0);
                     deleteHistoryQuery.setLength(0);
 
                     sender.sendMessage(Colors.Green + "REMOVED " + (count + 1)
@@ -2401,10 +4084,16 @@ public class PhysDB extends Database {
             }
 
             statement.close();
-            
+
+            // too many protections to list them one by one
+            if (!toRemove.isEmpty()) {
+                logClear();
+            }
+
             return toRemove;
         });
         protectionCount -= resultList.size();
+        LWC.getInstance().getProtectionCounts().clear();
         return resultList;
     }
 
@@ -2413,23 +4102,25 @@ public class PhysDB extends Database {
             return;
         }
         runAndThrowModuleExceptionIfFailing(() -> {
+            logChanges(ChangeLog.Operation.REMOVE, protectionsToRemove);
+
             // create the statement to use
-            Statement statement = connection.createStatement();
+            Statement statement = getConnection().createStatement();
             final StringBuilder builder = new StringBuilder();
 
             int count = 0;
             while (!protectionsToRemove.isEmpty()) {
                 int protectionId = protectionsToRemove.removeFirst();
-                if (count == 0) {
-                    builder.append("DELETE FROM ").append(prefix).append("protections WHERE id IN (").append(protectionId);
-                } else {
-                    builder.append(",").append(protectionId);
+                if (count > 0) {
+                    builder.append(",");
                 }
+                builder.append(protectionId);
                 count++;
             }
-            builder.append(")");
-            statement.executeUpdate(builder.toString());
+            statement.executeUpdate("DELETE FROM " + prefix + "protections WHERE id IN (" + builder + ")");
+            statement.executeUpdate("DELETE FROM " + prefix + "protection_rights WHERE protectionId IN (" + builder + ")");
             statement.close();
         });
+        LWC.getInstance().getProtectionCounts().clear();
     }
 }
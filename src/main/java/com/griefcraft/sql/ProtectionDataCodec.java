@@ -0,0 +1,253 @@
+package com.griefcraft.sql;
+
+import com.griefcraft.model.Flag;
+import com.griefcraft.model.Permission;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Compact encoding of the rights and flags stored in the data column of a protection. It replaces the JSON format,
+ * which is expensive to parse when millions of protections are loaded.
+ * <p>
+ * The encoded data is a version byte followed by the rights and the flags, each prefixed with their count. Numbers
+ * are stored as varints, enums as their ordinals and names that are UUIDs as 16 bytes. As the column is a text
+ * column, the bytes are stored as base64 behind a prefix that JSON data never starts with.
+ */
+public final class ProtectionDataCodec {
+
+    /**
+     * Marks encoded data, JSON data always starts with '{'
+     */
+    private static final char PREFIX = '~';
+
+    /**
+     * The version of the encoding, written as first byte
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The name of a right is stored as UTF-8 string
+     */
+    private static final int NAME_STRING = 0;
+
+    /**
+     * The name of a right is a UUID and stored as 16 bytes
+     */
+    private static final int NAME_UUID = 1;
+
+    private ProtectionDataCodec() {
+    }
+
+    /**
+     * @param data
+     * @return true if the data was written by this codec, false if it is JSON
+     */
+    public static boolean isEncoded(String data) {
+        return data != null && !data.isEmpty() && data.charAt(0) == PREFIX;
+    }
+
+    /**
+     * Check if flags can be encoded without losing information. Flags carrying more than their type have to be
+     * stored as JSON.
+     *
+     * @param flags
+     * @return true if the flags can be encoded
+     */
+    public static boolean canEncode(Collection<Flag> flags) {
+        for (Flag flag : flags) {
+            if (flag.getData().size() > 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode rights and flags
+     *
+     * @param permissions
+     * @param flags
+     * @return the encoded data or null if there is nothing to store
+     */
+    public static String encode(Collection<Permission> permissions, Collection<Flag> flags) {
+        if (permissions.isEmpty() && flags.isEmpty()) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + permissions.size() * 20);
+        out.write(VERSION);
+
+        writeVarInt(out, permissions.size());
+        for (Permission permission : permissions) {
+            out.write(permission.getType().ordinal());
+            out.write(permission.getAccess().ordinal());
+
+            String name = permission.getName();
+            UUID uuid = parseUUID(name);
+            if (uuid != null) {
+                out.write(NAME_UUID);
+                writeLong(out, uuid.getMostSignificantBits());
+                writeLong(out, uuid.getLeastSignificantBits());
+            } else {
+                byte[] bytes = (name == null ? "" : name).getBytes(StandardCharsets.UTF_8);
+                out.write(NAME_STRING);
+                writeVarInt(out, bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+
+        writeVarInt(out, flags.size());
+        for (Flag flag : flags) {
+            writeVarInt(out, flag.getType().ordinal());
+        }
+
+        return PREFIX + Base64.getEncoder().withoutPadding().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * Decode data written by {@link #encode(Collection, Collection)} and hand the decoded rights and flags to the
+     * given consumers
+     *
+     * @param data
+     * @param permissions
+     * @param flags
+     * @throws IllegalArgumentException
+     *             if the data is invalid
+     */
+    public static void decode(String data, Consumer<Permission> permissions, Consumer<Flag> flags) {
+        if (!isEncoded(data)) {
+            throw new IllegalArgumentException("Not encoded protection data");
+        }
+
+        Reader in = new Reader(Base64.getDecoder().decode(data.substring(1)));
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown protection data version " + version);
+        }
+
+        Permission.Type[] types = Permission.Type.values();
+        Permission.Access[] accesses = Permission.Access.values();
+        int permissionCount = in.readVarInt();
+        for (int i = 0; i < permissionCount; i++) {
+            Permission.Type type = valueOf(types, in.readByte());
+            Permission.Access access = valueOf(accesses, in.readByte());
+
+            String name;
+            int nameType = in.readByte();
+            if (nameType == NAME_UUID) {
+                name = new UUID(in.readLong(), in.readLong()).toString();
+            } else if (nameType == NAME_STRING) {
+                name = in.readString(in.readVarInt());
+            } else {
+                throw new IllegalArgumentException("Unknown name type " + nameType);
+            }
+
+            // the same conversion as for JSON data
+            permissions.accept(new Permission(name, type, access == Permission.Access.NONE ? Permission.Access.PLAYER : access));
+        }
+
+        Flag.Type[] flagTypes = Flag.Type.values();
+        int flagCount = in.readVarInt();
+        for (int i = 0; i < flagCount; i++) {
+            int ordinal = in.readVarInt();
+
+            // flags that do not exist anymore are dropped
+            if (ordinal < flagTypes.length) {
+                flags.accept(new Flag(flagTypes[ordinal]));
+            }
+        }
+    }
+
+    /**
+     * Parse a name as UUID, only if it is stored in the canonical form so it can be restored exactly
+     *
+     * @param name
+     * @return the UUID or null
+     */
+    private static UUID parseUUID(String name) {
+        if (name == null || name.length() != 36) {
+            return null;
+        }
+
+        try {
+            UUID uuid = UUID.fromString(name);
+            return uuid.toString().equals(name) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static <T> T valueOf(T[] values, int ordinal) {
+        if (ordinal >= values.length) {
+            throw new IllegalArgumentException("Unknown ordinal " + ordinal + " in protection data");
+        }
+        return values[ordinal];
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    /**
+     * Reads the encoded bytes, throwing an IllegalArgumentException when reading past the end
+     */
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        private Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private int readByte() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("Truncated protection data");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Invalid varint in protection data");
+        }
+
+        private long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        private String readString(int length) {
+            if (length < 0 || length > bytes.length - position) {
+                throw new IllegalArgumentException("Truncated protection data");
+            }
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.griefcraft.sql;
+
+import com.griefcraft.lwc.LWC;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Background maintenance of SQLite databases. The write-ahead log is checkpointed every
+ * database.sqlite.checkpointInterval seconds and PRAGMA optimize runs every database.sqlite.optimizeInterval
+ * minutes, so neither happens while the main thread commits. The database can be vacuumed incrementally on request.
+ * <p>
+ * All work is done on separate connections on the database executor, except for the conversion to incremental
+ * vacuuming. It blocks all writes until it is done, so it is scheduled for the next start of LWC.
+ */
+public class SQLiteMaintenance {
+
+    /**
+     * The size of the write-ahead log (in pages) at which SQLite checkpoints by itself, only reached if the
+     * background checkpoints fall behind
+     */
+    static final int AUTO_CHECKPOINT_PAGES = 10000;
+
+    /**
+     * The amount of pages freed by one step of an incremental vacuum
+     */
+    private static final int VACUUM_STEP_PAGES = 256;
+
+    /**
+     * The value of PRAGMA auto_vacuum for incremental vacuuming
+     */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * The key in the internal table set when the database should be converted on the next start
+     */
+    private static final String CONVERSION_KEY = "sqliteVacuumConversion";
+
+    /**
+     * A maintenance statement run on its own connection
+     */
+    private interface MaintenanceTask {
+        void run(Statement statement) throws SQLException;
+    }
+
+    /**
+     * The LWC instance
+     */
+    private final LWC lwc;
+
+    /**
+     * If a vacuum is running
+     */
+    private final AtomicBoolean vacuuming = new AtomicBoolean();
+
+    private BukkitTask checkpointTask;
+    private BukkitTask optimizeTask;
+
+    /**
+     * Set when the maintenance is stopped, so a running vacuum ends
+     */
+    private volatile boolean stopped;
+
+    public SQLiteMaintenance(LWC lwc) {
+        this.lwc = lwc;
+    }
+
+    /**
+     * Start the timers, if the database is an SQLite file
+     */
+    public void start() {
+        if (!lwc.getPhysicalDatabase().isSQLiteFile()) {
+            return;
+        }
+        stopped = false;
+
+        long checkpointInterval = lwc.getConfiguration().getInt("database.sqlite.checkpointInterval", 60) * 20L;
+        if (checkpointInterval > 0) {
+            checkpointTask = Bukkit.getScheduler().runTaskTimer(lwc.getPlugin(), () -> runInBackground("checkpoint", this::checkpoint), checkpointInterval, checkpointInterval);
+        }
+
+        long optimizeInterval = lwc.getConfiguration().getInt("database.sqlite.optimizeInterval", 60) * 60 * 20L;
+        if (optimizeInterval > 0) {
+            optimizeTask = Bukkit.getScheduler().runTaskTimer(lwc.getPlugin(), () -> runInBackground("optimize", this::optimize), optimizeInterval, optimizeInterval);
+        }
+    }
+
+    /**
+     * Convert the database to incremental vacuuming if it was scheduled by /lwc admin db vacuum full. Must be called
+     * while LWC is loaded, before anything else uses the database.
+     */
+    public void convertIfScheduled() {
+        PhysDB database = lwc.getPhysicalDatabase();
+        if (!database.isSQLiteFile() || !Boolean.parseBoolean(database.getInternal(CONVERSION_KEY))) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try (Connection connection = database.openAutoCommitConnection(); Statement statement = connection.createStatement()) {
+            if (queryInt(statement, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                lwc.log("Converting the database to incremental vacuuming, this may take a while...");
+                statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                statement.execute("VACUUM");
+                lwc.log("Converted the database in " + (System.currentTimeMillis() - start) / 1000 + " seconds");
+            }
+        } catch (SQLException e) {
+            lwc.getPlugin().getLogger().log(Level.SEVERE, "Could not convert the database to incremental vacuuming", e);
+        }
+
+        // a failed conversion is not repeated on every start
+        database.setInternal(CONVERSION_KEY, Boolean.toString(false));
+    }
+
+    /**
+     * Stop the timers and any running vacuum
+     */
+    public void stop() {
+        stopped = true;
+        if (checkpointTask != null) {
+            checkpointTask.cancel();
+            checkpointTask = null;
+        }
+        if (optimizeTask != null) {
+            optimizeTask.cancel();
+            optimizeTask = null;
+        }
+    }
+
+    /**
+     * Vacuum the database in the background. Databases that were created without incremental vacuuming have to
+     * be converted once by a full vacuum, which blocks all writes until it is done, so it is scheduled for the next
+     * start instead.
+     *
+     * @param sender
+     *            receives the progress messages
+     * @param full
+     *            if a database that can not be vacuumed incrementally should be converted on the next start
+     */
+    public void vacuum(CommandSender sender, boolean full) {
+        if (!lwc.getPhysicalDatabase().isSQLiteFile()) {
+            lwc.sendLocale(sender, "lwc.admin.db.vacuum.unsupported");
+            return;
+        }
+
+        if (!vacuuming.compareAndSet(false, true)) {
+            lwc.sendLocale(sender, "lwc.admin.db.vacuum.running");
+            return;
+        }
+
+        lwc.getDatabaseExecutor().execute(() -> {
+            try {
+                vacuum(lwc.getPhysicalDatabase(), sender, full);
+            } catch (SQLException e) {
+                lwc.getPlugin().getLogger().log(Level.SEVERE, "Could not vacuum the database", e);
+                sendLocale(sender, "lwc.admin.db.vacuum.failed");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                vacuuming.set(false);
+            }
+        });
+    }
+
+    private void vacuum(PhysDB database, CommandSender sender, boolean full) throws SQLException, InterruptedException {
+        long start = System.currentTimeMillis();
+
+        try (Connection connection = database.openAutoCommitConnection(); Statement statement = connection.createStatement()) {
+            if (queryInt(statement, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                if (!full) {
+                    sendLocale(sender, "lwc.admin.db.vacuum.notincremental");
+                    return;
+                }
+
+                database.setInternal(CONVERSION_KEY, Boolean.toString(true));
+                sendLocale(sender, "lwc.admin.db.vacuum.scheduled");
+                return;
+            }
+
+            int total = queryInt(statement, "PRAGMA freelist_count");
+            sendLocale(sender, "lwc.admin.db.vacuum.start", "pages", total);
+
+            int free = total;
+            while (free > 0 && !stopped && LWC.ENABLED) {
+                long stepStart = System.nanoTime();
+
+                // every step of the statement frees one page, so all of its rows have to be read
+                if (statement.execute("PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")")) {
+                    try (ResultSet set = statement.getResultSet()) {
+                        while (set.next()) {
+                        }
+                    }
+                }
+
+                int remaining = queryInt(statement, "PRAGMA freelist_count");
+                if (remaining >= free) {
+                    break;
+                }
+                free = remaining;
+
+                // leave the database to the other connections for as long as the step took
+                long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stepStart);
+                if (took > 0) {
+                    Thread.sleep(took);
+                }
+            }
+
+            sendLocale(sender, "lwc.admin.db.vacuum.complete", "pages", total - free, "seconds", (System.currentTimeMillis() - start) / 1000);
+        }
+    }
+
+    /**
+     * Write the write-ahead log back into the database without waiting for readers or writers
+     */
+    private void checkpoint(Statement statement) throws SQLException {
+        statement.execute("PRAGMA wal_checkpoint(PASSIVE)");
+    }
+
+    /**
+     * Let SQLite update the statistics it plans queries with, if they are outdated
+     */
+    private void optimize(Statement statement) throws SQLException {
+        statement.execute("PRAGMA optimize");
+    }
+
+    /**
+     * Run a maintenance task on a separate connection on the database executor
+     *
+     * @param name
+     * @param task
+     */
+    private void runInBackground(String name, MaintenanceTask task) {
+        if (!LWC.ENABLED || stopped) {
+            return;
+        }
+
+        PhysDB database = lwc.getPhysicalDatabase();
+        lwc.getDatabaseExecutor().execute(() -> {
+            try (Connection connection = database.openAutoCommitConnection(); Statement statement = connection.createStatement()) {
+                task.run(statement);
+            } catch (SQLException e) {
+                lwc.getPlugin().getLogger().log(Level.WARNING, "Could not run the database " + name, e);
+            }
+        });
+    }
+
+    private int queryInt(Statement statement, String sql) throws SQLException {
+        try (ResultSet set = statement.executeQuery(sql)) {
+            return set.next() ? set.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Send a message from the database executor
+     */
+    private void sendLocale(CommandSender sender, String key, Object... args) {
+        if (LWC.ENABLED) {
+            Bukkit.getScheduler().runTask(lwc.getPlugin(), () -> lwc.sendLocale(sender, key, args));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.griefcraft.sql;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps world names to the ids stored in the worldId column of the protections, backed by the worlds table. The
+ * mappings are loaded on first use and new worlds are registered when a protection in them is written. Unknown
+ * worlds are looked up again, as they might have been registered by another server sharing the database.
+ * <p>
+ * Lookups can be done from any thread.
+ */
+class WorldMap {
+
+    /**
+     * The database the mappings are stored in
+     */
+    private final PhysDB database;
+
+    private final ConcurrentHashMap<String, Integer> worldToId = new ConcurrentHashMap<>();
+
+    private volatile String[] idToWorld = new String[16];
+
+    private volatile boolean loaded;
+
+    /**
+     * When the mappings were last loaded to look up an unknown world name
+     */
+    private volatile long lastNameReload;
+
+    /**
+     * The minimum time between two loads caused by unknown world names (in milliseconds)
+     */
+    private static final long NAME_RELOAD_INTERVAL = 5000;
+
+    WorldMap(PhysDB database) {
+        this.database = database;
+    }
+
+    /**
+     * Get the id of a world without registering it
+     *
+     * @param world
+     * @return the id or -1 if no protection was ever stored in the world
+     */
+    int getId(String world) {
+        if (world == null) {
+            return -1;
+        }
+
+        ensureLoaded();
+        Integer id = worldToId.get(world);
+        if (id == null && System.currentTimeMillis() - lastNameReload > NAME_RELOAD_INTERVAL) {
+            lastNameReload = System.currentTimeMillis();
+            reload();
+            id = worldToId.get(world);
+        }
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get the name of a world id
+     *
+     * @param id
+     * @return the name or null if the id is unknown
+     */
+    String getName(int id) {
+        if (id <= 0) {
+            return null;
+        }
+
+        ensureLoaded();
+        String name = lookup(id);
+        if (name == null) {
+            reload();
+            name = lookup(id);
+        }
+        return name;
+    }
+
+    /**
+     * Get the id of a world, adding it to the worlds table if it is not known yet
+     *
+     * @param world
+     * @return the id
+     */
+    int registerOrGetId(String world) {
+        int id = getId(world);
+        if (id >= 0) {
+            return id;
+        }
+
+        // the database is locked before the map, as writes that register worlds already hold it
+        synchronized (database) {
+            id = lookup(world);
+            if (id < 0) {
+                id = database.addWorldMapping(world);
+                add(id, world);
+            }
+            return id;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+
+        Map<Integer, String> mappings = database.loadWorldMappings();
+        synchronized (this) {
+            if (!loaded) {
+                for (Map.Entry<Integer, String> e : mappings.entrySet()) {
+                    add(e.getKey(), e.getValue());
+                }
+                loaded = true;
+            }
+        }
+    }
+
+    /**
+     * Add the mappings registered by other servers
+     */
+    private void reload() {
+        Map<Integer, String> mappings = database.loadWorldMappings();
+        synchronized (this) {
+            for (Map.Entry<Integer, String> e : mappings.entrySet()) {
+                if (!worldToId.containsKey(e.getValue())) {
+                    add(e.getKey(), e.getValue());
+                }
+            }
+        }
+    }
+
+    private String lookup(int id) {
+        String[] names = idToWorld;
+        return id < names.length ? names[id] : null;
+    }
+
+    private int lookup(String world) {
+        Integer id = worldToId.get(world);
+        return id == null ? -1 : id;
+    }
+
+    private synchronized void add(int id, String world) {
+        String[] names = idToWorld;
+        if (names.length <= id) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, id + 1));
+        } else {
+            names = names.clone();
+        }
+        names[id] = world;
+        idToWorld = names;
+        worldToId.put(world, id);
+    }
+}
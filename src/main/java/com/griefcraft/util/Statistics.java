@@ -155,7 +155,7 @@ public class Statistics {
 
         ProtectionCache cache = lwc.getProtectionCache();
 
-        double cachePercentFilled = ((double) cache.size() / cache.totalCapacity()) * 100;
+        double cachePercentFilled = ((double) cache.getMemoryUsage() / cache.getMemoryBudget()) * 100;
 
         String cacheColour = Colors.Green;
         if (cachePercentFilled > 75 && cachePercentFilled < 85) {
@@ -166,9 +166,11 @@ public class Statistics {
             cacheColour = Colors.Red;
         }
 
-        sender.sendMessage("  Usage: " + cacheColour + String.format("%.2f", cachePercentFilled) + "% " + Colors.White + " ( " + cache.size() + "/" + cache.totalCapacity() + " [" + cache.capacity() + "+" + cache.adaptiveCapacity() + "] )");
+        sender.sendMessage("  Usage: " + cacheColour + String.format("%.2f", cachePercentFilled) + "% " + Colors.White + " ( " + formatNumber(cache.size()) + " protections, " + String.format("%.1f", cache.getMemoryUsage() / 1048576.0) + "/" + cache.getMemoryBudget() / 1048576 + " MB )");
         sender.sendMessage("  Blocks: " + Colors.Green + "Hit: " + formatNumber(blockCacheHit) + " + " + formatNumber(blockCacheHitNull) + " " + Colors.Red + "Miss: " + formatNumber(blockCacheMiss) + " + " + formatNumber(blockCacheMissNull));
         sender.sendMessage("  Entities: " + Colors.Green + "Hit: " + formatNumber(entityCacheHit) + " + " + formatNumber(entityCacheHitNull) + " " + Colors.Red + "Miss: " + formatNumber(entityCacheMiss) + " + " + formatNumber(entityCacheMissNull));
+        sender.sendMessage("  Hit Rate: " + Colors.Green + "Blocks: " + formatRate(blockCacheHit + blockCacheHitNull, blockCacheMiss + blockCacheMissNull) + " Entities: " + formatRate(entityCacheHit + entityCacheHitNull, entityCacheMiss + entityCacheMissNull) + " Cache: " + formatRate(cache.getHits(), cache.getMisses()));
+        sender.sendMessage("  Policy: " + Colors.Green + cache.getPolicy() + Colors.White + " | Evictions: " + Colors.Green + formatNumber(cache.getEvictions()) + Colors.White + " | Rejected: " + Colors.Green + formatNumber(cache.getRejections()));
         if (updatedLegacyEntities > 0) {
             sender.sendMessage("  Updated Legacy Entities: " + Colors.Green + formatNumber(updatedLegacyEntities));
         }
@@ -262,6 +264,18 @@ public class Statistics {
         blockCacheMissNull++;
     }
 
+    /**
+     * Format the share of hits of all lookups
+     *
+     * @param hits
+     * @param misses
+     * @return the hit rate in percent, or - if there were no lookups
+     */
+    private static String formatRate(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? "-" : String.format("%.1f%%", hits * 100.0 / total);
+    }
+
     public static void addUpdatedLegacyEntity() {
         updatedLegacyEntities++;
     }